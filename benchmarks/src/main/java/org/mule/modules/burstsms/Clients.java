@@ -0,0 +1,36 @@
+package org.mule.modules.burstsms;
+
+import org.mule.modules.burstsms.config.ConnectorConfig;
+
+/**
+ * Creates clients configured as DevKit would, without a Mule runtime
+ */
+final class Clients {
+
+	private Clients() {
+	}
+
+	/**
+	 * Create a client which makes every call, so concurrent identical reads are measured as
+	 * separate calls rather than shared
+	 */
+	static BurstSMSClient create(String apiUrl) {
+		return create(apiUrl, false);
+	}
+
+	/**
+	 * @param coalesceReads True to share concurrent identical reads, as the connector does by default
+	 */
+	static BurstSMSClient create(String apiUrl, boolean coalesceReads) {
+		ConnectorConfig config = new ConnectorConfig();
+		config.setApiUrl(apiUrl);
+		config.setUsername("benchmark");
+		config.setPassword("secret");
+		config.setJmxEnabled(false);
+		config.setCoalesceReads(coalesceReads);
+
+		BurstSMSConnector connector = new BurstSMSConnector();
+		connector.setConfig(config);
+		return new BurstSMSClient(connector);
+	}
+}
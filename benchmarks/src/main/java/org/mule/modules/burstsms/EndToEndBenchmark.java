@@ -0,0 +1,83 @@
+package org.mule.modules.burstsms;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mule.modules.burstsms.BurstSMSConnector.MemberSelection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Complete calls through the client, including authentication, rate limiting, the circuit
+ * breaker, metrics and HTTP, against a local stub of the API. get-balance has the smallest
+ * request and response, so it measures the fixed cost of each call. Run with more threads 
+ * (-t) to measure contention, and with -prof gc for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class EndToEndBenchmark {
+
+	private static final int PAGE_SIZE = 100;
+	private static final int RECIPIENTS = 100;
+
+	private StubApiServer server;
+	private BurstSMSClient client;
+	private List<String> numbers;
+
+	@Setup
+	public void setUp() throws IOException {
+		server = new StubApiServer();
+		server.respond("/get-balance.json", Payloads.balance());
+		server.respond("/get-sms-sent.json", Payloads.smsSent(PAGE_SIZE));
+		server.respond("/get-list.json", Payloads.list(PAGE_SIZE));
+		server.respond("/send-sms.json", Payloads.sendSms(RECIPIENTS));
+		client = Clients.create(server.getUrl());
+		numbers = Payloads.numbers(RECIPIENTS);
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.close();
+		server.stop();
+	}
+
+	@Benchmark
+	public Object getBalance() throws BurstSMSException {
+		return client.getBalance();
+	}
+
+	@Benchmark
+	public Object getSMSSent() throws BurstSMSException {
+		return client.getSMSSent("48782", null, 1, PAGE_SIZE, null);
+	}
+
+	@Benchmark
+	public Object getSMSSentPage() throws BurstSMSException {
+		return client.getSMSSentPage("48782", null, 1, PAGE_SIZE, null);
+	}
+
+	@Benchmark
+	public Object getListPage() throws BurstSMSException {
+		return client.getListPage("55", MemberSelection.ACTIVE, 1, PAGE_SIZE);
+	}
+
+	@Benchmark
+	public Object sendSMS() throws BurstSMSException {
+		return client.sendSMS("Hi guys, your order is ready to collect", numbers, "Shop", null, null,
+				null, null, null, null, null, null);
+	}
+}
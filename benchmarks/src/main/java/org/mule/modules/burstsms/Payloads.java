@@ -0,0 +1,86 @@
+package org.mule.modules.burstsms;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Realistic API responses and request data for the benchmarks, in the shapes documented for
+ * the BurstSMS API.
+ */
+final class Payloads {
+
+	private Payloads() {
+	}
+
+	/**
+	 * @return Australian mobile numbers in international format
+	 */
+	static List<String> numbers(int count) {
+		List<String> numbers = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++)
+			numbers.add(Long.toString(61400000000L + i * 7919L % 100000000L));
+		return numbers;
+	}
+
+	/**
+	 * @return A get-sms-sent response for one page of recipients
+	 */
+	static byte[] smsSent(int recipients) {
+		StringBuilder json = new StringBuilder(recipients * 220 + 400);
+		json.append("{\"message\":{\"id\":48782,\"list_id\":0,\"message\":\"Hi guys, your order is ready to collect\",")
+			.append("\"send_at\":\"2016-08-01 10:00:00\",\"recipients\":").append(recipients)
+			.append(",\"cost\":").append(recipients * 0.066).append(",\"sms\":").append(recipients)
+			.append(",\"delivery_stats\":{\"delivered\":").append(recipients).append(",\"pending\":0,\"bounced\":0,")
+			.append("\"responses\":0,\"optouts\":0}},\"recipients\":[");
+		for (int i = 0; i < recipients; i++) {
+			if (i > 0)
+				json.append(',');
+			json.append("{\"msisdn\":").append(61400000000L + i)
+				.append(",\"first_name\":\"Firstname").append(i)
+				.append("\",\"last_name\":\"Lastname").append(i)
+				.append("\",\"send_at\":\"2016-08-01 10:00:00\",\"delivered_at\":\"2016-08-01 10:00:05\",")
+				.append("\"delivery_status\":\"delivered\"}");
+		}
+		json.append("],\"page\":{\"count\":1,\"number\":1},\"total\":").append(recipients)
+			.append(",\"error\":{\"code\":\"SUCCESS\",\"description\":\"OK\"}}");
+		return json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return A get-list response for one page of members with custom fields
+	 */
+	static byte[] list(int members) {
+		StringBuilder json = new StringBuilder(members * 260 + 400);
+		json.append("{\"id\":55,\"name\":\"Customers\",\"members_total\":").append(members)
+			.append(",\"members_active\":").append(members)
+			.append(",\"fields\":{\"field_1\":\"birthday\",\"field_2\":\"city\",\"field_3\":\"loyalty\"},")
+			.append("\"members\":[");
+		for (int i = 0; i < members; i++) {
+			if (i > 0)
+				json.append(',');
+			json.append("{\"id\":").append(1000000 + i)
+				.append(",\"msisdn\":").append(61400000000L + i)
+				.append(",\"first_name\":\"Firstname").append(i)
+				.append("\",\"last_name\":\"Lastname").append(i)
+				.append("\",\"created_at\":\"2016-08-01 10:00:00\",\"status\":\"active\",")
+				.append("\"field_1\":\"1980-01-01\",\"field_2\":\"Sydney\",\"field_3\":\"gold\"}");
+		}
+		json.append("],\"page\":{\"count\":1,\"number\":1},\"total\":").append(members)
+			.append(",\"error\":{\"code\":\"SUCCESS\",\"description\":\"OK\"}}");
+		return json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	static byte[] sendSms(int recipients) {
+		return ("{\"message_id\":48782,\"send_at\":\"2016-08-01 10:00:00\",\"recipients\":" + recipients
+				+ ",\"cost\":" + recipients * 0.066 + ",\"sms\":" + recipients
+				+ ",\"delivery_stats\":{\"delivered\":0,\"pending\":0,\"bounced\":0,\"responses\":0,\"optouts\":0},"
+				+ "\"fails\":[],\"error\":{\"code\":\"SUCCESS\",\"description\":\"OK\"}}")
+				.getBytes(StandardCharsets.UTF_8);
+	}
+
+	static byte[] balance() {
+		return ("{\"balance\":1234.56,\"currency\":\"AUD\","
+				+ "\"error\":{\"code\":\"SUCCESS\",\"description\":\"OK\"}}").getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,93 @@
+package org.mule.modules.burstsms;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.mule.modules.burstsms.BurstSMSConnector.CountryCode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Building request URIs: joining recipient lists, the query parameters of a typical send-sms
+ * call, and mapping custom list field keys, up to the finished URI. No requests are sent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RequestBuildingBenchmark {
+
+	@Param({"100", "10000"})
+	public int recipients;
+
+	private BurstSMSClient client;
+	private List<String> numbers;
+	private Map<String, String> fields;
+
+	@Setup
+	public void setUp() {
+		client = Clients.create("http://127.0.0.1:1/");
+		numbers = Payloads.numbers(recipients);
+		fields = new LinkedHashMap<String, String>();
+		for (int i = 1; i <= 5; i++)
+			fields.put(Integer.toString(i), "value" + i);
+		fields.put("birthday", "1980-01-01");
+		fields.put("city", "Sydney");
+		fields.put("loyalty", "gold");
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.close();
+	}
+
+	@Benchmark
+	public Object recipientList() {
+		return client.new RequestBuilder("send-sms.json").param("to", numbers).getURI();
+	}
+
+	@Benchmark
+	public Object sendSmsParams() {
+		return client.new RequestBuilder("send-sms.json")
+				.param("message", "Hi guys, your order is ready to collect")
+				.param("to", numbers)
+				.param("from", "Shop")
+				.param("send_at", "2016-08-01 10:00:00")
+				.param("dlr_callback", "https://example.com/dlr?id=48782&source=mule")
+				.param("validity", 60L)
+				.param("countrycode", CountryCode.AU)
+				.getURI();
+	}
+
+	@Benchmark
+	public void fieldParamNames(Blackhole blackhole) {
+		for (String key: fields.keySet())
+			blackhole.consume(BurstSMSClient.fieldParamName(key));
+	}
+
+	@Benchmark
+	public Object addToListParams() {
+		return client.new RequestBuilder("add-to-list.json")
+				.param("list_id", "55")
+				.param("msisdn", "61491570156")
+				.param("first_name", "Firstname")
+				.param("last_name", "Lastname")
+				.fields(fields)
+				.getURI();
+	}
+}
@@ -0,0 +1,63 @@
+package org.mule.modules.burstsms;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.mule.modules.burstsms.model.JsonResponses;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Deserialising get-sms-sent and get-list pages, both into the generic maps returned by the 
+ * processors and into the typed models.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ResponseParsingBenchmark {
+
+	@Param({"10", "1000"})
+	public int pageSize;
+
+	private byte[] smsSent;
+	private byte[] list;
+
+	@Setup
+	public void setUp() {
+		smsSent = Payloads.smsSent(pageSize);
+		list = Payloads.list(pageSize);
+	}
+
+	@Benchmark
+	public Object smsSentAsMap() throws IOException {
+		return JsonResponses.parse(new ByteArrayInputStream(smsSent), JsonResponses.MAP);
+	}
+
+	@Benchmark
+	public Object smsSentAsPage() throws IOException {
+		return JsonResponses.parse(new ByteArrayInputStream(smsSent), JsonResponses.SMS_SENT_PAGE);
+	}
+
+	@Benchmark
+	public Object listAsMap() throws IOException {
+		return JsonResponses.parse(new ByteArrayInputStream(list), JsonResponses.MAP);
+	}
+
+	@Benchmark
+	public Object listAsPage() throws IOException {
+		return JsonResponses.parse(new ByteArrayInputStream(list), JsonResponses.LIST_PAGE);
+	}
+}
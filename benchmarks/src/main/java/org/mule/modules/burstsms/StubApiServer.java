@@ -0,0 +1,77 @@
+package org.mule.modules.burstsms;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for the BurstSMS API which answers each path with a fixed response,
+ * so end-to-end benchmarks measure the connector rather than the network.
+ */
+class StubApiServer {
+
+	private final Map<String, byte[]> responses = new ConcurrentHashMap<String, byte[]>();
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	StubApiServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+		executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		server.setExecutor(executor);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					drain(exchange.getRequestBody());
+					byte[] body = responses.get(exchange.getRequestURI().getPath());
+					exchange.getResponseHeaders().set("Content-Type", "application/json");
+					if (body == null) {
+						body = "{\"error\":{\"code\":\"NOT_FOUND\",\"description\":\"Unknown path\"}}".getBytes("UTF-8");
+						exchange.sendResponseHeaders(404, body.length);
+					} else {
+						exchange.sendResponseHeaders(200, body.length);
+					}
+					OutputStream out = exchange.getResponseBody();
+					out.write(body);
+					out.close();
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * @param path The API path, e.g. /get-balance.json
+	 * @param body The JSON returned for the path
+	 */
+	void respond(String path, byte[] body) {
+		responses.put(path, body);
+	}
+
+	String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[8192];
+		while (in.read(buffer) >= 0) {
+		}
+		in.close();
+	}
+}
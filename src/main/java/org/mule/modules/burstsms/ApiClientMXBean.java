@@ -0,0 +1,23 @@
+package org.mule.modules.burstsms;
+
+import java.util.List;
+
+/**
+ * JMX view of one connector configuration's client.
+ * <p>
+ * Registered as <code>org.mule.modules.burstsms:type=ApiClient,client=&lt;n&gt;</code> when the
+ * client is created. Registering it reserves <code>n</code> across every application in the JVM,
+ * so the {@link ApiOperationMXBean}s of different applications never have the same name.
+ */
+public interface ApiClientMXBean {
+
+	/**
+	 * @return The operations called so far, each with an {@link ApiOperationMXBean}
+	 */
+	List<String> getOperations();
+
+	/**
+	 * @return The number of HTTP requests made for every operation, including retries
+	 */
+	long getRequests();
+}
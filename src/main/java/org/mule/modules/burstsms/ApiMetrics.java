@@ -0,0 +1,287 @@
+package org.mule.modules.burstsms;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.modules.burstsms.BurstSMSException.ResponseCode;
+
+/**
+ * Counts, times and sizes the calls made to each API operation, and publishes them as
+ * {@link ApiOperationMXBean}s, under an {@link ApiClientMXBean} for the client.
+ * <p>
+ * Recording uses only striped counters and atomic increments, so it is cheap enough to leave
+ * on in production; the percentiles are only calculated when they are read.
+ */
+class ApiMetrics implements ApiClientMXBean {
+
+	static Log logger = LogFactory.getLog(ApiMetrics.class);
+
+	private static final String DOMAIN = "org.mule.modules.burstsms";
+	private static final AtomicInteger CLIENTS = new AtomicInteger();
+
+	private final ConcurrentMap<String, Operation> operations = new ConcurrentHashMap<String, Operation>();
+	private final MBeanServer mbeanServer;
+	private final String client;
+
+	/**
+	 * @param jmxEnabled True to register an MBean for each operation with the platform MBean server
+	 */
+	ApiMetrics(boolean jmxEnabled) {
+		this.mbeanServer = jmxEnabled ? ManagementFactory.getPlatformMBeanServer() : null;
+		this.client = mbeanServer != null ? reserveClient() : String.valueOf(CLIENTS.incrementAndGet());
+	}
+
+	/**
+	 * @return A client number no other client in the JVM has registered. The counter only numbers
+	 *         the clients of this application, as each application loads the connector separately.
+	 */
+	private String reserveClient() {
+		while (true) {
+			String candidate = String.valueOf(CLIENTS.incrementAndGet());
+			try {
+				mbeanServer.registerMBean(this, clientName(candidate));
+				return candidate;
+			} catch (InstanceAlreadyExistsException ex) {
+				//taken by another application
+			} catch (JMException ex) {
+				logger.warn("Failed to register the MBean for client " + candidate, ex);
+				return candidate;
+			}
+		}
+	}
+
+	/**
+	 * @param path The API path, e.g. send-sms.json
+	 */
+	Operation forPath(String path) {
+		int end = path.indexOf('.');
+		String name = end < 0 ? path : path.substring(0, end);
+
+		Operation operation = operations.get(name);
+		if (operation == null) {
+			Operation created = new Operation();
+			operation = operations.putIfAbsent(name, created);
+			if (operation == null) {
+				operation = created;
+				register(name, operation);
+			}
+		}
+		return operation;
+	}
+
+	/**
+	 * @return The metrics of each operation called so far, keyed by operation
+	 */
+	Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new TreeMap<String, Object>();
+		for (Map.Entry<String, Operation> operation: operations.entrySet())
+			statistics.put(operation.getKey(), operation.getValue().getStatistics());
+		return statistics;
+	}
+
+	@Override
+	public List<String> getOperations() {
+		return new ArrayList<String>(new TreeMap<String, Operation>(operations).keySet());
+	}
+
+	@Override
+	public long getRequests() {
+		long requests = 0;
+		for (Operation operation: operations.values())
+			requests += operation.getRequests();
+		return requests;
+	}
+
+	/**
+	 * Unregister the MBeans
+	 */
+	void close() {
+		if (mbeanServer == null)
+			return;
+		try {
+			if (mbeanServer.isRegistered(clientName(client)))
+				mbeanServer.unregisterMBean(clientName(client));
+		} catch (JMException ex) {
+			logger.warn("Failed to unregister the MBean for client " + client, ex);
+		}
+		for (String name: operations.keySet()) {
+			try {
+				ObjectName objectName = objectName(name);
+				if (mbeanServer.isRegistered(objectName))
+					mbeanServer.unregisterMBean(objectName);
+			} catch (JMException ex) {
+				logger.warn("Failed to unregister the MBean for " + name, ex);
+			}
+		}
+	}
+
+	private void register(String name, Operation operation) {
+		if (mbeanServer == null)
+			return;
+		try {
+			mbeanServer.registerMBean(operation, objectName(name));
+		} catch (JMException ex) {
+			logger.warn("Failed to register the MBean for " + name, ex);
+		}
+	}
+
+	private static ObjectName clientName(String client) throws JMException {
+		return new ObjectName(DOMAIN + ":type=ApiClient,client=" + client);
+	}
+
+	private ObjectName objectName(String name) throws JMException {
+		return new ObjectName(DOMAIN + ":type=ApiOperation,client=" + client + ",name=" + ObjectName.quote(name));
+	}
+
+	/**
+	 * The metrics of one operation
+	 */
+	static class Operation implements ApiOperationMXBean {
+		private final LongAdder requests = new LongAdder();
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final LongAdder retries = new LongAdder();
+		private final AtomicLongArray errors = new AtomicLongArray(ResponseCode.values().length);
+		private final LongAdder ioErrors = new LongAdder();
+		private final LongAdder bytesSent = new LongAdder();
+		private final LongAdder bytesReceived = new LongAdder();
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		/**
+		 * Record that a request is being sent
+		 * @param bytes The size of the request
+		 */
+		void started(long bytes) {
+			requests.increment();
+			bytesSent.add(bytes);
+			inFlight.incrementAndGet();
+		}
+
+		/**
+		 * Record that a response was received, or the request failed
+		 * @param nanos How long the request took
+		 * @param bytes The size of the response body
+		 * @param failure Why the request failed, or null if it succeeded
+		 */
+		void completed(long nanos, long bytes, Exception failure) {
+			inFlight.decrementAndGet();
+			latency.record(nanos);
+			bytesReceived.add(bytes);
+			if (failure != null)
+				failed(failure);
+		}
+
+		/**
+		 * Record a call which failed without a request being sent, e.g. while the circuit is open
+		 */
+		void failed(Exception failure) {
+			if (failure instanceof BurstSMSException && ((BurstSMSException) failure).getCode() != null)
+				errors.incrementAndGet(((BurstSMSException) failure).getCode().ordinal());
+			else
+				ioErrors.increment();
+		}
+
+		void retried() {
+			retries.increment();
+		}
+
+		@Override
+		public long getRequests() {
+			return requests.sum();
+		}
+
+		@Override
+		public int getInFlight() {
+			return inFlight.get();
+		}
+
+		@Override
+		public long getRetries() {
+			return retries.sum();
+		}
+
+		@Override
+		public Map<String, Long> getErrors() {
+			Map<String, Long> counts = new TreeMap<String, Long>();
+			for (ResponseCode code: ResponseCode.values()) {
+				long count = errors.get(code.ordinal());
+				if (count > 0)
+					counts.put(code.name(), count);
+			}
+			return counts;
+		}
+
+		@Override
+		public long getIoErrors() {
+			return ioErrors.sum();
+		}
+
+		@Override
+		public long getBytesSent() {
+			return bytesSent.sum();
+		}
+
+		@Override
+		public long getBytesReceived() {
+			return bytesReceived.sum();
+		}
+
+		@Override
+		public double getLatencyMeanMillis() {
+			return latency.snapshot().getMeanMillis();
+		}
+
+		@Override
+		public double getLatencyP50Millis() {
+			return latency.snapshot().getPercentileMillis(50);
+		}
+
+		@Override
+		public double getLatencyP99Millis() {
+			return latency.snapshot().getPercentileMillis(99);
+		}
+
+		@Override
+		public double getLatencyP999Millis() {
+			return latency.snapshot().getPercentileMillis(99.9);
+		}
+
+		@Override
+		public double getLatencyMaxMillis() {
+			return latency.snapshot().getMaxMillis();
+		}
+
+		Map<String, Object> getStatistics() {
+			LatencyHistogram.Snapshot snapshot = latency.snapshot();
+			Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+			statistics.put("requests", getRequests());
+			statistics.put("inFlight", getInFlight());
+			statistics.put("retries", getRetries());
+			statistics.put("errors", getErrors());
+			statistics.put("ioErrors", getIoErrors());
+			statistics.put("bytesSent", getBytesSent());
+			statistics.put("bytesReceived", getBytesReceived());
+			statistics.put("latencyMeanMillis", snapshot.getMeanMillis());
+			statistics.put("latencyP50Millis", snapshot.getPercentileMillis(50));
+			statistics.put("latencyP99Millis", snapshot.getPercentileMillis(99));
+			statistics.put("latencyP999Millis", snapshot.getPercentileMillis(99.9));
+			statistics.put("latencyMaxMillis", snapshot.getMaxMillis());
+			return statistics;
+		}
+	}
+}
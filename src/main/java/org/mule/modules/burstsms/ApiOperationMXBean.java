@@ -0,0 +1,58 @@
+package org.mule.modules.burstsms;
+
+import java.util.Map;
+
+/**
+ * JMX view of the calls made to one BurstSMS API operation, e.g. send-sms.
+ * <p>
+ * Registered as <code>org.mule.modules.burstsms:type=ApiOperation,client=&lt;n&gt;,name=&lt;operation&gt;</code>
+ * when an operation is first called, where <code>n</code> is the client's number,
+ * reserved by its {@link ApiClientMXBean} so that it is unique across the applications in the JVM.
+ */
+public interface ApiOperationMXBean {
+
+	/**
+	 * @return The number of HTTP requests made, including retries
+	 */
+	long getRequests();
+
+	/**
+	 * @return The number of requests currently waiting for a response
+	 */
+	int getInFlight();
+
+	/**
+	 * @return The number of requests repeated after a transient failure
+	 */
+	long getRetries();
+
+	/**
+	 * @return The number of failed calls for each API response code
+	 */
+	Map<String, Long> getErrors();
+
+	/**
+	 * @return The number of requests which failed without a response, e.g. on a timeout
+	 */
+	long getIoErrors();
+
+	/**
+	 * @return The bytes of request URIs sent
+	 */
+	long getBytesSent();
+
+	/**
+	 * @return The bytes of response bodies received
+	 */
+	long getBytesReceived();
+
+	double getLatencyMeanMillis();
+
+	double getLatencyP50Millis();
+
+	double getLatencyP99Millis();
+
+	double getLatencyP999Millis();
+
+	double getLatencyMaxMillis();
+}
@@ -0,0 +1,104 @@
+package org.mule.modules.burstsms;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs the tasks of one operation, e.g. the chunks of a bulk send, on the connector's shared
+ * asynchronous call pool, with at most <code>parallelism</code> of them in progress at a time.
+ * <p>
+ * Submitting waits while that many are in progress. A task the pool has not started yet may be
+ * run by the submitting thread instead, as may one the pool rejects, so an operation always
+ * completes even when every pool thread is busy, including with operations waiting on their own
+ * tasks. Not thread safe: tasks are submitted and waited for by one thread.
+ */
+class BoundedExecutor {
+
+	private final Executor executor;
+	private final int parallelism;
+	private final Semaphore permits;
+	//the tasks submitted which have not completed, any of which may not have started yet
+	private final Queue<Task<?>> pending = new ConcurrentLinkedQueue<Task<?>>();
+
+	/**
+	 * @param executor The shared pool
+	 * @param parallelism The most tasks in progress at a time
+	 */
+	BoundedExecutor(Executor executor, int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be >= 1");
+		this.executor = executor;
+		this.parallelism = parallelism;
+		this.permits = new Semaphore(parallelism);
+	}
+
+	void execute(Runnable task) {
+		submit(new Task<Object>(task));
+	}
+
+	<T> Future<T> submit(Callable<T> call) {
+		return submit(new Task<T>(call));
+	}
+
+	/**
+	 * Wait for every task submitted to complete
+	 */
+	void awaitCompletion() {
+		runPending();
+		//every task left has been started by the pool
+		permits.acquireUninterruptibly(parallelism);
+		permits.release(parallelism);
+	}
+
+	private <T> Task<T> submit(Task<T> task) {
+		while (!permits.tryAcquire()) {
+			if (!runPending()) {
+				permits.acquireUninterruptibly();
+				break;
+			}
+		}
+		pending.add(task);
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException ex) {
+			task.run();
+		}
+		return task;
+	}
+
+	/**
+	 * Run the tasks the pool has not started yet on this thread
+	 * @return False if there were none
+	 */
+	private boolean runPending() {
+		boolean ran = false;
+		for (Task<?> task; (task = pending.poll()) != null; ) {
+			//does nothing if the pool has started it
+			task.run();
+			ran = true;
+		}
+		return ran;
+	}
+
+	private class Task<T> extends FutureTask<T> {
+		Task(Callable<T> call) {
+			super(call);
+		}
+
+		Task(Runnable task) {
+			super(task, null);
+		}
+
+		@Override
+		protected void done() {
+			pending.remove(this);
+			permits.release();
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package org.mule.modules.burstsms;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.modules.burstsms.BurstSMSConnector.CountryCode;
+import org.mule.modules.burstsms.BurstSMSException.ResponseCode;
+
+/**
+ * Sends one message to a recipient list larger than the API accepts in a single call,
+ * by splitting it into chunks which are sent with bounded parallelism on the shared call pool.
+ * <p>
+ * The per-chunk send-sms responses are merged into a single result. Chunks which fail
+ * do not stop the others; their errors are reported in the result instead, since the
+ * remaining chunks may already have been delivered.
+ */
+class BulkSMSSender {
+
+	static Log logger = LogFactory.getLog(BulkSMSSender.class);
+
+	private final BurstSMSClient client;
+	private final Executor executor;
+	private final int chunkSize;
+	private final int parallelism;
+
+	BulkSMSSender(BurstSMSClient client, Executor executor, int chunkSize, int parallelism) {
+		if (chunkSize < 1 || chunkSize > BurstSMSConnector.MAX_RECIPIENTS_PER_REQUEST)
+			throw new IllegalArgumentException("chunkSize must be >= 1 and <= "
+					+ BurstSMSConnector.MAX_RECIPIENTS_PER_REQUEST);
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be >= 1");
+
+		this.client = client;
+		this.executor = executor;
+		this.chunkSize = chunkSize;
+		this.parallelism = parallelism;
+	}
+
+	Map<String, Object> send(final String message, List<String> to, final String from, final String sendAt,
+			final String dlrCallback, final String replyCallback, final Long validity, final String repliesToEmail,
+			final Boolean fromShared, final CountryCode countryCode) throws BurstSMSException {
+
+		List<Callable<Map<?, ?>>> chunks = new ArrayList<Callable<Map<?, ?>>>();
+		for (int start = 0; start < to.size(); start += chunkSize) {
+			final List<String> chunk = to.subList(start, Math.min(start + chunkSize, to.size()));
+			chunks.add(new Callable<Map<?, ?>>() {
+				@Override
+				public Map<?, ?> call() throws BurstSMSException {
+					return client.sendSMS(message, chunk, from, sendAt, null, dlrCallback, replyCallback,
+							validity, repliesToEmail, fromShared, countryCode);
+				}
+			});
+		}
+
+		logger.info("Sending to " + to.size() + " recipients in " + chunks.size() + " chunks");
+
+		BoundedExecutor sender = new BoundedExecutor(executor, parallelism);
+		List<Future<Map<?, ?>>> results = new ArrayList<Future<Map<?, ?>>>(chunks.size());
+		for (Callable<Map<?, ?>> chunk: chunks)
+			results.add(sender.submit(chunk));
+		sender.awaitCompletion();
+		return aggregate(results);
+	}
+
+	private Map<String, Object> aggregate(List<Future<Map<?, ?>>> results) throws BurstSMSException {
+		List<Object> messageIds = new ArrayList<Object>();
+		List<Object> fails = new ArrayList<Object>();
+		List<Map<String, Object>> errors = new ArrayList<Map<String, Object>>();
+		long recipients = 0;
+		long sms = 0;
+		double cost = 0;
+		BurstSMSException firstError = null;
+
+		for (int i = 0; i < results.size(); i++) {
+			Map<?, ?> result;
+			try {
+				result = getUninterruptibly(results.get(i));
+			} catch (BurstSMSException ex) {
+				if (firstError == null)
+					firstError = ex;
+				errors.add(chunkError(i, ex.getCode(), ex.getMessage()));
+				continue;
+			}
+
+			if (result.get("message_id") != null)
+				messageIds.add(result.get("message_id"));
+			if (result.get("fails") instanceof List)
+				fails.addAll((List<?>) result.get("fails"));
+			recipients += longValue(result.get("recipients"));
+			sms += longValue(result.get("sms"));
+			cost += doubleValue(result.get("cost"));
+		}
+
+		if (firstError != null && errors.size() == results.size())
+			throw firstError;
+
+		Map<String, Object> aggregate = new LinkedHashMap<String, Object>();
+		aggregate.put("message_ids", messageIds);
+		aggregate.put("chunks", results.size());
+		aggregate.put("recipients", recipients);
+		aggregate.put("sms", sms);
+		aggregate.put("cost", cost);
+		aggregate.put("fails", fails);
+		aggregate.put("errors", errors);
+		return aggregate;
+	}
+
+	private static Map<?, ?> getUninterruptibly(Future<Map<?, ?>> future) throws BurstSMSException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return future.get();
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				} catch (ExecutionException ex) {
+					if (ex.getCause() instanceof BurstSMSException)
+						throw (BurstSMSException) ex.getCause();
+					throw new BurstSMSException(ResponseCode.UNKNOWN, String.valueOf(ex.getCause()), 0, ex.getCause());
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private static Map<String, Object> chunkError(int chunk, ResponseCode code, String description) {
+		Map<String, Object> error = new LinkedHashMap<String, Object>();
+		error.put("chunk", chunk);
+		error.put("code", code != null ? code.name() : null);
+		error.put("description", description);
+		return error;
+	}
+
+	static long longValue(Object value) {
+		if (value instanceof Number)
+			return ((Number) value).longValue();
+		if (value != null) {
+			try {
+				return Long.parseLong(value.toString());
+			} catch (NumberFormatException ignore) {}
+		}
+		return 0;
+	}
+
+	static double doubleValue(Object value) {
+		if (value instanceof Number)
+			return ((Number) value).doubleValue();
+		if (value != null) {
+			try {
+				return Double.parseDouble(value.toString());
+			} catch (NumberFormatException ignore) {}
+		}
+		return 0;
+	}
+}
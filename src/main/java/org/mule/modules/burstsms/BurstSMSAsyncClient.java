@@ -0,0 +1,417 @@
+package org.mule.modules.burstsms;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.mule.modules.burstsms.BurstSMSConnector.CountryCode;
+import org.mule.modules.burstsms.BurstSMSConnector.DeliveryStatus;
+import org.mule.modules.burstsms.BurstSMSConnector.MemberSelection;
+import org.mule.modules.burstsms.BurstSMSConnector.NumberFilter;
+import org.mule.modules.burstsms.BurstSMSConnector.OnlyOmitBoth;
+import org.mule.modules.burstsms.BurstSMSConnector.OnlyOmitInclude;
+
+/**
+ * Non-blocking variants of every {@link BurstSMSClient} operation.
+ * <p>
+ * Each method returns immediately with a {@link CompletableFuture} which completes with the 
+ * API response, or exceptionally with the {@link BurstSMSException} the call failed with. 
+ * Calls run on a dedicated, bounded pool so a single flow thread can keep many requests 
+ * in flight. When both the pool and its queue are full the returned future fails with a 
+ * {@link RejectedExecutionException} rather than blocking the caller.
+ * <p>
+ * Obtain an instance from {@link BurstSMSConnector#getBurstSMSAsyncClient()}.
+ */
+public class BurstSMSAsyncClient {
+
+	private final BurstSMSClient client;
+	private final ThreadPoolExecutor executor;
+
+	BurstSMSAsyncClient(BurstSMSClient client, int threads, int queueSize) {
+		this.client = client;
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), HttpTransport.daemonThreadFactory("burst-sms-async"));
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return The number of calls submitted but not yet completed
+	 */
+	public int getPendingCount() {
+		return executor.getActiveCount() + executor.getQueue().size();
+	}
+
+	/**
+	 * @return The pool asynchronous calls run on
+	 */
+	Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Stop accepting calls. Calls already submitted are allowed to finish.
+	 */
+	public void close() {
+		executor.shutdown();
+	}
+
+	public CompletableFuture<Map<?, ?>> sendSMS(final String message, final List<String> to, final String from,
+			final String sendAt, final Long listId, final String dlrCallback, final String replyCallback,
+			final Long validity, final String repliesToEmail, final Boolean fromShared,
+			final CountryCode countryCode) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.sendSMS(message, to, from, sendAt, listId, dlrCallback, replyCallback,
+						validity, repliesToEmail, fromShared, countryCode);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> sendBulkSMS(final String message, final List<String> to,
+			final String from, final String sendAt, final String dlrCallback, final String replyCallback,
+			final Long validity, final String repliesToEmail, final Boolean fromShared, final CountryCode countryCode,
+			final int chunkSize, final int parallelism) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.sendBulkSMS(message, to, from, sendAt, dlrCallback, replyCallback, validity,
+						repliesToEmail, fromShared, countryCode, chunkSize, parallelism);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> formatNumber(final String number, final CountryCode countryCode) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.formatNumber(number, countryCode);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> getSMS(final String messageId) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.getSMS(messageId);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> getSMSStatus(final String messageId) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.getSMSStatus(messageId);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> getSMSResponses(final String messageId, final String keywordId,
+			final String keyword, final String number, final String msisdn, final Integer page, final Integer max,
+			final Boolean includeOriginal) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.getSMSResponses(messageId, keywordId, keyword, number, msisdn, page, max,
+						includeOriginal);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> getUserSMSResponses(final String start, final String end,
+			final Integer page, final Integer max, final OnlyOmitBoth keywords, final Boolean includeOriginal) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.getUserSMSResponses(start, end, page, max, keywords, includeOriginal);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> getSMSSent(final String messageId, final OnlyOmitInclude optouts,
+			final Integer page, final Integer max, final DeliveryStatus delivery) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.getSMSSent(messageId, optouts, page, max, delivery);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> cancelSMS(final String messageId) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.cancelSMS(messageId);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> getNumber(final String number) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.getNumber(number);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> getNumbers(final NumberFilter filter, final Integer page,
+			final Integer max) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.getNumbers(filter, page, max);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> leaseNumber(final String number) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.leaseNumber(number);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> addKeyword(final String keyword, final String number,
+			final String reference, final String listId, final String welcomeMessage, final String membersMessage,
+			final Boolean activate, final String forwardURL, final List<String> forwardEmail,
+			final List<String> forwardSMS) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.addKeyword(keyword, number, reference, listId, welcomeMessage,
+						membersMessage, activate, forwardURL, forwardEmail, forwardSMS);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> editKeyword(final String keyword, final String number,
+			final String reference, final String listId, final String welcomeMessage, final String membersMessage,
+			final Boolean activate, final String forwardURL, final List<String> forwardEmail,
+			final List<String> forwardSMS) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.editKeyword(keyword, number, reference, listId, welcomeMessage,
+						membersMessage, activate, forwardURL, forwardEmail, forwardSMS);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> getKeywords(final String number, final Integer page, final Integer max) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.getKeywords(number, page, max);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> removeList(final String listId) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.removeList(listId);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> getList(final String listId, final MemberSelection members,
+			final Integer page, final Integer max) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.getList(listId, members, page, max);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> getLists(final Integer page, final Integer max) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.getLists(page, max);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> addList(final String listName, final List<String> fieldNames) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.addList(listName, fieldNames);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> addToList(final String listId, final String number,
+			final String firstName, final String lastName, final Map<String, String> fields,
+			final CountryCode countryCode) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.addToList(listId, number, firstName, lastName, fields, countryCode);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> addFieldToList(final String listId, final Map<String, String> fields) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.addFieldToList(listId, fields);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> deleteFromList(final String listId, final String number) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.deleteFromList(listId, number);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> optOutListMember(final String listId, final String number) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.optOutListMember(listId, number);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> editListMember(final String listId, final String number,
+			final String firstName, final String lastName, final Map<String, String> fields) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.editListMember(listId, number, firstName, lastName, fields);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> addEmail(final String email, final Integer maxSMS, final String number) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.addEmail(email, maxSMS, number);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> deleteEmail(final String email) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.deleteEmail(email);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> getClient(final String clientId) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.getClient(clientId);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> getClients(final Integer page, final Integer max) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.getClients(page, max);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> addClient(final String clientName, final String contactName,
+			final String email, final String password, final String number, final String timezone,
+			final Boolean clientPays, final Double smsMargin, final Double numberMargin) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.addClient(clientName, contactName, email, password, number, timezone,
+						clientPays, smsMargin, numberMargin);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> editClient(final String clientId, final String clientName,
+			final String contactName, final String email, final String password, final String number,
+			final String timezone, final Boolean clientPays, final Double smsMargin) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.editClient(clientId, clientName, contactName, email, password, number,
+						timezone, clientPays, smsMargin);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> getTransactions(final String clientId, final String start,
+			final String end, final Integer page, final Integer max) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.getTransactions(clientId, start, end, page, max);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> getTransaction(final String transactionId) {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.getTransaction(transactionId);
+			}
+		});
+	}
+
+	public CompletableFuture<Map<?, ?>> getBalance() {
+		return submit(new ApiCall() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return client.getBalance();
+			}
+		});
+	}
+
+	//** helper classes **//
+
+	private interface ApiCall {
+		Map<?, ?> call() throws BurstSMSException;
+	}
+
+	private CompletableFuture<Map<?, ?>> submit(final ApiCall call) {
+		final CompletableFuture<Map<?, ?>> future = new CompletableFuture<Map<?, ?>>();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						future.complete(call.call());
+					} catch (Throwable ex) {
+						future.completeExceptionally(ex);
+					}
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			future.completeExceptionally(ex);
+		}
+		return future;
+	}
+}
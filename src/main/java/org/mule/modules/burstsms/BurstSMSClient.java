@@ -1,9 +1,16 @@
 package org.mule.modules.burstsms;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.Base64;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import javax.ws.rs.core.MediaType;
 
@@ -18,32 +25,128 @@ import org.mule.modules.burstsms.BurstSMSConnector.NumberFilter;
 import org.mule.modules.burstsms.BurstSMSConnector.OnlyOmitBoth;
 import org.mule.modules.burstsms.BurstSMSConnector.OnlyOmitInclude;
 import org.mule.modules.burstsms.BurstSMSException.ResponseCode;
+import org.mule.modules.burstsms.config.ConnectorConfig;
+import org.mule.modules.burstsms.model.JsonResponses;
+import org.mule.modules.burstsms.model.ListPage;
+import org.mule.modules.burstsms.model.Page;
+import org.mule.modules.burstsms.model.Recipient;
+import org.mule.modules.burstsms.model.ResponseParser;
+import org.mule.modules.burstsms.model.SendSmsResult;
+import org.mule.modules.burstsms.model.Transaction;
 
 import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.config.ClientConfig;
 import com.sun.jersey.api.client.config.DefaultClientConfig;
-import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
-import com.sun.jersey.api.json.JSONConfiguration;
 
 class BurstSMSClient {
 
 	static Log logger = LogFactory.getLog(BurstSMSClient.class);
 	
+	private HttpTransport transport;
 	private Client client; /* a Jersey client instance */
 	private WebResource apiResource;
 	private BurstSMSConnector connector;
+	private String authorization; /* pre-encoded HTTP Basic Authorization header */
+	private RateLimiter rateLimiter;
+	private RetryPolicy retryPolicy;
+	private CircuitBreaker circuitBreaker;
+	private ResponseCache responseCache;
+	private SingleFlight singleFlight;
+	private ApiMetrics metrics;
 
 	public BurstSMSClient(BurstSMSConnector connector) {
 		setConnector(connector);
+		ConnectorConfig config = getConnector().getConfig();
 		ClientConfig clientConfig = new DefaultClientConfig();
-        
-		/* Enable support for JSON to POJO entity mapping in Jersey */
-		clientConfig.getFeatures().put(JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE);
-
-		this.client = Client.create(clientConfig);		
+		clientConfig.getProperties().put(ClientConfig.PROPERTY_CONNECT_TIMEOUT, 
+				HttpTransport.valueOrDefault(config.getConnectTimeout(), HttpTransport.DEFAULT_CONNECT_TIMEOUT));
+		clientConfig.getProperties().put(ClientConfig.PROPERTY_READ_TIMEOUT, 
+				HttpTransport.valueOrDefault(config.getReadTimeout(), HttpTransport.DEFAULT_READ_TIMEOUT));
+		//form bodies are sent with their length, rather than chunked
+		clientConfig.getSingletons().add(new FormBodyWriter());
+
+		this.transport = HttpTransport.create(config);
+		this.client = new Client(transport.getHandler(), clientConfig);		
 		this.apiResource = this.client.resource(getConnector().getConfig().getApiUrl());
+		this.authorization = basicAuthorization(config.getUsername(), config.getPassword());
+		this.rateLimiter = new RateLimiter(
+				HttpTransport.valueOrDefault(config.getSendRateLimit(), 0),
+				HttpTransport.valueOrDefault(config.getListRateLimit(), 0),
+				HttpTransport.valueOrDefault(config.getDefaultRateLimit(), 0));
+		this.retryPolicy = new RetryPolicy(
+				HttpTransport.valueOrDefault(config.getRetryMaxAttempts(), 3),
+				HttpTransport.valueOrDefault(config.getRetryBaseDelay(), 200),
+				HttpTransport.valueOrDefault(config.getRetryMaxDelay(), 5000),
+				config.getRetryJitter() != null ? config.getRetryJitter() : 0.5);
+		this.circuitBreaker = new CircuitBreaker(
+				!Boolean.FALSE.equals(config.getCircuitBreakerEnabled()),
+				HttpTransport.valueOrDefault(config.getCircuitBreakerWindowSize(), 20),
+				HttpTransport.valueOrDefault(config.getCircuitBreakerFailureRate(), 50),
+				HttpTransport.valueOrDefault(config.getCircuitBreakerSlowCallThreshold(), 10000),
+				HttpTransport.valueOrDefault(config.getCircuitBreakerOpenDuration(), 30000),
+				new CircuitBreaker.Probe() {
+					@Override
+					public void probe() throws Exception {
+						new RequestBuilder("get-balance.json").invoke(JsonResponses.MAP);
+					}
+				});
+		this.responseCache = new ResponseCache(
+				Boolean.TRUE.equals(config.getCacheEnabled()),
+				HttpTransport.valueOrDefault(config.getCacheMaxEntries(), 1000),
+				HttpTransport.valueOrDefault(config.getCacheTtl(), 300),
+				config.getCacheTtls());
+		this.singleFlight = new SingleFlight(!Boolean.FALSE.equals(config.getCoalesceReads()));
+		this.metrics = new ApiMetrics(!Boolean.FALSE.equals(config.getJmxEnabled()));
+	}
+	
+	public Map<String, Object> getCircuitBreakerStatistics() {
+		return circuitBreaker.getStatistics();
+	}
+	
+	/**
+	 * @return The circuit breaker state, the counters and current settings of the client's 
+	 *         rate limiting, retries, response cache and shared read calls, and the metrics of each operation
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("circuitBreaker", circuitBreaker.getStatistics());
+		statistics.put("retries", retryPolicy.getRetryCounts());
+		statistics.put("rateLimits", rateLimiter.getRates());
+		statistics.put("cache", responseCache.getStatistics());
+		statistics.put("sharedCalls", singleFlight.getStatistics());
+		statistics.put("operations", metrics.getStatistics());
+		return statistics;
+	}
+	
+	/**
+	 * Release the pooled connections and background threads held by this client
+	 */
+	public void close() {
+		metrics.close();
+		client.destroy();
+		transport.close();
+	}
+	
+	/**
+	 * @param key A custom list field, either its number (1 to 10) or its name
+	 * @return The name of the request parameter which sets the field, e.g. field_1 or field.birthday
+	 */
+	static String fieldParamName(String key) {
+		if (key.matches("\\d{1,2}"))
+			return "field_" + key;
+		return "field." + key;
+	}
+	
+	/**
+	 * Encodes the credentials once so that each request only has to attach the header,
+	 * rather than growing the filter chain of the shared resource on every call.
+	 */
+	static String basicAuthorization(String username, String password) {
+		String credentials = username + ":" + password;
+		return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
 	}
 
 	public void setConnector(BurstSMSConnector connector) {
@@ -55,9 +158,6 @@ class BurstSMSClient {
 	}
 	
 	public WebResource getApiResource() {
-		apiResource.addFilter(new HTTPBasicAuthFilter(
-				getConnector().getConfig().getUsername(), 
-				getConnector().getConfig().getPassword()));
         return apiResource;
     }
 
@@ -68,7 +168,7 @@ class BurstSMSClient {
     public Map<?, ?> sendSMS(String message, List<String> to, String from, String sendAt, Long listId,
 			String dlrCallback, String replyCallback, Long validity, String repliesToEmail, Boolean fromShared,
 			CountryCode countryCode) throws BurstSMSException {
-		return new RequestBuilder("send-sms.json")
+		return new RequestBuilder("send-sms.json", true)
 				.param("message", message)
 				.param("to", to)
 				.param("from", from)
@@ -83,6 +183,31 @@ class BurstSMSClient {
 				.execute();
     }
 
+    public SendSmsResult sendSMSResult(String message, List<String> to, String from, String sendAt, Long listId,
+			String dlrCallback, String replyCallback, Long validity, String repliesToEmail, Boolean fromShared,
+			CountryCode countryCode) throws BurstSMSException {
+		return new RequestBuilder("send-sms.json", true)
+				.param("message", message)
+				.param("to", to)
+				.param("from", from)
+				.param("send_at", sendAt)
+				.param("list_id", listId)
+				.param("dlr_callback", dlrCallback)
+				.param("reply_callback", replyCallback)
+				.param("validity", validity)
+				.param("replies_to_email", repliesToEmail)
+				.param("from_shared", fromShared)
+				.param("countrycode", countryCode)
+				.execute(JsonResponses.SEND_SMS_RESULT);
+    }
+
+    public Map<?, ?> sendBulkSMS(String message, List<String> to, String from, String sendAt,
+			String dlrCallback, String replyCallback, Long validity, String repliesToEmail, Boolean fromShared,
+			CountryCode countryCode, int chunkSize, int parallelism) throws BurstSMSException {
+    	return new BulkSMSSender(this, getConnector().getAsyncExecutor(), chunkSize, parallelism).send(message, to, from, sendAt, 
+    			dlrCallback, replyCallback, validity, repliesToEmail, fromShared, countryCode);
+    }
+
 	public Map<?,?> formatNumber(String number, CountryCode countryCode) throws BurstSMSException {
 		return new RequestBuilder("format-number.json")
 				.param("msisdn", number)
@@ -135,6 +260,17 @@ class BurstSMSClient {
 				.execute();
 	}
 
+	public Page<Recipient> getSMSSentPage(String messageId, OnlyOmitInclude optouts, Integer page, Integer max,
+			DeliveryStatus delivery) throws BurstSMSException {
+		return new RequestBuilder("get-sms-sent.json")
+				.param("message_id", messageId)
+				.param("optouts", optouts)
+				.param("page", page)
+				.param("max", max)
+				.param("delivery", delivery)
+				.execute(JsonResponses.SMS_SENT_PAGE);
+	}
+
 	public Map<?, ?> cancelSMS(String messageId) throws BurstSMSException {
 		return new RequestBuilder("cancel-sms.json")
 				.param("message_id", messageId).execute();
@@ -162,7 +298,7 @@ class BurstSMSClient {
 			String membersMessage, Boolean activate, String forwardURL, List<String> forwardEmail,
 			List<String> forwardSMS) throws BurstSMSException {
 
-		return new RequestBuilder("add-keyword.json")
+		return new RequestBuilder("add-keyword.json", true)
 				.param("keyword", keyword)
 				.param("number", number)
 				.param("reference", reference)
@@ -217,6 +353,16 @@ class BurstSMSClient {
 				.execute();
 	}
 
+	public ListPage getListPage(String listId, MemberSelection members, Integer page, Integer max)
+			throws BurstSMSException {
+		return new RequestBuilder("get-list.json")
+				.param("list_id", listId)
+				.param("members", members)
+				.param("page", page)
+				.param("max", max)
+				.execute(JsonResponses.LIST_PAGE);
+	}
+
 	public Map<?, ?> getLists(Integer page, Integer max) throws BurstSMSException {
 		return new RequestBuilder("get-lists.json")
 				.param("page", page)
@@ -237,43 +383,29 @@ class BurstSMSClient {
 	public Map<?, ?> addToList(String listId, String number, String firstName, String lastName,
 			Map<String, String> fields, CountryCode countryCode) throws BurstSMSException {
 
-		RequestBuilder builder = new RequestBuilder("add-to-list.json")
+		return new RequestBuilder("add-to-list.json", true)
 				.param("list_id", listId)
 				.param("msisdn", number)
 				.param("first_name", firstName)
 				.param("last_name", lastName)
-				.param("countrycode", countryCode);
-		
-		if (fields != null) {
-			for (String key: fields.keySet()) {
-				String name;
-				if (key.matches("\\d{1,2}"))
-					name = "field_" + key;
-				else
-					name = "field." + key;
-				builder.param(name, fields.get(key));
-			}
-		}
-		
-		return builder.execute();
+				.param("countrycode", countryCode)
+				.fields(fields)
+				.execute();
+	}
+
+	public Map<String, Object> importListMembers(String listId, Iterator<? extends Map<String, ?>> members,
+			CountryCode countryCode, boolean normaliseLocally, boolean deduplicate, int parallelism,
+			ListImporter.ResultListener listener) {
+		return new ListImporter(this, getConnector().getAsyncExecutor(), listId, countryCode, normaliseLocally,
+				deduplicate, parallelism)
+				.run(members, listener);
 	}
 
 	public Map<?, ?> addFieldToList(String listId, Map<String, String> fields) throws BurstSMSException {
-		RequestBuilder builder = new RequestBuilder("add-field-to-list.json")
-				.param("list_id", listId);
-		
-		if (fields != null) {
-			for (String key: fields.keySet()) {
-				String name;
-				if (key.matches("\\d{1,2}"))
-					name = "field_" + key;
-				else
-					name = "field." + key;
-				builder.param(name, fields.get(key));
-			}
-		}
-		
-		return builder.execute();
+		return new RequestBuilder("add-field-to-list.json")
+				.param("list_id", listId)
+				.fields(fields)
+				.execute();
 	}
 
 	public Map<?, ?> deleteFromList(String listId, String number) throws BurstSMSException {
@@ -293,24 +425,13 @@ class BurstSMSClient {
 	public Map<?, ?> editListMember(String listId, String number, String firstName, String lastName,
 			Map<String, String> fields) throws BurstSMSException {
 
-		RequestBuilder builder = new RequestBuilder("add-to-list.json")
+		return new RequestBuilder("add-to-list.json", true)
 				.param("list_id", listId)
 				.param("msisdn", number)
 				.param("first_name", firstName)
-				.param("last_name", lastName);
-		
-		if (fields != null) {
-			for (String key: fields.keySet()) {
-				String name;
-				if (key.matches("\\d{1,2}"))
-					name = "field_" + key;
-				else
-					name = "field." + key;
-				builder.param(name, fields.get(key));
-			}
-		}
-		
-		return builder.execute();
+				.param("last_name", lastName)
+				.fields(fields)
+				.execute();
 	}
 
 	public Map<?, ?> addEmail(String email, Integer maxSMS, String number) throws BurstSMSException {
@@ -342,7 +463,7 @@ class BurstSMSClient {
 			String password, String number, String timezone, Boolean clientPays, 
 			Double smsMargin, Double numberMargin) throws BurstSMSException {
 
-		return new RequestBuilder("add-client.json")
+		return new RequestBuilder("add-client.json", true)
 				.param("name", clientName)
 				.param("contact", contactName)
 				.param("email", email)
@@ -382,6 +503,17 @@ class BurstSMSClient {
 				.execute();
 	}
 
+	public Page<Transaction> getTransactionsPage(String clientId, String start, String end, 
+			Integer page, Integer max) throws BurstSMSException {
+		return new RequestBuilder("get-transactions.json")
+				.param("client_id", clientId)
+				.param("start", start)
+				.param("end", end)
+				.param("page", page)
+				.param("max", max)
+				.execute(JsonResponses.TRANSACTIONS_PAGE);
+	}
+
 	public Map<?, ?> getTransaction(String transactionId) throws BurstSMSException {
 		return new RequestBuilder("get-transaction.json")
 				.param("transaction_id", transactionId)
@@ -392,24 +524,155 @@ class BurstSMSClient {
 		return new RequestBuilder("get-balance.json").execute();
 	}
 
+	//** paginated calls, read one page at a time **//
+
+	PageFetcher getSMSSentPages(final String messageId, final OnlyOmitInclude optouts,
+			final DeliveryStatus delivery, int pageSize, Executor executor) {
+		return new PageFetcher(new PageFetcher.PageSource() {
+			@Override
+			public Map<?, ?> fetch(int page, int max) throws BurstSMSException {
+				return getSMSSent(messageId, optouts, page, max, delivery);
+			}
+		}, "recipients", pageSize, executor);
+	}
+
+	PageFetcher getSMSResponsesPages(final String messageId, final String keywordId, final String keyword,
+			final String number, final String msisdn, final Boolean includeOriginal, int pageSize, Executor executor) {
+		return new PageFetcher(new PageFetcher.PageSource() {
+			@Override
+			public Map<?, ?> fetch(int page, int max) throws BurstSMSException {
+				return getSMSResponses(messageId, keywordId, keyword, number, msisdn, page,
+						max, includeOriginal);
+			}
+		}, "responses", pageSize, executor);
+	}
+
+	PageFetcher getUserSMSResponsesPages(final String start, final String end, final OnlyOmitBoth keywords,
+			final Boolean includeOriginal, int pageSize, Executor executor) {
+		return new PageFetcher(new PageFetcher.PageSource() {
+			@Override
+			public Map<?, ?> fetch(int page, int max) throws BurstSMSException {
+				return getUserSMSResponses(start, end, page, max, keywords, includeOriginal);
+			}
+		}, "responses", pageSize, executor);
+	}
+
+	PageFetcher getNumbersPages(final NumberFilter filter, int pageSize, Executor executor) {
+		return new PageFetcher(new PageFetcher.PageSource() {
+			@Override
+			public Map<?, ?> fetch(int page, int max) throws BurstSMSException {
+				return getNumbers(filter, page, max);
+			}
+		}, "numbers", pageSize, executor);
+	}
+
+	PageFetcher getKeywordsPages(final String number, int pageSize, Executor executor) {
+		return new PageFetcher(new PageFetcher.PageSource() {
+			@Override
+			public Map<?, ?> fetch(int page, int max) throws BurstSMSException {
+				return getKeywords(number, page, max);
+			}
+		}, "keywords", pageSize, executor);
+	}
+
+	PageFetcher getListPages(final String listId, final MemberSelection members, int pageSize,
+			Executor executor) {
+		return new PageFetcher(new PageFetcher.PageSource() {
+			@Override
+			public Map<?, ?> fetch(int page, int max) throws BurstSMSException {
+				return getList(listId, members, page, max);
+			}
+		}, "members", pageSize, executor);
+	}
+
+	PageFetcher getListsPages(int pageSize, Executor executor) {
+		return new PageFetcher(new PageFetcher.PageSource() {
+			@Override
+			public Map<?, ?> fetch(int page, int max) throws BurstSMSException {
+				return getLists(page, max);
+			}
+		}, "lists", pageSize, executor);
+	}
+
+	PageFetcher getClientsPages(int pageSize, Executor executor) {
+		return new PageFetcher(new PageFetcher.PageSource() {
+			@Override
+			public Map<?, ?> fetch(int page, int max) throws BurstSMSException {
+				return getClients(page, max);
+			}
+		}, "clients", pageSize, executor);
+	}
+
+	PageFetcher getTransactionsPages(final String clientId, final String start, final String end, int pageSize,
+			Executor executor) {
+		return new PageFetcher(new PageFetcher.PageSource() {
+			@Override
+			public Map<?, ?> fetch(int page, int max) throws BurstSMSException {
+				return getTransactions(clientId, start, end, page, max);
+			}
+		}, "transactions", pageSize, executor);
+	}
+
 	//** helper classes **//
 	
-    private class RequestBuilder {
-    	private WebResource webResource;
+    class RequestBuilder {
+    	private final String path;
+    	private final boolean formBody;
+    	private QueryBuilder params;
+    	private String uri;
     	
     	public RequestBuilder(String path) {
-    		webResource = getApiResource().path(path);
+    		this(path, false);
+    	}
+    	
+    	/**
+    	 * @param formBody True to POST the parameters as a form-encoded body rather than sending them 
+    	 *                 in the query string of a GET, for calls whose parameters may be large
+    	 */
+    	public RequestBuilder(String path, boolean formBody) {
+    		this.path = path;
+    		this.formBody = formBody;
+    		String base = getApiResource().getURI().toString();
+    		if (formBody) {
+    			params = QueryBuilder.acquire();
+    			uri = base.endsWith("/") ? base + path : base + "/" + path;
+    		} else {
+    			params = QueryBuilder.acquire(base, path);
+    		}
     	}
     	
     	public RequestBuilder param(String key, Object value) {
     		if (value != null) {
     			if (value instanceof List)
-    				webResource = webResource.queryParam(key, listToString((List<?>) value));
+    				params.addAll(key, (List<?>) value);
     			else
-    				webResource = webResource.queryParam(key, value.toString());
+    				params.add(key, value);
     		}
     		return this;
     	}
+    	
+    	/**
+    	 * Add custom list fields, keyed by number (1 to 10) or by name
+    	 */
+    	public RequestBuilder fields(Map<String, String> fields) {
+    		if (fields != null) {
+    			for (Map.Entry<String, String> field: fields.entrySet())
+    				param(fieldParamName(field.getKey()), field.getValue());
+    		}
+    		return this;
+    	}
+    	
+    	/**
+    	 * @return The URI of the request. No more parameters may be added once it has been built.
+    	 */
+    	String getURI() {
+    		if (uri == null) {
+    			uri = params.toString();
+    			params.release();
+    			params = null;
+    		}
+    		return uri;
+    	}
     	    	   
         @SuppressWarnings("unused")
     	private String dateToString(Date date) {
@@ -420,58 +683,180 @@ class BurstSMSClient {
         	}
         	return str;
         }
-        
-        private String listToString(List<?> list) {
-        	String str = null;
-        	if (list != null) {
-        		for (Object val: list) {
-        			if (str == null)
-        				str = val.toString();
-        			else
-        				str += "," + val.toString();
-        		}
-        	}
-        	return str;
-        }
 
         public Map<?, ?> execute() throws BurstSMSException {
-        	return execute(Map.class);
+        	final boolean cacheable = responseCache.isCacheable(path);
+        	boolean shared = singleFlight.isShared(path);
+        	if (!cacheable && !shared)
+        		return execute(JsonResponses.MAP);
+        	
+        	//each call adds its parameters in a fixed order, so identical calls have identical keys
+        	final String key = getURI().substring(getURI().indexOf(path));
+        	if (cacheable) {
+        		Map<?, ?> response = responseCache.get(key);
+        		if (response != null)
+        			return response;
+        		if (!shared)
+        			return responseCache.put(path, key, execute(JsonResponses.MAP));
+        	}
+        	
+        	//cached responses are read-only, so only other responses are copied for each caller
+        	return singleFlight.execute(key, new SingleFlight.Call() {
+        		@Override
+        		public Map<?, ?> call() throws BurstSMSException {
+        			Map<?, ?> response = execute(JsonResponses.MAP);
+        			return cacheable ? responseCache.put(path, key, response) : response;
+        		}
+        	}, !cacheable);
         }
         
-    	public <T> T execute(Class<T> responseClass) throws BurstSMSException {
-    		logger.info("About to invoke: " + webResource.getURI());
+    	public <T> T execute(ResponseParser<T> responseParser) throws BurstSMSException {
+    		try {
+    			return executeWithRetries(responseParser);
+    		} finally {
+    			//a GET's builder is released once its URI is built, unless the call failed before that,
+    			//e.g. while the circuit was open, and a form body's is kept until the last retry
+    			if (params != null) {
+    				params.release();
+    				params = null;
+    			}
+    		}
+    	}
+    	
+    	private <T> T executeWithRetries(ResponseParser<T> responseParser) throws BurstSMSException {
+    		for (int attempt = 1; ; attempt++) {
+    			try {
+    				T response = attempt(responseParser);
+    				responseCache.invalidateFor(path);
+    				return response;
+    			} catch (BurstSMSException ex) {
+    				if (!retryPolicy.shouldRetry(path, attempt, ex))
+    					throw ex;
+    				backOff(attempt, ex);
+    			} catch (ClientHandlerException ex) {
+    				if (!retryPolicy.shouldRetry(path, attempt, ex))
+    					throw ex;
+    				backOff(attempt, ex);
+    			}
+    		}
+    	}
+    	
+    	private void backOff(int attempt, Exception failure) throws BurstSMSException {
+    		long delay = retryPolicy.delay(attempt);
+    		retryPolicy.recordRetry(path);
+    		metrics.forPath(path).retried();
+    		logger.warn("Attempt " + attempt + " of " + path + " failed (" + failure.getMessage() 
+    				+ "), retrying in " + delay + "ms");
+    		try {
+    			Thread.sleep(delay);
+    		} catch (InterruptedException ex) {
+    			Thread.currentThread().interrupt();
+    			throw new BurstSMSException(ResponseCode.UNKNOWN, "Interrupted waiting to retry " + path, 0, ex);
+    		}
+    	}
+    	
+    	private <T> T attempt(ResponseParser<T> responseParser) throws BurstSMSException {
+    		ApiMetrics.Operation operation = metrics.forPath(path);
+    		try {
+    			circuitBreaker.acquirePermission();
+    			rateLimiter.acquire(path);
+    		} catch (BurstSMSException ex) {
+    			operation.failed(ex);
+    			throw ex;
+    		}
+    		
+    		CountingInputStream.Count received = new CountingInputStream.Count();
+    		operation.started(getURI().length() + (formBody ? params.length() : 0));
+    		long start = System.nanoTime();
+    		try {
+    			T response = invoke(responseParser, received);
+    			long duration = System.nanoTime() - start;
+    			operation.completed(duration, received.get(), null);
+    			circuitBreaker.record(false, duration);
+    			rateLimiter.onSuccess(path);
+    			return response;
+    		} catch (BurstSMSException ex) {
+    			long duration = System.nanoTime() - start;
+    			operation.completed(duration, received.get(), ex);
+    			circuitBreaker.record(CircuitBreaker.isFailure(ex), duration);
+    			if (RateLimiter.isThrottled(ex))
+    				rateLimiter.onThrottled(path);
+    			throw ex;
+    		} catch (RuntimeException ex) {
+    			//a ClientHandlerException from the network, or any other failure once the request has
+    			//started, must still leave the in-flight gauge and a half-open circuit breaker
+    			long duration = System.nanoTime() - start;
+    			operation.completed(duration, received.get(), ex);
+    			circuitBreaker.record(true, duration);
+    			throw ex;
+    		}
+    	}
+    	
+    	private <T> T invoke(ResponseParser<T> responseParser) throws BurstSMSException {
+    		return invoke(responseParser, new CountingInputStream.Count());
+    	}
+    	
+    	/**
+    	 * @param received Counts the bytes of the response body
+    	 */
+    	private <T> T invoke(ResponseParser<T> responseParser, CountingInputStream.Count received) 
+    			throws BurstSMSException {
+    		if (logger.isDebugEnabled())
+    			logger.debug("About to invoke: " + getURI() + (formBody ? " with a " + params.length() + " byte body" : ""));
     		
-    		ClientResponse clientResponse = webResource
+    		WebResource.Builder request = client.resource(getURI())
     				.accept(MediaType.APPLICATION_JSON)
-    				.method("GET", ClientResponse.class);
-
-    		if (clientResponse.getStatus() >= 200 && clientResponse.getStatus() < 300) {
-    			return clientResponse.getEntity(responseClass);
+    				.header("Authorization", authorization);
+    		ClientResponse clientResponse;
+    		if (formBody) {
+    			clientResponse = request
+    					.type(MediaType.APPLICATION_FORM_URLENCODED_TYPE)
+    					.method("POST", ClientResponse.class, params);
     		} else {
-    			clientResponse.bufferEntity();
-    			try {
-    				@SuppressWarnings("unchecked")
-					Map<String,String> errorDetails = 
-						(Map<String, String>) clientResponse.getEntity(Map.class).get("error");
-    				throw new BurstSMSException(
-    						ResponseCode.valueOf(errorDetails.get("code")),
-    						errorDetails.get("description"),
-    						clientResponse.getStatus());
-    			} catch (BurstSMSException ex) {
-    				throw ex;
-    			} catch (Exception ex) {
-    				String message = "An unexpected error occurred";
+    			clientResponse = request.method("GET", ClientResponse.class);
+    		}
+
+    		try {
+    			if (clientResponse.getStatus() >= 200 && clientResponse.getStatus() < 300) {
+    				return parse(clientResponse, responseParser, received);
+    			} else {
+    				clientResponse.bufferEntity();
     				try {
-    					clientResponse.getEntityInputStream().reset();
-    					message = clientResponse.getEntity(String.class);
-    				} catch (Exception ignore) {}
-    				
-    				throw new BurstSMSException(
-    						ResponseCode.UNKNOWN,
-    						message,
-    						clientResponse.getStatus());				
+    					@SuppressWarnings("unchecked")
+    					Map<String,String> errorDetails = 
+    						(Map<String, String>) parse(clientResponse, JsonResponses.MAP, received).get("error");
+    					throw new BurstSMSException(
+    							ResponseCode.valueOf(errorDetails.get("code")),
+    							errorDetails.get("description"),
+    							clientResponse.getStatus());
+    				} catch (BurstSMSException ex) {
+    					throw ex;
+    				} catch (Exception ex) {
+    					String message = "An unexpected error occurred";
+    					try {
+    						clientResponse.getEntityInputStream().reset();
+    						message = clientResponse.getEntity(String.class);
+    					} catch (Exception ignore) {}
+    					
+    					throw new BurstSMSException(
+    							ResponseCode.UNKNOWN,
+    							message,
+    							clientResponse.getStatus());				
+    				}
     			}
-    		}    		
+    		} finally {
+    			clientResponse.close();
+    		}
+    	}
+    	
+    	private <T> T parse(ClientResponse clientResponse, ResponseParser<T> responseParser, 
+    			CountingInputStream.Count received) {
+    		InputStream in = new CountingInputStream(clientResponse.getEntityInputStream(), received);
+    		try {
+    			return JsonResponses.parse(in, responseParser);
+    		} catch (IOException ex) {
+    			throw new ClientHandlerException(ex);
+    		}
     	}
     }
 }
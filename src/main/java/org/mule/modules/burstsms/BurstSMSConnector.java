@@ -1,19 +1,42 @@
 package org.mule.modules.burstsms;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 
+import javax.inject.Inject;
+
 import org.mule.api.annotations.Config;
 import org.mule.api.annotations.Connector;
+import org.mule.api.annotations.Paged;
 import org.mule.api.annotations.Processor;
+import org.mule.api.annotations.Source;
 import org.mule.api.annotations.display.FriendlyName;
 import org.mule.api.annotations.display.Placement;
 import org.mule.api.annotations.display.Text;
 import org.mule.api.annotations.lifecycle.Start;
+import org.mule.api.annotations.lifecycle.Stop;
+import org.mule.api.annotations.param.Default;
 import org.mule.api.annotations.param.Email;
 import org.mule.api.annotations.param.Optional;
+import org.mule.api.callback.SourceCallback;
+import org.mule.api.store.ObjectStore;
+import org.mule.api.store.ObjectStoreManager;
+import org.mule.modules.burstsms.BurstSMSException.ResponseCode;
 import org.mule.modules.burstsms.config.ConnectorConfig;
+import org.mule.streaming.PagingConfiguration;
+import org.mule.streaming.ProviderAwarePagingDelegate;
 
 /**
  * Provides access to the Burst SMS REST API from within a Mule application
@@ -34,6 +57,9 @@ public class BurstSMSConnector {
 	//yyyy-MM-dd HH:mm:ss
 	public static final Pattern SIMPLE_DATETIME_PATTERN = Pattern.compile("\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}");
 	
+	//the most numbers send-sms accepts in a single call
+	public static final int MAX_RECIPIENTS_PER_REQUEST = 10000;
+	
 	public enum CountryCode {
 		AU, NZ, SG, GB, US
 	}
@@ -59,10 +85,19 @@ public class BurstSMSConnector {
 	}
 	
 	private BurstSMSClient burstSMSClient;
+	private BurstSMSAsyncClient burstSMSAsyncClient;
+	private DeliveryTracker deliveryTracker;
+	private SendQueue sendQueue;
+	private IdempotencyIndex idempotencyIndex;
+	private final ConcurrentMap<String, CampaignPlanner.Campaign> campaigns = 
+			new ConcurrentHashMap<String, CampaignPlanner.Campaign>();
 
     @Config
     private ConnectorConfig config;
     
+    @Inject
+    private ObjectStoreManager objectStoreManager;
+    
     public ConnectorConfig getConfig() {
 		return config;
 	}
@@ -71,6 +106,14 @@ public class BurstSMSConnector {
 		this.config = config;
 	}
     
+    public ObjectStoreManager getObjectStoreManager() {
+		return objectStoreManager;
+	}
+    
+    public void setObjectStoreManager(ObjectStoreManager objectStoreManager) {
+		this.objectStoreManager = objectStoreManager;
+	}
+    
     public BurstSMSClient getBurstSMSClient() {
 		return burstSMSClient;
 	}
@@ -78,10 +121,71 @@ public class BurstSMSConnector {
     public void setBurstSMSClient(BurstSMSClient client) {
 		this.burstSMSClient = client;
 	}
+    
+    public BurstSMSAsyncClient getBurstSMSAsyncClient() {
+		return burstSMSAsyncClient;
+	}
+    
+    public void setBurstSMSAsyncClient(BurstSMSAsyncClient asyncClient) {
+		this.burstSMSAsyncClient = asyncClient;
+	}
+
+    DeliveryTracker getDeliveryTracker() {
+		return deliveryTracker;
+	}
+    
+    /**
+     * Pages are read ahead, and the calls of bulk operations made, on the asynchronous call pool
+     */
+    Executor getAsyncExecutor() {
+    	return getBurstSMSAsyncClient().getExecutor();
+    }
 
     @Start
     public void init() {
         setBurstSMSClient(new BurstSMSClient(this));
+        setBurstSMSAsyncClient(new BurstSMSAsyncClient(getBurstSMSClient(), 
+        		HttpTransport.valueOrDefault(getConfig().getAsyncThreads(), 64),
+        		HttpTransport.valueOrDefault(getConfig().getAsyncQueueSize(), 1000)));
+        deliveryTracker = new DeliveryTracker(getBurstSMSClient(), getAsyncExecutor());
+        if (getConfig().getSendQueueDirectory() != null) {
+        	File directory = new File(getConfig().getSendQueueDirectory());
+        	try {
+        		sendQueue = new SendQueue(getBurstSMSClient(), directory, 
+        				HttpTransport.valueOrDefault(getConfig().getSendQueueSegmentSize(), 64) << 20,
+        				Boolean.TRUE.equals(getConfig().getSendQueueForceWrites()),
+        				HttpTransport.valueOrDefault(getConfig().getSendQueueSenders(), 4));
+        	} catch (IOException ex) {
+        		throw new IllegalStateException("Cannot open the send queue in " + directory, ex);
+        	}
+        }
+        int window = HttpTransport.valueOrDefault(getConfig().getIdempotencyWindow(), 86400);
+        int maxEntries = HttpTransport.valueOrDefault(getConfig().getIdempotencyMaxEntries(), 100000);
+        ObjectStore<IdempotencyIndex.Record> store = null;
+        if (Boolean.TRUE.equals(getConfig().getIdempotencyPersistent()))
+        	store = getObjectStoreManager().getObjectStore("burst-sms-idempotency", true, maxEntries, 
+        			window * 1000, 60000);
+        idempotencyIndex = new IdempotencyIndex(maxEntries, window, store);
+    }
+
+    @Stop
+    public void stop() {
+        if (sendQueue != null) {
+            sendQueue.close();
+            sendQueue = null;
+        }
+        if (deliveryTracker != null) {
+            deliveryTracker.close();
+            deliveryTracker = null;
+        }
+        if (getBurstSMSAsyncClient() != null) {
+            getBurstSMSAsyncClient().close();
+            setBurstSMSAsyncClient(null);
+        }
+        if (getBurstSMSClient() != null) {
+            getBurstSMSClient().close();
+            setBurstSMSClient(null);
+        }
     }
 
     /* *** SMS API methods *** */
@@ -122,6 +226,9 @@ public class BurstSMSConnector {
      * @param repliesToEmail Specify an email address to send responses to this message. NOTE: specified email 
      *           must be authorised to send messages via add-email or in your account under the 'Email SMS' section.
      * @param fromShared Forces sending via the shared number when you have virtual numbers
+     * @param normaliseLocally Convert the numbers to international format within the connector 
+     *           for countryCode, rather than leaving it to the API. Numbers which are found to be 
+     *           invalid are not sent and are added to the <code>fails</code> of the response.
      * @return The response, as a map
      * @throws BurstSMSException If the API call fails for any reason
      */
@@ -139,13 +246,472 @@ public class BurstSMSConnector {
     		@FriendlyName("Reply Callback URL") String replyCallback,
     		@Optional @Placement(tab = "Advanced", group = "Other") Long validity,
     		@Optional @Placement(tab = "Advanced", group = "Other") String repliesToEmail,
-    		@Optional @Placement(tab = "Advanced", group = "Other") Boolean fromShared) throws BurstSMSException {    	
+    		@Optional @Placement(tab = "Advanced", group = "Other") Boolean fromShared,
+    		@Optional @Default("false") @Placement(order = 4, group = "Destination") Boolean normaliseLocally) 
+    				throws BurstSMSException {    	
     	
     	if (sendAt != null && !SIMPLE_DATETIME_PATTERN.matcher(sendAt).matches())
     		throw new IllegalArgumentException("sendAt is not in correct format");
     	
-    	return getBurstSMSClient().sendSMS(message, to, from, sendAt, listId, dlrCallback, replyCallback,
+    	List<String> invalid = new ArrayList<String>();
+    	if (normaliseLocally && to != null && countryCode != null) {
+    		to = NumberNormaliser.normaliseAll(to, countryCode, invalid);
+    		if (to.isEmpty())
+    			to = null;
+    		if (to == null && listId == null)
+    			throw new BurstSMSException(ResponseCode.FIELD_INVALID, "None of the numbers in to are valid", 0);
+    	}
+    	
+    	return addFails(getBurstSMSClient().sendSMS(message, to, from, sendAt, listId, dlrCallback, replyCallback,
+    			validity, repliesToEmail, fromShared, countryCode), invalid);
+    }
+
+    /**
+     * Send one message to a recipient list of any size.
+     * <p>
+     * The recipients are split into chunks of at most 10,000 numbers, the most the send-sms call
+     * accepts, and the chunks are sent in parallel. The responses for each chunk are merged into a 
+     * single result containing the list of <code>message_ids</code>, the total <code>recipients</code>, 
+     * <code>sms</code> and <code>cost</code>, all <code>fails</code>, and any <code>errors</code> for 
+     * chunks which could not be sent. An exception is only thrown if every chunk fails.
+     * 
+     * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202500828-send-sms">send-sms</a>
+     * @param to List of numbers to send the SMS to, in international format
+     * @param countryCode Formats numbers given to international format for this 2 letter country code. 
+     * @param message Message text
+     * @param from Set the alphanumeric Caller ID
+     * @param sendAt A time in the future to send the message. Must match YYYY-MM-DD HH:MM:SS.
+     * @param dlrCallback A URL on your system which we can call to notify you of Delivery Receipts. 
+     * @param replyCallback A URL on your system which we can call to notify you of incoming messages. 
+     * @param validity Specify the maximum time to attempt to deliver. In minutes, 0 (zero) implies no limit.
+     * @param repliesToEmail Specify an email address to send responses to this message.
+     * @param fromShared Forces sending via the shared number when you have virtual numbers
+     * @param chunkSize The number of recipients sent in each call, up to 10,000
+     * @param parallelism The maximum number of chunks sent at the same time
+     * @param normaliseLocally Convert the numbers to international format within the connector 
+     *           for countryCode, rather than leaving it to the API. Numbers which are found to be 
+     *           invalid are not sent and are added to the <code>fails</code> of the response.
+     * @return The aggregated response, as a map
+     * @throws BurstSMSException If every chunk fails to send
+     */
+    @Processor(name = "send-bulk-sms", friendlyName = "Send SMS to a large recipient list")
+    public Map<?,?> sendBulkSMS(
+    		String message,
+    		@Optional String from,
+    		@Optional String sendAt, 
+    		@Placement(order = 1, group = "Destination") List<String> to,
+    		@Optional @Placement(order = 2, group = "Destination") CountryCode countryCode,
+    		@Optional @Placement(tab = "Advanced", group = "Callbacks")
+    		@FriendlyName("Delivery Receipt Callback URL") String dlrCallback,
+    		@Optional @Placement(tab = "Advanced", group = "Callbacks")
+    		@FriendlyName("Reply Callback URL") String replyCallback,
+    		@Optional @Placement(tab = "Advanced", group = "Other") Long validity,
+    		@Optional @Placement(tab = "Advanced", group = "Other") String repliesToEmail,
+    		@Optional @Placement(tab = "Advanced", group = "Other") Boolean fromShared,
+    		@Optional @Default("10000") @Placement(tab = "Advanced", group = "Bulk Sending", order = 1) Integer chunkSize,
+    		@Optional @Default("4") @Placement(tab = "Advanced", group = "Bulk Sending", order = 2) Integer parallelism,
+    		@Optional @Default("false") @Placement(order = 3, group = "Destination") Boolean normaliseLocally) 
+    				throws BurstSMSException {
+    	
+    	if (sendAt != null && !SIMPLE_DATETIME_PATTERN.matcher(sendAt).matches())
+    		throw new IllegalArgumentException("sendAt is not in correct format");
+    	if (chunkSize < 1 || chunkSize > MAX_RECIPIENTS_PER_REQUEST)
+    		throw new IllegalArgumentException("chunkSize must be >= 1 and <= " + MAX_RECIPIENTS_PER_REQUEST);
+    	if (parallelism < 1)
+    		throw new IllegalArgumentException("parallelism must be >= 1");
+    	
+    	List<String> invalid = new ArrayList<String>();
+    	if (normaliseLocally && countryCode != null) {
+    		to = NumberNormaliser.normaliseAll(to, countryCode, invalid);
+    		if (to.isEmpty())
+    			throw new BurstSMSException(ResponseCode.FIELD_INVALID, "None of the numbers in to are valid", 0);
+    	}
+    	
+    	return addFails(getBurstSMSClient().sendBulkSMS(message, to, from, sendAt, dlrCallback, replyCallback,
+    			validity, repliesToEmail, fromShared, countryCode, chunkSize, parallelism), invalid);
+    }
+
+    /**
+     * Schedule one message to a large recipient list as chunks with staggered send times, so the 
+     * campaign goes out at a steady rate across a window rather than all at once, which the 
+     * provider throttles and which brings replies in a spike.
+     * <p>
+     * With ratePerMinute, each chunk has at most a minute's worth of recipients and the chunks are 
+     * spaced to send at that rate, which must fit before windowEnd if it is given. With only 
+     * windowEnd, the chunks are spread evenly from windowStart to windowEnd. Every chunk is scheduled 
+     * before this returns, and the whole campaign can be cancelled with cancel-campaign-sms until it 
+     * has been sent. Times are in UTC.
+     * 
+     * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202500828-send-sms">send-sms</a>
+     * @param message Message text
+     * @param from Set the alphanumeric Caller ID
+     * @param to List of numbers to send the SMS to, in international format
+     * @param countryCode Formats numbers given to international format for this 2 letter country code
+     * @param windowStart When the first chunk is sent, in UTC. Must match YYYY-MM-DD HH:MM:SS. 
+     *           Defaults to one minute from now.
+     * @param windowEnd The latest time a chunk is sent, in UTC. Must match YYYY-MM-DD HH:MM:SS.
+     * @param ratePerMinute The number of recipients to send to each minute
+     * @param dlrCallback A URL on your system which we can call to notify you of Delivery Receipts
+     * @param replyCallback A URL on your system which we can call to notify you of incoming messages
+     * @param validity Specify the maximum time to attempt to deliver. In minutes, 0 (zero) implies no limit.
+     * @param repliesToEmail Specify an email address to send responses to this message
+     * @param fromShared Forces sending via the shared number when you have virtual numbers
+     * @param chunkSize The most recipients in each chunk, up to 10,000
+     * @param parallelism The maximum number of chunks scheduled at the same time
+     * @return The <code>campaignId</code> to cancel the campaign with, the <code>message_ids</code>, 
+     *         total <code>recipients</code> and <code>cost</code>, the <code>sendAt</code>, 
+     *         <code>recipients</code> and <code>message_id</code> of each of the <code>chunks</code>,
+     *         and any <code>errors</code> for chunks which could not be scheduled
+     * @throws BurstSMSException If every chunk fails to be scheduled
+     */
+    @Processor(name = "schedule-campaign-sms", friendlyName = "Schedule SMS campaign across a time window")
+    public Map<String, Object> scheduleCampaignSMS(
+    		String message,
+    		@Optional String from,
+    		@Placement(order = 1, group = "Destination") List<String> to,
+    		@Optional @Placement(order = 2, group = "Destination") CountryCode countryCode,
+    		@Optional @Placement(order = 1, group = "Schedule") String windowStart,
+    		@Optional @Placement(order = 2, group = "Schedule") String windowEnd,
+    		@Optional @Placement(order = 3, group = "Schedule") Integer ratePerMinute,
+    		@Optional @Placement(tab = "Advanced", group = "Callbacks")
+    		@FriendlyName("Delivery Receipt Callback URL") String dlrCallback,
+    		@Optional @Placement(tab = "Advanced", group = "Callbacks")
+    		@FriendlyName("Reply Callback URL") String replyCallback,
+    		@Optional @Placement(tab = "Advanced", group = "Other") Long validity,
+    		@Optional @Placement(tab = "Advanced", group = "Other") String repliesToEmail,
+    		@Optional @Placement(tab = "Advanced", group = "Other") Boolean fromShared,
+    		@Optional @Default("10000") @Placement(tab = "Advanced", group = "Bulk Sending", order = 1) Integer chunkSize,
+    		@Optional @Default("4") @Placement(tab = "Advanced", group = "Bulk Sending", order = 2) Integer parallelism) 
+    				throws BurstSMSException {
+    	
+    	if (windowStart != null && !SIMPLE_DATETIME_PATTERN.matcher(windowStart).matches())
+    		throw new IllegalArgumentException("windowStart is not in correct format");
+    	if (windowEnd != null && !SIMPLE_DATETIME_PATTERN.matcher(windowEnd).matches())
+    		throw new IllegalArgumentException("windowEnd is not in correct format");
+    	
+    	long now = System.currentTimeMillis();
+    	for (CampaignPlanner.Campaign campaign: campaigns.values()) {
+    		if (campaign.isFinished(now))
+    			campaigns.remove(campaign.id, campaign);
+    	}
+    	
+    	CampaignPlanner planner = new CampaignPlanner(getBurstSMSClient(), getAsyncExecutor(), chunkSize, parallelism);
+    	List<CampaignPlanner.Chunk> chunks = planner.plan(to, 
+    			windowStart != null ? CampaignPlanner.parse(windowStart) : now + 60000, 
+    			windowEnd != null ? CampaignPlanner.parse(windowEnd) : -1, ratePerMinute);
+    	CampaignPlanner.Campaign campaign = planner.schedule(message, chunks, from, dlrCallback, replyCallback, 
     			validity, repliesToEmail, fromShared, countryCode);
+    	
+    	Map<String, Object> summary = CampaignPlanner.describe(campaign);
+    	if (((List<?>) summary.get("message_ids")).isEmpty() && chunks.get(0).error != null)
+    		throw chunks.get(0).error;
+    	campaigns.put(campaign.id, campaign);
+    	return summary;
+    }
+    
+    /**
+     * Cancel every chunk of a campaign scheduled with schedule-campaign-sms which has not yet been 
+     * sent. Campaigns are only known to the application which scheduled them until their last chunk 
+     * is sent; after a restart, cancel the chunks with cancel-sms using their message_ids instead.
+     * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/200977465-cancel-sms">cancel-sms</a>
+     * @param campaignId The campaignId returned by schedule-campaign-sms
+     * @param parallelism The maximum number of chunks cancelled at the same time
+     * @return The number of chunks <code>cancelled</code>, <code>alreadySent</code> and 
+     *         <code>failed</code>, and the <code>errors</code> of those which failed
+     * @throws BurstSMSException NOT_FOUND if the campaign is not known
+     */
+    @Processor(name = "cancel-campaign-sms", friendlyName = "Cancel scheduled SMS campaign")
+    public Map<String, Object> cancelCampaignSMS(
+    		String campaignId,
+    		@Optional @Default("4") @Placement(tab = "Advanced", group = "Bulk Sending", order = 1) Integer parallelism) 
+    				throws BurstSMSException {
+    	CampaignPlanner.Campaign campaign = campaigns.get(campaignId);
+    	if (campaign == null)
+    		throw new BurstSMSException(ResponseCode.NOT_FOUND, "No scheduled campaign " + campaignId, 0);
+    	return new CampaignPlanner(getBurstSMSClient(), getAsyncExecutor(), MAX_RECIPIENTS_PER_REQUEST,
+    			parallelism).cancel(campaign);
+    }
+
+    /**
+     * Send a personalised message to every member of a list, or to a stream of members, with as few 
+     * send-sms calls as possible.
+     * <p>
+     * The template is compiled once and rendered for each member. Placeholders are field names in 
+     * square brackets, optionally with a default: <code>Hi [first_name|there], your code is [1]</code>.
+     * The names are those set by add-to-list and add-field-to-list: <code>msisdn</code>, 
+     * <code>first_name</code>, <code>last_name</code>, and custom fields by number (1 to 10) or name.
+     * Names of a list's custom fields are looked up in the list's field names. If a placeholder 
+     * without a default is not a field of the list, or of the first member given, nothing is sent.
+     * Members whose messages are identical are sent with one call, of up to chunkSize recipients, 
+     * so a template with few distinct renderings takes a fraction of the calls of one send-sms per 
+     * member. Members are read as they are sent, so campaigns of any size can be sent.
+     * 
+     * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202500828-send-sms">send-sms</a>
+     * @param template The message text, with placeholders for member fields
+     * @param from Set the alphanumeric Caller ID
+     * @param sendAt A time in the future to send the message. Must match YYYY-MM-DD HH:MM:SS.
+     * @param listId Send to the active members of this list
+     * @param members Otherwise the members to send to: a CSV InputStream, or an Iterator or Iterable 
+     *           of maps, each with the number under <code>msisdn</code> or <code>number</code>
+     * @param countryCode Formats numbers given to international format for this 2 letter country code
+     * @param normaliseLocally Convert the numbers to international format within the connector 
+     *           for countryCode, rather than leaving it to the API. Numbers which are found to be 
+     *           invalid are not sent and are added to the <code>fails</code> of the result.
+     * @param dlrCallback A URL on your system which we can call to notify you of Delivery Receipts
+     * @param replyCallback A URL on your system which we can call to notify you of incoming messages
+     * @param validity Specify the maximum time to attempt to deliver. In minutes, 0 (zero) implies no limit.
+     * @param repliesToEmail Specify an email address to send responses to this message
+     * @param fromShared Forces sending via the shared number when you have virtual numbers
+     * @param chunkSize The most recipients sent in each call, up to 10,000
+     * @param parallelism The maximum number of calls made at the same time
+     * @param maxGroups The most distinct messages held in memory waiting for more recipients. When 
+     *           there are more, those held are sent.
+     * @param pageSize The number of members read from the list in each call
+     * @return A summary: the number of <code>members</code> read, the <code>invalid</code> ones, the
+     *         <code>message_ids</code>, the number of <code>calls</code> and <code>failedCalls</code>, 
+     *         the total <code>recipients</code>, <code>failedRecipients</code>, <code>sms</code> and 
+     *         <code>cost</code>, all <code>fails</code>, the first 100 <code>errors</code> and the 
+     *         <code>elapsedMillis</code>
+     * @throws IOException If a CSV stream cannot be read
+     * @throws IllegalArgumentException If a placeholder without a default is not a member field
+     */
+    @Processor(name = "send-template-sms", friendlyName = "Send personalised SMS from a template")
+    public Map<String, Object> sendTemplateSMS(
+    		String template,
+    		@Optional String from,
+    		@Optional String sendAt,
+    		@Optional @Placement(order = 1, group = "Recipients") String listId,
+    		@Optional @Default("#[payload]") @Placement(order = 2, group = "Recipients") Object members,
+    		@Optional @Placement(order = 3, group = "Recipients") CountryCode countryCode,
+    		@Optional @Default("false") @Placement(order = 4, group = "Recipients") Boolean normaliseLocally,
+    		@Optional @Placement(tab = "Advanced", group = "Callbacks")
+    		@FriendlyName("Delivery Receipt Callback URL") String dlrCallback,
+    		@Optional @Placement(tab = "Advanced", group = "Callbacks")
+    		@FriendlyName("Reply Callback URL") String replyCallback,
+    		@Optional @Placement(tab = "Advanced", group = "Other") Long validity,
+    		@Optional @Placement(tab = "Advanced", group = "Other") String repliesToEmail,
+    		@Optional @Placement(tab = "Advanced", group = "Other") Boolean fromShared,
+    		@Optional @Default("10000") @Placement(tab = "Advanced", group = "Bulk Sending", order = 1) Integer chunkSize,
+    		@Optional @Default("4") @Placement(tab = "Advanced", group = "Bulk Sending", order = 2) Integer parallelism,
+    		@Optional @Default("100000") @Placement(tab = "Advanced", group = "Bulk Sending", order = 3) Integer maxGroups,
+    		@Optional @Default("500") @Placement(tab = "Advanced", group = "Bulk Sending", order = 4) Integer pageSize) 
+    				throws IOException {
+    	
+    	if (sendAt != null && !SIMPLE_DATETIME_PATTERN.matcher(sendAt).matches())
+    		throw new IllegalArgumentException("sendAt is not in correct format");
+    	
+    	TemplateSender sender = new TemplateSender(getBurstSMSClient(), getAsyncExecutor(), MessageTemplate.compile(template), 
+    			from, 
+sendAt, dlrCallback, replyCallback, validity, repliesToEmail, fromShared, countryCode, 
+    			normaliseLocally, chunkSize, parallelism, maxGroups);
+    	if (listId != null)
+    		return sender.send(getBurstSMSClient().getListPages(listId, MemberSelection.ACTIVE, pageSize, 
+    				getAsyncExecutor()));
+    	
+    	CsvMemberReader csv = null;
+    	Iterator<? extends Map<String, ?>> iterator;
+    	if (members instanceof InputStream)
+    		iterator = csv = new CsvMemberReader((InputStream) members, StandardCharsets.UTF_8);
+    	else if (members instanceof Iterator)
+    		iterator = memberIterator((Iterator<?>) members);
+    	else if (members instanceof Iterable)
+    		iterator = memberIterator(((Iterable<?>) members).iterator());
+    	else
+    		throw new IllegalArgumentException("listId, or members as a CSV InputStream, or an Iterator or Iterable of maps, must be given");
+    	
+    	try {
+    		return sender.send(iterator);
+    	} finally {
+    		if (csv != null)
+    			csv.close();
+    	}
+    }
+
+    /**
+     * Send SMS at most once for an idempotency key. The first call with a key sends the message as
+     * send-sms does. A later call with the same key, within the idempotencyWindow, does not call the
+     * API and returns the <code>message_id</code> the message was first sent as. A call made while 
+     * the first call with its key is still in progress waits for it.
+     * <p>
+     * A key can only be used for one message: reusing it with a different message or recipients
+     * fails with KEY_EXISTS. If the first call fails before the message could have been sent, e.g.
+     * because of a rate limit, a refused connection or a validation error, the key is released so 
+     * the call can be retried with the same key. If it fails in a way which may have sent the 
+     * message, e.g. a timeout or a server error, later calls with the key fail with KEY_EXISTS 
+     * rather than risk sending it twice.
+     * 
+     * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202500828-send-sms">send-sms</a>
+     * @param idempotencyKey Identifies the message, e.g. the id of the order or event it is sent for
+     * @param message Message text
+     * @param from Set the alphanumeric Caller ID
+     * @param sendAt A time in the future to send the message. Must match YYYY-MM-DD HH:MM:SS.
+     * @param to List of up to 10,000 numbers to send the SMS to, in international format
+     * @param countryCode Formats numbers given to international format for this 2 letter country code
+     * @param listId This ID is the numerical reference to one of your recipient lists
+     * @param dlrCallback A URL on your system which we can call to notify you of Delivery Receipts
+     * @param replyCallback A URL on your system which we can call to notify you of incoming messages
+     * @param validity Specify the maximum time to attempt to deliver. In minutes, 0 (zero) implies no limit.
+     * @param repliesToEmail Specify an email address to send responses to this message
+     * @param fromShared Forces sending via the shared number when you have virtual numbers
+     * @return The send-sms response with <code>duplicate</code> false, or the <code>message_id</code> 
+     *         with <code>duplicate</code> true if the key was already sent, as a map
+     * @throws BurstSMSException If the API call fails for any reason, or the key was used for a different message
+     */
+    @SuppressWarnings("unchecked")
+    @Processor(name = "send-sms-once", friendlyName = "Send SMS once")
+    public Map<?,?> sendSMSOnce(
+    		String idempotencyKey,
+    		String message,
+    		@Optional String from,
+    		@Optional String sendAt, 
+    		@Optional @Placement(order = 1, group = "Destination") List<String> to,
+    		@Optional @Placement(order = 2, group = "Destination") CountryCode countryCode,
+    		@Optional @Placement(order = 3, group = "Destination") Long listId,
+    		@Optional @Placement(tab = "Advanced", group = "Callbacks")
+    		@FriendlyName("Delivery Receipt Callback URL") String dlrCallback,
+    		@Optional @Placement(tab = "Advanced", group = "Callbacks")
+    		@FriendlyName("Reply Callback URL") String replyCallback,
+    		@Optional @Placement(tab = "Advanced", group = "Other") Long validity,
+    		@Optional @Placement(tab = "Advanced", group = "Other") String repliesToEmail,
+    		@Optional @Placement(tab = "Advanced", group = "Other") Boolean fromShared) 
+    				throws BurstSMSException {
+    	
+    	if (sendAt != null && !SIMPLE_DATETIME_PATTERN.matcher(sendAt).matches())
+    		throw new IllegalArgumentException("sendAt is not in correct format");
+    	
+    	long fingerprint = IdempotencyIndex.fingerprint(message, to, from, sendAt, listId, countryCode, 
+    			dlrCallback, replyCallback, validity, repliesToEmail, fromShared);
+    	long messageId = idempotencyIndex.begin(idempotencyKey, fingerprint);
+    	if (messageId != IdempotencyIndex.NEW) {
+    		Map<String, Object> error = new LinkedHashMap<String, Object>();
+    		error.put("code", "SUCCESS");
+    		error.put("description", "OK");
+    		Map<String, Object> response = new LinkedHashMap<String, Object>();
+    		response.put("message_id", messageId);
+    		response.put("duplicate", true);
+    		response.put("error", error);
+    		return response;
+    	}
+    	
+    	Map<String, Object> response;
+    	try {
+    		response = new LinkedHashMap<String, Object>((Map<String, ?>) getBurstSMSClient().sendSMS(message, to, 
+    				from, sendAt, listId, dlrCallback, replyCallback, validity, repliesToEmail, fromShared, countryCode));
+    	} catch (BurstSMSException ex) {
+    		releaseOrHold(idempotencyKey, fingerprint, ex);
+    		throw ex;
+    	} catch (RuntimeException ex) {
+    		releaseOrHold(idempotencyKey, fingerprint, ex);
+    		throw ex;
+    	}
+    	if (response.get("message_id") instanceof Number) {
+    		idempotencyIndex.complete(idempotencyKey, fingerprint, ((Number) response.get("message_id")).longValue());
+    	} else {
+    		//accepted, but without the id it was sent as
+    		idempotencyIndex.unknown(idempotencyKey, fingerprint);
+    	}
+    	response.put("duplicate", false);
+    	return response;
+    }
+
+    /**
+     * Work out how a message will be encoded and how many SMS parts it will be sent as, and estimate 
+     * the cost of sending it, without calling the API. A message using only the GSM alphabet is sent 
+     * as GSM-7, in parts of 160 characters or 153 once split, with characters such as <code>{ } [ ] ~ €</code> 
+     * counting twice. Any other character makes it UCS-2, in parts of 70 characters or 67 once split.
+     * <p>
+     * The result contains the <code>encoding</code>, the number of <code>characters</code>, the 
+     * <code>units</code> (septets or UTF-16 code units) they take, the number of <code>parts</code>, 
+     * the units <code>remaining</code> in the last part, the <code>unicodeCharacters</code> which 
+     * made a message UCS-2, and the <code>totalParts</code> and <code>estimatedCost</code> for 
+     * the recipients.
+     * 
+     * @param message Message text
+     * @param substitute Replace characters such as curly quotes, long dashes and accented letters 
+     *           with GSM look-alikes when that makes the message GSM-7. The text analysed is 
+     *           returned as <code>message</code>.
+     * @param recipients The number of recipients the message will be sent to
+     * @param pricePerPart The price of each SMS part, to estimate the cost with
+     * @return The analysis, as a map
+     */
+    @Processor(name = "analyse-sms", friendlyName = "Analyse SMS")
+    public Map<String, Object> analyseSMS(
+    		String message,
+    		@Optional @Default("false") Boolean substitute,
+    		@Optional @Default("1") @Placement(group = "Cost", order = 1) Long recipients,
+    		@Optional @Placement(group = "Cost", order = 2) BigDecimal pricePerPart) {
+    	if (recipients < 0)
+    		throw new IllegalArgumentException("recipients must be >= 0");
+    	return MessageAnalyser.describe(message, substitute, recipients, pricePerPart);
+    }
+
+    /**
+     * Queue a send-sms call to be sent in the background, returning as soon as it has been written 
+     * to the send queue's log on disk. Calls are sent in the order they were queued, and those not 
+     * yet sent when the application stops are sent when it starts again. The result of each call is
+     * passed to the receive-queued-sms-results source. Requires sendQueueDirectory to be configured.
+     * <p>
+     * Calls the API did not process, e.g. because of rate limiting, are sent again. Other failures
+     * are reported as results and not retried, as the message may have been sent. A call which was 
+     * in progress when the application stopped is sent again, so it may be sent twice.
+     * 
+     * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202500828-send-sms">send-sms</a>
+     * @param message Message text
+     * @param from Set the alphanumeric Caller ID
+     * @param sendAt A time in the future to send the message. Must match YYYY-MM-DD HH:MM:SS.
+     * @param to List of up to 10,000 numbers to send the SMS to
+     * @param countryCode Formats numbers given to international format for this 2 letter country code
+     * @param listId This ID is the numerical reference to one of your recipient lists
+     * @param dlrCallback A URL on your system which we can call to notify you of Delivery Receipts
+     * @param replyCallback A URL on your system which we can call to notify you of incoming messages
+     * @param validity Specify the maximum time to attempt to deliver. In minutes, 0 (zero) implies no limit.
+     * @param repliesToEmail Specify an email address to send responses to this message
+     * @param fromShared Forces sending via the shared number when you have virtual numbers
+     * @return The sequence number identifying the call in its result, as a map
+     * @throws IOException If the call cannot be written to the log
+     */
+    @Processor(name = "queue-sms", friendlyName = "Queue SMS")
+    public Map<String, Object> queueSMS(
+    		String message,
+    		@Optional String from,
+    		@Optional String sendAt, 
+    		@Optional @Placement(order = 1, group = "Destination") List<String> to,
+    		@Optional @Placement(order = 2, group = "Destination") CountryCode countryCode,
+    		@Optional @Placement(order = 3, group = "Destination") Long listId,
+    		@Optional @Placement(tab = "Advanced", group = "Callbacks")
+    		@FriendlyName("Delivery Receipt Callback URL") String dlrCallback,
+    		@Optional @Placement(tab = "Advanced", group = "Callbacks")
+    		@FriendlyName("Reply Callback URL") String replyCallback,
+    		@Optional @Placement(tab = "Advanced", group = "Other") Long validity,
+    		@Optional @Placement(tab = "Advanced", group = "Other") String repliesToEmail,
+    		@Optional @Placement(tab = "Advanced", group = "Other") Boolean fromShared) throws IOException {
+    	
+    	if (sendQueue == null)
+    		throw new IllegalStateException("sendQueueDirectory must be configured to use queue-sms");
+    	if (sendAt != null && !SIMPLE_DATETIME_PATTERN.matcher(sendAt).matches())
+    		throw new IllegalArgumentException("sendAt is not in correct format");
+    	if (to == null && listId == null)
+    		throw new IllegalArgumentException("to or listId must be given");
+    	
+    	Map<String, Object> response = new LinkedHashMap<String, Object>();
+    	response.put("sequence", sendQueue.enqueue(message, to, from, sendAt, listId, dlrCallback, replyCallback, 
+    			validity, repliesToEmail, fromShared, countryCode));
+    	response.put("queued", true);
+    	return response;
+    }
+    
+    /**
+     * Receive the result of each call queued with queue-sms once it has been sent or has failed. The 
+     * result is a map of the call's sequence number and whether it was sent, with the messageId, 
+     * recipients, cost and fails of the send-sms response if it was, or the error code and 
+     * description if it was not.
+     * @param callback The flow to pass each result to
+     */
+    @Source(friendlyName = "Receive queued SMS results")
+    public void receiveQueuedSMSResults(SourceCallback callback) {
+    	if (sendQueue == null)
+    		throw new IllegalStateException("sendQueueDirectory must be configured to use queue-sms");
+    	sendQueue.dispatch(callback);
     }
 
     /**
@@ -153,14 +719,24 @@ public class BurstSMSConnector {
      * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/203098949-format-number">format-number</a>
      * @param number The number to check
      * @param countryCode Country code to validate number against
+     * @param normaliseLocally Check the number within the connector, and only call the API if the
+     *           connector cannot tell whether it is valid, e.g. for landlines. The response then
+     *           contains only the <code>international</code>, <code>e164</code>, <code>isValid</code> 
+     *           and <code>isValidForRegion</code> fields of <code>number</code>.
      * @return The response, as a map
      * @throws BurstSMSException If the API call fails for any reason
      */
     @Processor(name = "format-number", friendlyName = "Format and validate number")
     public Map<?, ?> formatNumber(
     		@Placement(order = 1) String number, 
-    		@Placement(order = 2) CountryCode countryCode) throws BurstSMSException {
+    		@Placement(order = 2) CountryCode countryCode,
+    		@Optional @Default("false") @Placement(order = 3) Boolean normaliseLocally) throws BurstSMSException {
     	
+    	if (normaliseLocally) {
+    		long msisdn = NumberNormaliser.normalise(number, countryCode);
+    		if (msisdn != NumberNormaliser.UNDECIDED)
+    			return NumberNormaliser.formatNumberResponse(msisdn, countryCode);
+    	}
     	return getBurstSMSClient().formatNumber(number, countryCode);
     }
     
@@ -188,6 +764,42 @@ public class BurstSMSConnector {
     	return getBurstSMSClient().getSMSStatus(messageId);
     }
     
+    /**
+     * Track a sent message until its delivery settles, instead of polling get-sms-stats. The message
+     * is checked often at first and less often as it ages, and once no recipients are pending a 
+     * summary of its delivery is passed to the receive-delivery-summaries source. Tracking a message
+     * which is already tracked does nothing. Scheduled messages should be tracked once they are sent.
+     * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202494888-get-sms-sent">get-sms-sent</a>
+     * @param messageId Message ID
+     * @param minInterval The shortest time between checks, in seconds
+     * @param maxInterval The longest time between checks, in seconds
+     * @param timeout How long to track the message before reporting it unsettled, in seconds
+     * @param includeFailures Include the recipients which failed in the summary
+     * @return True if the message was not already tracked
+     */
+    @Processor(name = "track-delivery", friendlyName = "Track SMS delivery")
+    public boolean trackDelivery(
+    		@Placement(order = 1) String messageId,
+    		@Optional @Default("10") @Placement(group = "Schedule", order = 1) Integer minInterval,
+    		@Optional @Default("300") @Placement(group = "Schedule", order = 2) Integer maxInterval,
+    		@Optional @Default("86400") @Placement(group = "Schedule", order = 3) Integer timeout,
+    		@Optional @Default("false") @Placement(order = 2) Boolean includeFailures) {
+    	return getDeliveryTracker().track(messageId, minInterval * 1000L, maxInterval * 1000L, 
+    			timeout * 1000L, includeFailures);
+    }
+    
+    /**
+     * Receive a summary of each message passed to track-delivery once its delivery settles. The 
+     * summary is a map of messageId, settled (false if the message timed out with recipients still
+     * pending), pending, checks, elapsedMillis, the stats from get-sms-stats and, if requested, 
+     * the failed recipients.
+     * @param callback The flow to pass each summary to
+     */
+    @Source(friendlyName = "Receive delivery summaries")
+    public void receiveDeliverySummaries(SourceCallback callback) {
+    	getDeliveryTracker().dispatch(callback);
+    }
+    
     /**
 	 * Pick up responses to messages you have sent. Filter by keyword or for just one phone number.
 	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202064243-get-sms-responses">get-sms-responses</a>
@@ -222,6 +834,40 @@ public class BurstSMSConnector {
     			mobileNumber, page, max, includeOriginal);
     }
     
+    /**
+	 * Stream every response to a message or keyword, reading further pages from the API as the 
+	 * results are consumed. Filters are as for get-sms-responses.
+	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202064243-get-sms-responses">get-sms-responses</a>
+	 * @param messageId Message ID. Required if Keyword ID is not specified.
+	 * @param keywordId Keyword ID. Required if Message ID is not specified.
+	 * @param keyword Keyword
+	 * @param responseNumber Filter results by response number. Required if keyword is set.
+	 * @param mobileNumber Filter results by a particular mobile number
+	 * @param includeOriginal Include text of original message
+	 * @param pagingConfiguration The page size to request from the API
+	 * @return A stream of every result, fetched a page at a time
+	 */
+	@Processor(name = "get-all-sms-responses", friendlyName = "Get all SMS responses")
+	@Paged
+    public ProviderAwarePagingDelegate<Map<String, Object>, BurstSMSConnector> getAllSMSResponses(
+    		@Optional @Placement(order = 1) final String messageId,
+    		@Optional @Placement(order = 2) final String keywordId,
+    		@Optional @Placement(order = 3) final String keyword,
+    		@Optional @Placement(order = 4) final String responseNumber,
+    		@Optional @Placement(order = 5) final String mobileNumber,
+    		@Optional @Placement(order = 6) final Boolean includeOriginal,
+    		final PagingConfiguration pagingConfiguration) {
+		
+		if (messageId == null && keywordId == null)
+			throw new IllegalArgumentException("One of [messageId, keywordId] must be specified.");
+		if (keyword != null && responseNumber == null)
+			throw new IllegalArgumentException("responseNumber must be specified when keyword is.");
+		
+    	return new PrefetchingPagingDelegate(getBurstSMSClient().getSMSResponsesPages(messageId, keywordId, 
+    			keyword, responseNumber, mobileNumber, includeOriginal, pagingConfiguration.getFetchSize(), 
+    			getAsyncExecutor()));
+    }
+    
     /**
 	 * Pick up responses to messages you have sent. 
 	 * Instead of setting message ID, you should provide a time frame.
@@ -257,6 +903,72 @@ public class BurstSMSConnector {
 		return getBurstSMSClient().getUserSMSResponses(start, end, page, max, keywords, includeOriginal);
     }
     
+    /**
+	 * Stream every response received in a time frame, reading further pages from the API as the 
+	 * results are consumed. Filters are as for get-user-sms-responses.
+	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202494938-get-user-sms-responses">get-user-sms-responses</a>
+	 * @param start A timestamp to start the report from. Must match YYYY-MM-DD HH:MM:SS.
+	 * @param end A timestamp to end the report at. Must match YYYY-MM-DD HH:MM:SS.
+	 * @param keywords Filter if keyword responses should be included
+	 * @param includeOriginal include text of original message
+	 * @param pagingConfiguration The page size to request from the API
+	 * @return A stream of every result, fetched a page at a time
+	 */
+	@Processor(name = "get-all-user-sms-responses", friendlyName = "Get all user SMS responses")
+	@Paged
+    public ProviderAwarePagingDelegate<Map<String, Object>, BurstSMSConnector> getAllUserSMSResponses(
+    		@Optional @Placement(group = "Reporting Period", order = 1) final String start, 
+    		@Optional @Placement(group = "Reporting Period", order = 2) final String end,
+    		@Optional @Placement(group = "Options", order = 1) final OnlyOmitBoth keywords, 
+    		@Optional @Placement(group = "Options", order = 2) final Boolean includeOriginal,
+    		final PagingConfiguration pagingConfiguration) {
+
+    	if (start != null && !SIMPLE_DATETIME_PATTERN.matcher(start).matches())
+    		throw new IllegalArgumentException("start is not in correct format");
+    	if (end != null && !SIMPLE_DATETIME_PATTERN.matcher(end).matches())
+    		throw new IllegalArgumentException("end is not in correct format");
+		
+    	return new PrefetchingPagingDelegate(getBurstSMSClient().getUserSMSResponsesPages(start, end, 
+    			keywords, includeOriginal, pagingConfiguration.getFetchSize(), getAsyncExecutor()));
+    }
+    
+    /**
+	 * Poll get-user-sms-responses for new responses, as a fallback for when reply callbacks cannot
+	 * be received. Each poll only reads the responses received since the previous poll, and the
+	 * flow receives them a page at a time, as a list of maps. Where polling has reached is saved
+	 * in the persistent object store under watermarkKey, so it resumes from there after a restart,
+	 * and responses are not passed to the flow twice unless the flow fails to process them.
+	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202494938-get-user-sms-responses">get-user-sms-responses</a>
+	 * @param callback The flow to pass the responses to
+	 * @param pollInterval The time between polls, in seconds
+	 * @param watermarkKey Identifies this source's progress in the object store. Sources polling with 
+	 *                     different filters must use different keys.
+	 * @param since Where to start the first poll from, if there is no saved progress. Must match 
+	 *              YYYY-MM-DD HH:MM:SS. Defaults to now.
+	 * @param overlap How far before the latest response each poll starts, in seconds, to pick up 
+	 *                responses the API records late
+	 * @param keywords Filter if keyword responses should be included
+	 * @param includeOriginal include text of original message
+	 * @param pageSize The number of responses requested per page, and the largest batch
+	 */
+	@Source(friendlyName = "Poll for user SMS responses")
+    public void pollUserSMSResponses(SourceCallback callback,
+    		@Optional @Default("60") @Placement(group = "Polling", order = 1) Integer pollInterval,
+    		@Optional @Default("user-sms-responses") @Placement(group = "Polling", order = 2) String watermarkKey,
+    		@Optional @Placement(group = "Polling", order = 3) String since,
+    		@Optional @Default("0") @Placement(group = "Polling", order = 4) Integer overlap,
+    		@Optional @Placement(group = "Options", order = 1) OnlyOmitBoth keywords, 
+    		@Optional @Placement(group = "Options", order = 2) Boolean includeOriginal,
+    		@Optional @Default("100") @Placement(group = "Pagination", order = 1) Integer pageSize) {
+    	if (since != null && !SIMPLE_DATETIME_PATTERN.matcher(since).matches())
+    		throw new IllegalArgumentException("since is not in correct format");
+    	
+    	ObjectStore<ResponsePoller.Watermark> store = getObjectStoreManager()
+    			.getObjectStore("burst-sms-watermarks", true);
+    	new ResponsePoller(getBurstSMSClient(), store, watermarkKey, since, overlap, keywords, includeOriginal, 
+    			pageSize, getAsyncExecutor()).run(callback, pollInterval * 1000L);
+    }
+    
     /**
 	 * Get a list of recipients from a message send. Get up to date information such as opt-out status and delivery status.
 	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202494888-get-sms-sent">get-sms-sent</a>
@@ -288,6 +1000,27 @@ public class BurstSMSConnector {
     	return getBurstSMSClient().getSMSSent(messageId, optouts, page, max, delivery);
     }
     
+    /**
+	 * Stream every recipient of a message send, reading further pages from the API as the 
+	 * results are consumed. Filters are as for get-sms-sent.
+	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202494888-get-sms-sent">get-sms-sent</a>
+	 * @param messageId The message ID
+	 * @param optouts Whether to include optouts
+	 * @param delivery Only show messages with requested delivery status
+	 * @param pagingConfiguration The page size to request from the API
+	 * @return A stream of every result, fetched a page at a time
+	 */
+	@Processor(name = "get-all-sms-sent", friendlyName = "Get all SMS recipients")
+	@Paged
+    public ProviderAwarePagingDelegate<Map<String, Object>, BurstSMSConnector> getAllSMSSent(
+    		@Placement(order = 1) final String messageId, 
+    		@Optional @Placement(order = 2) final OnlyOmitInclude optouts, 
+    		@Optional @Placement(order = 3) final DeliveryStatus delivery,
+    		final PagingConfiguration pagingConfiguration) {
+    	return new PrefetchingPagingDelegate(getBurstSMSClient().getSMSSentPages(messageId, optouts, delivery, 
+    			pagingConfiguration.getFetchSize(), getAsyncExecutor()));
+    }
+    
     /**
 	 * Cancel a message you have scheduled to be sent in the future.
 	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/200977465-cancel-sms">cancel-sms</a>
@@ -300,6 +1033,44 @@ public class BurstSMSConnector {
     	return getBurstSMSClient().cancelSMS(messageId);
     }
     
+    /**
+	 * Receive delivery receipts and replies by hosting the callback URLs given to send-sms as
+	 * dlrCallback and replyCallback, e.g. http://host:8090/burstsms/dlr and 
+	 * http://host:8090/burstsms/reply. Each callback is parsed into a DeliveryReceipt or Reply,
+	 * and the flow receives them in batches, as a list.
+	 * <p>
+	 * Listener threads never wait for the flow. Up to queueCapacity callbacks are held while the
+	 * flow is busy, and further callbacks are refused with 503 so that BurstSMS sends them again later.
+	 * Each held callback is answered once the flow has processed it, and refused with 503 if the flow
+	 * fails or the application stops first, so BurstSMS sends it again rather than it being lost.
+	 * @param callback The flow to pass the events to
+	 * @param host The address to listen on
+	 * @param port The port to listen on
+	 * @param path The path of the callback URLs
+	 * @param listenerThreads The number of threads handling callbacks
+	 * @param queueCapacity The most callbacks held while waiting for the flow
+	 * @param maxBatchSize The most events passed to the flow at once
+	 * @param maxBatchWait The longest time to wait for a batch to fill once it has one event, in milliseconds
+	 * @throws IOException If the port cannot be listened on
+	 */
+	@Source(friendlyName = "Receive delivery receipts and replies")
+    public void receiveCallbacks(SourceCallback callback,
+    		@Optional @Default("0.0.0.0") @Placement(group = "Listener", order = 1) String host,
+    		@Optional @Default("8090") @Placement(group = "Listener", order = 2) Integer port,
+    		@Optional @Default("/burstsms") @Placement(group = "Listener", order = 3) String path,
+    		@Optional @Default("8") @Placement(group = "Listener", order = 4) Integer listenerThreads,
+    		@Optional @Default("10000") @Placement(group = "Batching", order = 1) Integer queueCapacity,
+    		@Optional @Default("100") @Placement(group = "Batching", order = 2) Integer maxBatchSize,
+    		@Optional @Default("50") @Placement(group = "Batching", order = 3) Integer maxBatchWait) throws IOException {
+    	CallbackServer server = new CallbackServer(host, port, path, listenerThreads, queueCapacity);
+    	server.start();
+    	try {
+    		server.dispatch(callback, maxBatchSize, maxBatchWait);
+    	} finally {
+    		server.stop();
+    	}
+    }
+    
     /* *** Number API methods *** */
 	
     /**
@@ -335,6 +1106,23 @@ public class BurstSMSConnector {
     	return getBurstSMSClient().getNumbers(filter, page, max);
     }
     
+    /**
+	 * Stream every number either leased by you or available to be leased, reading further pages 
+	 * from the API as the results are consumed.
+	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202108026-get-numbers">get-numbers</a>
+	 * @param filter OWNED (default) or AVAILABLE
+	 * @param pagingConfiguration The page size to request from the API
+	 * @return A stream of every result, fetched a page at a time
+	 */
+	@Processor(name = "get-all-numbers", friendlyName = "Get all leased or available numbers")
+	@Paged
+    public ProviderAwarePagingDelegate<Map<String, Object>, BurstSMSConnector> getAllNumbers(
+    		@Optional final NumberFilter filter,
+    		final PagingConfiguration pagingConfiguration) {
+    	return new PrefetchingPagingDelegate(getBurstSMSClient().getNumbersPages(filter, 
+    			pagingConfiguration.getFetchSize(), getAsyncExecutor()));
+    }
+    
     /**
 	 * Lease a dedicated virtual number
 	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202108016-lease-number">lease-number</a>
@@ -441,6 +1229,22 @@ public class BurstSMSConnector {
     	return getBurstSMSClient().getKeywords(number, page, max);
     }
     
+    /**
+	 * Stream every existing keyword, reading further pages from the API as the results are consumed.
+	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202501158-get-keywords">get-keywords</a>
+	 * @param number Filter the list by virtual number
+	 * @param pagingConfiguration The page size to request from the API
+	 * @return A stream of every result, fetched a page at a time
+	 */
+	@Processor(name = "get-all-keywords", friendlyName = "Get all existing keywords")
+	@Paged
+    public ProviderAwarePagingDelegate<Map<String, Object>, BurstSMSConnector> getAllKeywords(
+    		@Optional final String number,
+    		final PagingConfiguration pagingConfiguration) {
+    	return new PrefetchingPagingDelegate(getBurstSMSClient().getKeywordsPages(number, 
+    			pagingConfiguration.getFetchSize(), getAsyncExecutor()));
+    }
+    
     /* *** List API methods *** */
 	
     /**
@@ -480,6 +1284,27 @@ public class BurstSMSConnector {
     	return getBurstSMSClient().getList(listId, members, page, max);
     }
     
+    /**
+	 * Stream every member of a list, reading further pages from the API as the results are consumed.
+	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202500838-get-list">get-list</a>
+	 * @param listId The list to retrieve
+	 * @param members Which types of members to return: ACTIVE (default), INACTIVE or ALL
+	 * @param pagingConfiguration The page size to request from the API
+	 * @return A stream of every result, fetched a page at a time
+	 */
+	@Processor(name = "get-all-list-members", friendlyName = "Get all members of a list")
+	@Paged
+    public ProviderAwarePagingDelegate<Map<String, Object>, BurstSMSConnector> getAllListMembers(
+    		@Placement(order = 1) final String listId,
+    		@Optional @Placement(order = 2) final MemberSelection members,
+    		final PagingConfiguration pagingConfiguration) {
+		if (members == MemberSelection.NONE)
+			throw new IllegalArgumentException("members must not be NONE.");
+		
+    	return new PrefetchingPagingDelegate(getBurstSMSClient().getListPages(listId, members, 
+    			pagingConfiguration.getFetchSize(), getAsyncExecutor()));
+    }
+    
     /**
 	 * Get the metadata of all your lists.
 	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202064413-get-lists">get-lists</a>
@@ -495,6 +1320,20 @@ public class BurstSMSConnector {
     	return getBurstSMSClient().getLists(page, max);
     }
     
+    /**
+	 * Stream the metadata of every list, reading further pages from the API as the results are consumed.
+	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202064413-get-lists">get-lists</a>
+	 * @param pagingConfiguration The page size to request from the API
+	 * @return A stream of every result, fetched a page at a time
+	 */
+	@Processor(name = "get-all-lists", friendlyName = "Get metadata of every list")
+	@Paged
+    public ProviderAwarePagingDelegate<Map<String, Object>, BurstSMSConnector> getAllLists(
+    		final PagingConfiguration pagingConfiguration) {
+    	return new PrefetchingPagingDelegate(getBurstSMSClient().getListsPages(
+    			pagingConfiguration.getFetchSize(), getAsyncExecutor()));
+    }
+    
     /**
 	 * Create a new list including the ability to add custom fields.
 	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202102716-add-list">add-list</a>
@@ -540,6 +1379,63 @@ public class BurstSMSConnector {
     	return getBurstSMSClient().addToList(listId, number, firstName, lastName, fields, countryCode);
     }
     
+    /**
+	 * Add a large number of members to a list.
+	 * <p>
+	 * The members are read one at a time and added with parallel add-to-list calls, so lists of 
+	 * hundreds of thousands of members can be loaded in minutes without being held in memory. 
+	 * Numbers are normalised, and duplicates skipped, before any call is made.
+	 * <p>
+	 * Each member has its number under <code>msisdn</code> or <code>number</code>, its names under 
+	 * <code>first_name</code> and <code>last_name</code>, and any other key is a custom field, 
+	 * either its number (1 to 10) or its name. A CSV file must have a header line with these names.
+	 * 
+	 * @param listId ID of the list to add to
+	 * @param members The members to add: a CSV InputStream, or an Iterator or Iterable of maps
+	 * @param countryCode Formats numbers for the given country code
+	 * @param normaliseLocally Convert numbers to international format within the connector rather 
+	 *           than leaving it to the API, so invalid numbers are rejected without a call
+	 * @param deduplicate Only add the first member with each number
+	 * @param parallelism The maximum number of add-to-list calls made at the same time
+	 * @return A summary of the import: the number of <code>records</code> read, <code>added</code>, 
+	 *         <code>duplicates</code>, <code>invalid</code> and <code>failed</code>, the 
+	 *         <code>errors</code> by code, the first 100 <code>failures</code>, and the 
+	 *         <code>elapsedMillis</code> and <code>recordsPerSecond</code>
+	 * @throws IOException If a CSV stream cannot be read
+	 */
+	@Processor(name = "import-list-members", friendlyName = "Import a large number of members into a list")
+    public Map<String, Object> importListMembers(
+    		@Placement(order = 1) String listId,
+    		@Optional @Default("#[payload]") @Placement(order = 2) Object members,
+    		@Optional @Placement(order = 3) CountryCode countryCode,
+    		@Optional @Default("true") @Placement(tab = "Advanced", group = "Import", order = 1) Boolean normaliseLocally,
+    		@Optional @Default("true") @Placement(tab = "Advanced", group = "Import", order = 2) Boolean deduplicate,
+    		@Optional @Default("8") @Placement(tab = "Advanced", group = "Import", order = 3) Integer parallelism) 
+    				throws IOException {
+    	
+    	CsvMemberReader csv = null;
+    	Iterator<? extends Map<String, ?>> iterator;
+    	if (members instanceof InputStream)
+    		iterator = csv = new CsvMemberReader((InputStream) members, StandardCharsets.UTF_8);
+    	else if (members instanceof Iterator)
+    		iterator = memberIterator((Iterator<?>) members);
+    	else if (members instanceof Iterable)
+    		iterator = memberIterator(((Iterable<?>) members).iterator());
+    	else
+    		throw new IllegalArgumentException("members must be a CSV InputStream, or an Iterator or Iterable of maps");
+    	
+    	try {
+    		ListImporter.FailureCollector failures = new ListImporter.FailureCollector(100);
+    		Map<String, Object> summary = getBurstSMSClient().importListMembers(listId, iterator, countryCode, 
+    				normaliseLocally, deduplicate, parallelism, failures);
+    		failures.addTo(summary);
+    		return summary;
+    	} finally {
+    		if (csv != null)
+    			csv.close();
+    	}
+    }
+    
     /**
 	 * Update or add custom fields to a list
 	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/206272695-add-field-to-list">add-field-to-list</a>
@@ -687,6 +1583,20 @@ public class BurstSMSConnector {
     	return getBurstSMSClient().getClients(page, max);
     }
     
+    /**
+	 * Stream every client, reading further pages from the API as the results are consumed.
+	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/203145737-get-clients">get-clients</a>
+	 * @param pagingConfiguration The page size to request from the API
+	 * @return A stream of every result, fetched a page at a time
+	 */
+	@Processor(name = "get-all-clients", friendlyName = "Get every client")
+	@Paged
+    public ProviderAwarePagingDelegate<Map<String, Object>, BurstSMSConnector> getAllClients(
+    		final PagingConfiguration pagingConfiguration) {
+    	return new PrefetchingPagingDelegate(getBurstSMSClient().getClientsPages(
+    			pagingConfiguration.getFetchSize(), getAsyncExecutor()));
+    }
+    
     /**
 	 * Add a new client.
 	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202116806-add-client">add-client</a>
@@ -775,6 +1685,32 @@ public class BurstSMSConnector {
     	return getBurstSMSClient().getTransactions(clientId, start, end, page, max);
     }
     
+    /**
+	 * Stream every transaction for a client, reading further pages from the API as the results are consumed.
+	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202510058-get-transactions">get-transactions</a>
+	 * @param clientId Only retrieve records for a particular client
+ 	 * @param start A timestamp to start the report from. Must match YYYY-MM-DD HH:MM:SS.
+	 * @param end A timestamp to end the report at
+	 * @param pagingConfiguration The page size to request from the API
+	 * @return A stream of every result, fetched a page at a time
+	 */
+	@Processor(name = "get-all-transactions", friendlyName = "Get every transaction for a client")
+	@Paged
+    public ProviderAwarePagingDelegate<Map<String, Object>, BurstSMSConnector> getAllTransactions(
+    		final String clientId,
+    		@Optional @Placement(group = "Reporting Period", order = 1) final String start,
+    		@Optional @Placement(group = "Reporting Period", order = 2) final String end,
+    		final PagingConfiguration pagingConfiguration) {
+
+    	if (start != null && !SIMPLE_DATETIME_PATTERN.matcher(start).matches())
+    		throw new IllegalArgumentException("start is not in correct format");
+    	if (end != null && !SIMPLE_DATETIME_PATTERN.matcher(end).matches())
+    		throw new IllegalArgumentException("end is not in correct format");
+
+    	return new PrefetchingPagingDelegate(getBurstSMSClient().getTransactionsPages(clientId, start, end, 
+    			pagingConfiguration.getFetchSize(), getAsyncExecutor()));
+    }
+    
     /**
 	 * Get information about a transaction
 	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/202108046-get-transaction">get-transaction</a>
@@ -789,6 +1725,34 @@ public class BurstSMSConnector {
 	
 	/* *** Account API methods *** */
 	
+    /**
+	 * Get counters describing the connector's own behaviour, such as the number of retries made for
+	 * each API call, the current rate limits, and the request counts, latency percentiles, errors and 
+	 * bytes transferred of each operation, the state of the send queue and the idempotency keys
+	 * remembered. No API call is made.
+	 * @return The statistics, as a map
+	 */
+	@Processor(name = "get-connector-statistics", friendlyName = "Get connector statistics")
+    public Map<String, Object> getConnectorStatistics() {
+    	Map<String, Object> statistics = getBurstSMSClient().getStatistics();
+    	if (sendQueue != null)
+    		statistics.put("sendQueue", sendQueue.getStatistics());
+    	statistics.put("idempotency", idempotencyIndex.getStatistics());
+    	return statistics;
+    }
+	
+    /**
+	 * Get the state of the connector's circuit breaker: CLOSED while the API is healthy, OPEN while 
+	 * calls are being suspended because the API is failing, or HALF_OPEN while it is being tested. 
+	 * No API call is made, so this is suitable for health checks used to steer traffic away 
+	 * from a worker which cannot reach the API.
+	 * @return The state and the failure rates it is based on, as a map
+	 */
+	@Processor(name = "get-circuit-breaker-state", friendlyName = "Get circuit breaker state")
+    public Map<String, Object> getCircuitBreakerState() {
+    	return getBurstSMSClient().getCircuitBreakerStatistics();
+    }
+	
     /**
 	 * Get a summary of your account balance.
 	 * @api.doc <a href="http://support.burstsms.com/hc/en-us/articles/200698319-get-balance">get-balance</a>
@@ -799,4 +1763,70 @@ public class BurstSMSConnector {
     public Map<?, ?> getBalance()  throws BurstSMSException {
     	return getBurstSMSClient().getBalance();
     }
-}
\ No newline at end of file
+    
+    /**
+     * Add the numbers rejected before sending to the fails of a send-sms response
+     */
+    @SuppressWarnings("unchecked")
+    /**
+     * Release an idempotency key if its call certainly did not send the message, or else hold it as
+     * unknown so that a retry does not send the message twice
+     */
+    private void releaseOrHold(String idempotencyKey, long fingerprint, Exception failure) {
+    	boolean notSent = RetryPolicy.isNotProcessed(failure);
+    	if (failure instanceof BurstSMSException) {
+    		BurstSMSException ex = (BurstSMSException) failure;
+    		//an open circuit makes no call, and a 4xx other than a timeout is a rejected request
+    		notSent |= ex.getCode() == ResponseCode.CIRCUIT_OPEN
+    				|| ex.getHttpStatus() >= 400 && ex.getHttpStatus() < 500 && ex.getHttpStatus() != 408;
+    	}
+    	if (notSent)
+    		idempotencyIndex.abandon(idempotencyKey);
+    	else
+    		idempotencyIndex.unknown(idempotencyKey, fingerprint);
+    }
+    
+    /**
+     * @return A copy of the response with the numbers found invalid before sending added to its fails
+     */
+    private static Map<?, ?> addFails(Map<?, ?> response, List<String> invalid) {
+    	if (invalid.isEmpty())
+    		return response;
+    	
+    	List<Object> fails = new ArrayList<Object>();
+    	if (response.get("fails") instanceof List)
+    		fails.addAll((List<?>) response.get("fails"));
+    	fails.addAll(invalid);
+    	Map<String, Object> copy = new LinkedHashMap<String, Object>();
+    	for (Map.Entry<?, ?> entry: response.entrySet())
+    		copy.put(String.valueOf(entry.getKey()), entry.getValue());
+    	copy.put("fails", fails);
+    	return copy;
+    }
+    
+    /**
+     * Check that each element is a map as it is read, rather than reading every element first
+     */
+    private static Iterator<Map<String, ?>> memberIterator(final Iterator<?> elements) {
+    	return new Iterator<Map<String, ?>>() {
+    		@Override
+    		public boolean hasNext() {
+    			return elements.hasNext();
+    		}
+    		
+    		@Override
+    		@SuppressWarnings("unchecked")
+    		public Map<String, ?> next() {
+    			Object element = elements.next();
+    			if (!(element instanceof Map))
+    				throw new IllegalArgumentException("Each member must be a map, not " + element);
+    			return (Map<String, ?>) element;
+    		}
+    		
+    		@Override
+    		public void remove() {
+    			throw new UnsupportedOperationException();
+    		}
+    	};
+    }
+}
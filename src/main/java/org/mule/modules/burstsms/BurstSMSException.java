@@ -21,7 +21,9 @@ public class BurstSMSException extends Exception {
 		NO_ACCESS,
 		KEY_EXISTS,
 		NOT_FOUND,
-		UNKNOWN;
+		UNKNOWN,
+		/** Raised by the connector, without calling the API, while the API is known to be unavailable */
+		CIRCUIT_OPEN;
 	}
 	
 	private ResponseCode code;
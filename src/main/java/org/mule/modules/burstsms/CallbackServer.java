@@ -0,0 +1,346 @@
+package org.mule.modules.burstsms;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.api.callback.SourceCallback;
+import org.mule.modules.burstsms.model.CallbackEvent;
+import org.mule.modules.burstsms.model.DeliveryReceipt;
+import org.mule.modules.burstsms.model.Reply;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Receives the delivery receipt and reply callbacks made by BurstSMS, and queues them as
+ * {@link CallbackEvent}s to be taken in batches.
+ * <p>
+ * Listener threads only parse the request and offer the event to a bounded queue; they never
+ * wait for the flow. When the queue is full the callback is refused with 503, and BurstSMS
+ * retries it later, so a slow flow pushes back on the sender rather than exhausting memory.
+ * <p>
+ * A queued callback is only answered once the flow has processed the batch it is in: with 200
+ * if the flow succeeds, and with 503 if it fails or the server stops first, so BurstSMS sends it
+ * again rather than it being lost. Until then its request is held open.
+ * <p>
+ * Callbacks to <code>&lt;path&gt;/dlr</code> are delivery receipts and callbacks to
+ * <code>&lt;path&gt;/reply</code> are replies. Callbacks to the path itself are replies if they
+ * have a <code>response</code> parameter and delivery receipts otherwise.
+ */
+class CallbackServer {
+
+	static Log logger = LogFactory.getLog(CallbackServer.class);
+
+	//callbacks are a handful of short parameters, so anything larger is not one
+	private static final int MAX_BODY_LENGTH = 1 << 16;
+
+	private final InetSocketAddress address;
+	private final String path;
+	private final int listenerThreads;
+	private final BlockingQueue<Pending> queue;
+
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong invalid = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private volatile boolean stopping;
+
+	/**
+	 * @param host The address to listen on, e.g. 0.0.0.0 for every interface
+	 * @param port The port to listen on
+	 * @param path The path of the callback URLs, e.g. /burstsms
+	 * @param listenerThreads The number of threads handling requests
+	 * @param queueCapacity The most events held before callbacks are refused
+	 */
+	CallbackServer(String host, int port, String path, int listenerThreads, int queueCapacity) {
+		if (listenerThreads < 1)
+			throw new IllegalArgumentException("listenerThreads must be >= 1");
+		if (queueCapacity < 1)
+			throw new IllegalArgumentException("queueCapacity must be >= 1");
+
+		this.address = new InetSocketAddress(host, port);
+		this.path = normalisePath(path);
+		this.listenerThreads = listenerThreads;
+		this.queue = new ArrayBlockingQueue<Pending>(queueCapacity);
+	}
+
+	void start() throws IOException {
+		server = HttpServer.create(address, 0);
+		executor = Executors.newFixedThreadPool(listenerThreads,
+				HttpTransport.daemonThreadFactory("burst-sms-callback-listener"));
+		server.setExecutor(executor);
+		server.createContext(path, new CallbackHandler());
+		server.start();
+		logger.info("Listening for callbacks on " + address + path);
+	}
+
+	/**
+	 * Stop accepting callbacks. Callbacks still queued are refused with 503, so BurstSMS sends
+	 * them again.
+	 */
+	void stop() {
+		stopping = true;
+		List<Pending> unprocessed = new ArrayList<Pending>();
+		queue.drainTo(unprocessed);
+		if (!unprocessed.isEmpty())
+			logger.warn("Refusing " + unprocessed.size() + " callbacks which were not processed, BurstSMS will send them again");
+		answer(unprocessed, 503);
+
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		logger.info("Stopped listening for callbacks: " + getStatistics());
+	}
+
+	/**
+	 * Pass batches of events to the flow until the thread is interrupted, answering each callback
+	 * once its batch has been processed. The callbacks of a batch the flow fails to process are
+	 * refused, so BurstSMS sends them again.
+	 * @param callback The flow to pass each batch to, as a list of {@link CallbackEvent}s
+	 * @param maxBatchSize The most events in a batch
+	 * @param maxBatchWait The longest time to wait for a batch to fill, in milliseconds
+	 */
+	void dispatch(SourceCallback callback, int maxBatchSize, long maxBatchWait) {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				List<Pending> batch = nextBatch(maxBatchSize, maxBatchWait);
+				List<CallbackEvent> events = new ArrayList<CallbackEvent>(batch.size());
+				for (Pending pending: batch)
+					events.add(pending.event);
+				int status = 200;
+				try {
+					callback.process(events);
+				} catch (Exception ex) {
+					logger.error("Failed to process " + batch.size() + " callbacks, refusing them so BurstSMS sends them again", ex);
+					failed.addAndGet(batch.size());
+					status = 503;
+				}
+				answer(batch, status);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Take the next batch of events, waiting for the first one and then up to
+	 * <code>maxWaitMillis</code> for the batch to fill.
+	 * @param maxSize The most events in the batch
+	 * @param maxWaitMillis The longest time to wait for more events once there is one
+	 * @return The events with their requests, never empty
+	 * @throws InterruptedException If the thread is interrupted while waiting
+	 */
+	private List<Pending> nextBatch(int maxSize, long maxWaitMillis) throws InterruptedException {
+		List<Pending> batch = new ArrayList<Pending>(Math.min(maxSize, 1024));
+		batch.add(queue.take());
+		queue.drainTo(batch, maxSize - batch.size());
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		while (batch.size() < maxSize) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				break;
+			Pending pending = queue.poll(remaining, TimeUnit.NANOSECONDS);
+			if (pending == null)
+				break;
+			batch.add(pending);
+			queue.drainTo(batch, maxSize - batch.size());
+		}
+		return batch;
+	}
+
+	/**
+	 * Answer the held requests of callbacks
+	 */
+	private static void answer(List<Pending> batch, int status) {
+		for (Pending pending: batch) {
+			try {
+				if (status == 503)
+					pending.exchange.getResponseHeaders().set("Retry-After", "1");
+				respond(pending.exchange, status);
+			} catch (IOException ex) {
+				//BurstSMS gave up waiting, and will send the callback again
+				logger.debug("Failed to answer a callback: " + ex.getMessage());
+			} finally {
+				pending.exchange.close();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of callbacks accepted, refused because the queue was full, refused
+	 *         because they were not valid, and refused because the flow failed to process them,
+	 *         and the number of events waiting in the queue
+	 */
+	Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("accepted", accepted.get());
+		statistics.put("rejected", rejected.get());
+		statistics.put("invalid", invalid.get());
+		statistics.put("failed", failed.get());
+		statistics.put("queued", queue.size());
+		return statistics;
+	}
+
+	private class CallbackHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			boolean queued = false;
+			try {
+				String method = exchange.getRequestMethod();
+				if (!"GET".equals(method) && !"POST".equals(method)) {
+					respond(exchange, 405);
+					return;
+				}
+
+				Map<String, String> parameters = new LinkedHashMap<String, String>();
+				parseParameters(exchange.getRequestURI().getRawQuery(), parameters);
+				if ("POST".equals(method)) {
+					String body = readBody(exchange.getRequestBody());
+					if (body == null) {
+						invalid.incrementAndGet();
+						respond(exchange, 413);
+						return;
+					}
+					parseParameters(body, parameters);
+				}
+
+				CallbackEvent event = toEvent(exchange.getRequestURI().getPath(), parameters);
+				if (event == null) {
+					invalid.incrementAndGet();
+					respond(exchange, 400);
+				} else if (!stopping && queue.offer(new Pending(event, exchange))) {
+					//answered by the dispatcher once the flow has processed it
+					accepted.incrementAndGet();
+					queued = true;
+				} else {
+					rejected.incrementAndGet();
+					exchange.getResponseHeaders().set("Retry-After", "1");
+					respond(exchange, 503);
+				}
+			} catch (IllegalArgumentException ex) {
+				//a malformed percent-encoding
+				invalid.incrementAndGet();
+				respond(exchange, 400);
+			} finally {
+				if (!queued)
+					exchange.close();
+			}
+		}
+	}
+
+	/**
+	 * A queued event and the request it came in, which is answered once the event is processed
+	 */
+	private static class Pending {
+		final CallbackEvent event;
+		final HttpExchange exchange;
+
+		Pending(CallbackEvent event, HttpExchange exchange) {
+			this.event = event;
+			this.exchange = exchange;
+		}
+	}
+
+	private CallbackEvent toEvent(String requestPath, Map<String, String> parameters) {
+		if (parameters.isEmpty())
+			return null;
+
+		String suffix = requestPath.length() > path.length() ? requestPath.substring(path.length()) : "";
+		if (suffix.startsWith("/"))
+			suffix = suffix.substring(1);
+		if (suffix.endsWith("/"))
+			suffix = suffix.substring(0, suffix.length() - 1);
+
+		if (suffix.equals("dlr"))
+			return new DeliveryReceipt(parameters);
+		if (suffix.equals("reply"))
+			return new Reply(parameters);
+		if (suffix.isEmpty())
+			return parameters.containsKey("response") ? new Reply(parameters) : new DeliveryReceipt(parameters);
+		return null;
+	}
+
+	private static void respond(HttpExchange exchange, int status) throws IOException {
+		exchange.sendResponseHeaders(status, -1);
+	}
+
+	/**
+	 * @return The body, or null if it is longer than {@link #MAX_BODY_LENGTH}
+	 */
+	private static String readBody(InputStream in) throws IOException {
+		byte[] buffer = new byte[1024];
+		int length = 0;
+		int read;
+		while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+			length += read;
+			if (length == buffer.length) {
+				if (length == MAX_BODY_LENGTH)
+					return in.read() == -1 ? new String(buffer, 0, length, StandardCharsets.ISO_8859_1) : null;
+				byte[] larger = new byte[Math.min(buffer.length * 2, MAX_BODY_LENGTH)];
+				System.arraycopy(buffer, 0, larger, 0, length);
+				buffer = larger;
+			}
+		}
+		//the body is URL-encoded, so it is ASCII
+		return new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+	}
+
+	private static void parseParameters(String encoded, Map<String, String> parameters)
+			throws UnsupportedEncodingException {
+		if (encoded == null || encoded.isEmpty())
+			return;
+
+		int start = 0;
+		while (start <= encoded.length()) {
+			int end = encoded.indexOf('&', start);
+			if (end < 0)
+				end = encoded.length();
+			if (end > start) {
+				int equals = encoded.indexOf('=', start);
+				if (equals < 0 || equals > end)
+					equals = end;
+				String name = URLDecoder.decode(encoded.substring(start, equals), "UTF-8");
+				String value = equals < end ? URLDecoder.decode(encoded.substring(equals + 1, end), "UTF-8") : "";
+				if (!name.isEmpty())
+					parameters.put(name, value);
+			}
+			start = end + 1;
+		}
+	}
+
+	private static String normalisePath(String path) {
+		if (path == null || path.isEmpty())
+			return "/";
+		if (!path.startsWith("/"))
+			path = "/" + path;
+		while (path.length() > 1 && path.endsWith("/"))
+			path = path.substring(0, path.length() - 1);
+		return path;
+	}
+}
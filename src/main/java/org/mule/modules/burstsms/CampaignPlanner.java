@@ -0,0 +1,308 @@
+package org.mule.modules.burstsms;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.modules.burstsms.BurstSMSConnector.CountryCode;
+import org.mule.modules.burstsms.BurstSMSException.ResponseCode;
+
+/**
+ * Spreads a campaign across a time window by splitting its recipients into chunks, each scheduled
+ * with its own <code>send_at</code>, so the provider sends them at a steady rate rather than all
+ * at one instant.
+ * <p>
+ * With a target rate, each chunk has at most a minute's worth of recipients and the chunks are
+ * spaced so the campaign goes out at that rate, which must fit in the window if one is given.
+ * With only a window, the chunks are spread evenly across it, at most one a minute unless the
+ * chunk size requires more. Recipients are divided evenly between the chunks.
+ * <p>
+ * Every chunk is scheduled up front with a bounded number of parallel send-sms calls on the shared
+ * call pool, and the scheduled chunks are kept in a {@link Campaign}, which can cancel them all with cancel-sms
+ * until they are sent. Times are in UTC, as send_at is.
+ */
+class CampaignPlanner {
+
+	static Log logger = LogFactory.getLog(CampaignPlanner.class);
+
+	private final BurstSMSClient client;
+	private final Executor executor;
+	private final int chunkSize;
+	private final int parallelism;
+
+	/**
+	 * The chunks of a scheduled campaign
+	 */
+	static class Campaign {
+		final String id = UUID.randomUUID().toString();
+		final List<Chunk> chunks;
+		//the time the last chunk is sent, after which nothing can be cancelled
+		final long lastSendAt;
+
+		Campaign(List<Chunk> chunks, long lastSendAt) {
+			this.chunks = chunks;
+			this.lastSendAt = lastSendAt;
+		}
+
+		/**
+		 * @return True once every chunk has been sent or cancelled
+		 */
+		boolean isFinished(long now) {
+			return now >= lastSendAt;
+		}
+	}
+
+	static class Chunk {
+		final String sendAt;
+		final long sendAtMillis;
+		final List<String> to;
+		volatile Map<?, ?> response;
+		volatile BurstSMSException error;
+		volatile boolean cancelled;
+
+		Chunk(String sendAt, long sendAtMillis, List<String> to) {
+			this.sendAt = sendAt;
+			this.sendAtMillis = sendAtMillis;
+			this.to = to;
+		}
+
+		Object getMessageId() {
+			return response == null ? null : response.get("message_id");
+		}
+	}
+
+	/**
+	 * @param client The client to make the calls with
+	 * @param executor The pool to make the calls on
+	 * @param chunkSize The most recipients in a chunk
+	 * @param parallelism The most calls made at the same time
+	 */
+	CampaignPlanner(BurstSMSClient client, Executor executor, int chunkSize, int parallelism) {
+		if (chunkSize < 1 || chunkSize > BurstSMSConnector.MAX_RECIPIENTS_PER_REQUEST)
+			throw new IllegalArgumentException("chunkSize must be >= 1 and <= "
+					+ BurstSMSConnector.MAX_RECIPIENTS_PER_REQUEST);
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be >= 1");
+
+		this.client = client;
+		this.executor = executor;
+		this.chunkSize = chunkSize;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Split the recipients into chunks and work out when each is sent, without calling the API
+	 * @param to The recipients
+	 * @param windowStart When the first chunk is sent, in milliseconds since the epoch
+	 * @param windowEnd The latest time a chunk may be sent, or -1 if there is no limit
+	 * @param ratePerMinute The target number of recipients sent each minute, or null to spread
+	 *           the chunks across the window
+	 * @return The chunks, in the order they are sent
+	 */
+	List<Chunk> plan(List<String> to, long windowStart, long windowEnd, Integer ratePerMinute) {
+		if (to.isEmpty())
+			throw new IllegalArgumentException("to must not be empty");
+		if (ratePerMinute == null && windowEnd < 0)
+			throw new IllegalArgumentException("ratePerMinute or windowEnd must be given");
+		if (ratePerMinute != null && ratePerMinute < 1)
+			throw new IllegalArgumentException("ratePerMinute must be >= 1");
+		if (windowEnd >= 0 && windowEnd < windowStart)
+			throw new IllegalArgumentException("windowEnd must not be before windowStart");
+
+		int total = to.size();
+		int count;
+		double intervalMillis;
+		if (ratePerMinute != null) {
+			int perChunk = Math.min(chunkSize, ratePerMinute);
+			count = (total + perChunk - 1) / perChunk;
+			//the chunks are smaller than perChunk once divided evenly, so they are spaced by their own size
+			intervalMillis = count == 1 ? 0 : TimeUnit.MINUTES.toMillis(1) * (double) total / count / ratePerMinute;
+			long duration = (long) (intervalMillis * (count - 1));
+			if (windowEnd >= 0 && windowStart + duration > windowEnd)
+				throw new IllegalArgumentException("Sending " + total + " recipients at " + ratePerMinute
+						+ " per minute takes " + TimeUnit.MILLISECONDS.toMinutes(duration)
+						+ " minutes, longer than the window");
+		} else {
+			long span = windowEnd - windowStart;
+			count = Math.max((total + chunkSize - 1) / chunkSize,
+					(int) Math.min(total, TimeUnit.MILLISECONDS.toMinutes(span) + 1));
+			intervalMillis = count == 1 ? 0 : (double) span / (count - 1);
+		}
+
+		SimpleDateFormat format = utcFormat();
+		List<Chunk> chunks = new ArrayList<Chunk>(count);
+		for (int i = 0; i < count; i++) {
+			//send_at is to the second, so round down to keep the last chunk within the window
+			long sendAt = (windowStart + (long) (i * intervalMillis)) / 1000 * 1000;
+			List<String> recipients = to.subList((int) ((long) i * total / count), (int) ((long) (i + 1) * total / count));
+			chunks.add(new Chunk(format.format(new Date(sendAt)), sendAt, recipients));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Schedule every chunk, returning once each has been scheduled or has failed
+	 * @param chunks The chunks from {@link #plan}
+	 * @return The campaign, to report on and cancel
+	 */
+	Campaign schedule(final String message, List<Chunk> chunks, final String from, final String dlrCallback,
+			final String replyCallback, final Long validity, final String repliesToEmail, final Boolean fromShared,
+			final CountryCode countryCode) {
+		forEach(chunks, new ChunkCall() {
+			@Override
+			public void call(Chunk chunk) throws BurstSMSException {
+				chunk.response = client.sendSMS(message, chunk.to, from, chunk.sendAt, null, dlrCallback,
+						replyCallback, validity, repliesToEmail, fromShared, countryCode);
+			}
+		});
+		Campaign campaign = new Campaign(chunks, chunks.get(chunks.size() - 1).sendAtMillis);
+		logger.info("Scheduled campaign " + campaign.id + " in " + chunks.size() + " chunks from "
+				+ chunks.get(0).sendAt + " to " + chunks.get(chunks.size() - 1).sendAt + " UTC");
+		return campaign;
+	}
+
+	/**
+	 * Cancel every chunk of a campaign which was scheduled and has not yet been sent
+	 * @return A summary of the chunks cancelled
+	 */
+	Map<String, Object> cancel(Campaign campaign) {
+		final long now = System.currentTimeMillis();
+		List<Chunk> pending = new ArrayList<Chunk>();
+		int started = 0;
+		for (Chunk chunk: campaign.chunks) {
+			if (chunk.getMessageId() == null || chunk.cancelled)
+				continue;
+			if (chunk.sendAtMillis <= now)
+				started++;
+			else
+				pending.add(chunk);
+		}
+
+		final List<Map<String, Object>> errors = new ArrayList<Map<String, Object>>();
+		forEach(pending, new ChunkCall() {
+			@Override
+			public void call(Chunk chunk) throws BurstSMSException {
+				try {
+					client.cancelSMS(chunk.getMessageId().toString());
+					chunk.cancelled = true;
+				} catch (BurstSMSException ex) {
+					synchronized (errors) {
+						errors.add(chunkError(chunk, ex.getCode(), ex.getMessage()));
+					}
+				} catch (RuntimeException ex) {
+					synchronized (errors) {
+						errors.add(chunkError(chunk, ResponseCode.UNKNOWN, String.valueOf(ex.getMessage())));
+					}
+				}
+			}
+		});
+
+		int cancelled = 0;
+		for (Chunk chunk: pending) {
+			if (chunk.cancelled)
+				cancelled++;
+		}
+		Map<String, Object> summary = new LinkedHashMap<String, Object>();
+		summary.put("campaignId", campaign.id);
+		summary.put("cancelled", cancelled);
+		summary.put("alreadySent", started);
+		summary.put("failed", pending.size() - cancelled);
+		summary.put("errors", errors);
+		return summary;
+	}
+
+	/**
+	 * Describe a campaign's chunks, in the shape of the send-bulk-sms result
+	 */
+	static Map<String, Object> describe(Campaign campaign) {
+		List<Object> messageIds = new ArrayList<Object>();
+		List<Map<String, Object>> chunks = new ArrayList<Map<String, Object>>();
+		List<Map<String, Object>> errors = new ArrayList<Map<String, Object>>();
+		long recipients = 0;
+		double cost = 0;
+		for (Chunk chunk: campaign.chunks) {
+			Map<String, Object> description = new LinkedHashMap<String, Object>();
+			description.put("sendAt", chunk.sendAt);
+			description.put("recipients", chunk.to.size());
+			description.put("message_id", chunk.getMessageId());
+			chunks.add(description);
+			if (chunk.error != null) {
+				errors.add(chunkError(chunk, chunk.error.getCode(), chunk.error.getMessage()));
+			} else if (chunk.response != null) {
+				messageIds.add(chunk.getMessageId());
+				recipients += BulkSMSSender.longValue(chunk.response.get("recipients"));
+				cost += BulkSMSSender.doubleValue(chunk.response.get("cost"));
+			}
+		}
+
+		Map<String, Object> summary = new LinkedHashMap<String, Object>();
+		summary.put("campaignId", campaign.id);
+		summary.put("message_ids", messageIds);
+		summary.put("recipients", recipients);
+		summary.put("cost", cost);
+		summary.put("chunks", chunks);
+		summary.put("errors", errors);
+		return summary;
+	}
+
+	/**
+	 * @param sendAt A time in the format YYYY-MM-DD HH:MM:SS, in UTC
+	 * @return The time in milliseconds since the epoch
+	 */
+	static long parse(String sendAt) {
+		try {
+			return utcFormat().parse(sendAt).getTime();
+		} catch (ParseException ex) {
+			throw new IllegalArgumentException(sendAt + " is not in correct format", ex);
+		}
+	}
+
+	private interface ChunkCall {
+		void call(Chunk chunk) throws BurstSMSException;
+	}
+
+	private void forEach(List<Chunk> chunks, final ChunkCall call) {
+		BoundedExecutor caller = new BoundedExecutor(executor, parallelism);
+		for (final Chunk chunk: chunks) {
+			caller.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						call.call(chunk);
+					} catch (BurstSMSException ex) {
+						chunk.error = ex;
+					} catch (RuntimeException ex) {
+						chunk.error = new BurstSMSException(ResponseCode.UNKNOWN, String.valueOf(ex.getMessage()), 0, ex);
+					}
+				}
+			});
+		}
+		caller.awaitCompletion();
+	}
+
+	private static Map<String, Object> chunkError(Chunk chunk, ResponseCode code, String description) {
+		Map<String, Object> error = new LinkedHashMap<String, Object>();
+		error.put("sendAt", chunk.sendAt);
+		error.put("recipients", chunk.to.size());
+		error.put("code", code != null ? code.name() : null);
+		error.put("description", description);
+		return error;
+	}
+
+	private static SimpleDateFormat utcFormat() {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		format.setLenient(false);
+		return format;
+	}
+}
@@ -0,0 +1,190 @@
+package org.mule.modules.burstsms;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.modules.burstsms.BurstSMSException.ResponseCode;
+
+/**
+ * Stops calls to the API while it is failing, so flow threads fail fast instead of each
+ * waiting for a socket timeout during a provider outage.
+ * <p>
+ * The outcome of the most recent calls is kept in a sliding window. Once the window is full,
+ * the circuit opens if the proportion of failed calls, or of calls slower than the slow call
+ * threshold, reaches the failure rate threshold. While open every call fails immediately with
+ * {@link ResponseCode#CIRCUIT_OPEN}. After the open duration the next caller probes the API
+ * (half-open); the circuit closes if the probe succeeds and opens again if it does not.
+ * <p>
+ * Only failures which indicate the API is unhealthy count: I/O errors and 5xx responses.
+ * Rejected requests, e.g. FIELD_INVALID, are successful calls as far as the circuit is concerned.
+ */
+class CircuitBreaker {
+
+	static Log logger = LogFactory.getLog(CircuitBreaker.class);
+
+	enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	/**
+	 * A lightweight call used to test whether the API has recovered
+	 */
+	interface Probe {
+		void probe() throws Exception;
+	}
+
+	private final boolean enabled;
+	private final int failureRateThreshold;
+	private final long slowCallThresholdNanos;
+	private final long openDurationNanos;
+	private final Probe probe;
+
+	private final boolean[] failed;
+	private final boolean[] slow;
+	private int position;
+	private int recorded;
+	private int failures;
+	private int slowCalls;
+
+	private State state = State.CLOSED;
+	private long openedAt;
+	private long timesOpened;
+
+	/**
+	 * @param enabled False to let every call through
+	 * @param windowSize The number of recent calls the rates are calculated over
+	 * @param failureRateThreshold The percentage of failed or slow calls which opens the circuit
+	 * @param slowCallThreshold Calls taking longer than this many milliseconds are slow
+	 * @param openDuration How long the circuit stays open before probing, in milliseconds
+	 * @param probe The call made to test the API when half-open
+	 */
+	CircuitBreaker(boolean enabled, int windowSize, int failureRateThreshold, long slowCallThreshold,
+			long openDuration, Probe probe) {
+		this.enabled = enabled;
+		this.failed = new boolean[Math.max(windowSize, 1)];
+		this.slow = new boolean[failed.length];
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallThresholdNanos = slowCallThreshold * 1000000L;
+		this.openDurationNanos = openDuration * 1000000L;
+		this.probe = probe;
+	}
+
+	/**
+	 * Check that a call may be made, probing the API first if the open duration has passed
+	 * @throws BurstSMSException With code CIRCUIT_OPEN if the call may not be made
+	 */
+	void acquirePermission() throws BurstSMSException {
+		if (!enabled)
+			return;
+
+		synchronized (this) {
+			if (state == State.CLOSED)
+				return;
+			if (state == State.HALF_OPEN || System.nanoTime() - openedAt < openDurationNanos)
+				throw open();
+			state = State.HALF_OPEN;
+		}
+
+		boolean recovered = false;
+		try {
+			probe.probe();
+			recovered = true;
+		} catch (Exception ex) {
+			logger.warn("API probe failed, circuit stays open: " + ex.getMessage());
+		}
+
+		synchronized (this) {
+			if (recovered) {
+				logger.info("API probe succeeded, circuit closed");
+				reset();
+				state = State.CLOSED;
+			} else {
+				state = State.OPEN;
+				openedAt = System.nanoTime();
+				throw open();
+			}
+		}
+	}
+
+	/**
+	 * Record the outcome of a call
+	 * @param failure True if the call failed in a way which suggests the API is unhealthy
+	 * @param durationNanos How long the call took
+	 */
+	void record(boolean failure, long durationNanos) {
+		if (!enabled)
+			return;
+
+		synchronized (this) {
+			if (state != State.CLOSED)
+				return;
+
+			boolean isSlow = durationNanos > slowCallThresholdNanos;
+			if (recorded == failed.length) {
+				if (failed[position])
+					failures--;
+				if (slow[position])
+					slowCalls--;
+			} else {
+				recorded++;
+			}
+			failed[position] = failure;
+			slow[position] = isSlow;
+			if (failure)
+				failures++;
+			if (isSlow)
+				slowCalls++;
+			position = (position + 1) % failed.length;
+
+			if (recorded == failed.length && (failures * 100 >= failureRateThreshold * recorded
+					|| slowCalls * 100 >= failureRateThreshold * recorded)) {
+				logger.warn("Circuit opened, " + failures + " failed and " + slowCalls + " slow of the last "
+						+ recorded + " calls");
+				state = State.OPEN;
+				openedAt = System.nanoTime();
+				timesOpened++;
+			}
+		}
+	}
+
+	static boolean isFailure(Exception ex) {
+		if (ex instanceof BurstSMSException)
+			return ((BurstSMSException) ex).getHttpStatus() >= 500;
+		return true;
+	}
+
+	synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return The state of the circuit and the rates it is based on
+	 */
+	synchronized Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("state", enabled ? state.name() : "DISABLED");
+		statistics.put("calls", recorded);
+		statistics.put("failureRate", recorded == 0 ? 0 : failures * 100 / recorded);
+		statistics.put("slowCallRate", recorded == 0 ? 0 : slowCalls * 100 / recorded);
+		statistics.put("timesOpened", timesOpened);
+		return statistics;
+	}
+
+	private BurstSMSException open() {
+		return new BurstSMSException(ResponseCode.CIRCUIT_OPEN,
+				"The BurstSMS API is unavailable, calls are suspended until it recovers", 503);
+	}
+
+	private void reset() {
+		position = 0;
+		recorded = 0;
+		failures = 0;
+		slowCalls = 0;
+		for (int i = 0; i < failed.length; i++) {
+			failed[i] = false;
+			slow[i] = false;
+		}
+	}
+}
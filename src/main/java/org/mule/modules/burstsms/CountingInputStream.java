@@ -0,0 +1,66 @@
+package org.mule.modules.burstsms;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a stream, e.g. to measure the size of a response body
+ * without buffering it.
+ */
+class CountingInputStream extends FilterInputStream {
+
+	/**
+	 * Holds the number of bytes read, so the count can outlive the stream
+	 */
+	static class Count {
+		private long bytes;
+
+		long get() {
+			return bytes;
+		}
+	}
+
+	private final Count count;
+	private long mark;
+
+	CountingInputStream(InputStream in, Count count) {
+		super(in);
+		this.count = count;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0)
+			count.bytes++;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if (n > 0)
+			count.bytes += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		count.bytes += skipped;
+		return skipped;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		super.mark(readlimit);
+		mark = count.bytes;
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		super.reset();
+		count.bytes = mark;
+	}
+}
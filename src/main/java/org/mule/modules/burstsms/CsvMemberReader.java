@@ -0,0 +1,126 @@
+package org.mule.modules.burstsms;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads list members from CSV one record at a time, so files of any size can be imported.
+ * <p>
+ * The first line must be a header naming the columns. Each following line becomes a map from
+ * column name to value. Values may be quoted with double quotes, in which case they may contain
+ * commas, line breaks and doubled quotes.
+ */
+class CsvMemberReader implements Iterator<Map<String, String>> {
+
+	private final BufferedReader reader;
+	private final List<String> header;
+	private final StringBuilder value = new StringBuilder();
+	private List<String> next;
+
+	CsvMemberReader(InputStream in, Charset charset) throws IOException {
+		this(new InputStreamReader(in, charset));
+	}
+
+	CsvMemberReader(Reader in) throws IOException {
+		this.reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+		this.header = readRecord();
+		if (header == null)
+			throw new IOException("The CSV has no header line");
+		//a byte order mark, which Excel writes at the start of UTF-8 files
+		if (!header.isEmpty() && header.get(0).startsWith("\uFEFF"))
+			header.set(0, header.get(0).substring(1));
+		for (int i = 0; i < header.size(); i++)
+			header.set(i, header.get(i).trim());
+		this.next = readRecord();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	@Override
+	public Map<String, String> next() {
+		if (next == null)
+			throw new NoSuchElementException();
+
+		Map<String, String> member = new LinkedHashMap<String, String>();
+		for (int i = 0; i < header.size() && i < next.size(); i++)
+			member.put(header.get(i), next.get(i));
+		try {
+			next = readRecord();
+		} catch (IOException ex) {
+			throw new IllegalStateException("Failed to read CSV", ex);
+		}
+		return member;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * @return The values of the next record, or null at the end of the input. Blank lines are skipped.
+	 */
+	private List<String> readRecord() throws IOException {
+		List<String> values = new ArrayList<String>();
+		boolean quoted = false;
+		boolean empty = true;
+		value.setLength(0);
+
+		int c;
+		while ((c = reader.read()) != -1) {
+			if (quoted) {
+				if (c == '"') {
+					reader.mark(1);
+					if (reader.read() == '"') {
+						value.append('"');
+					} else {
+						reader.reset();
+						quoted = false;
+					}
+				} else {
+					value.append((char) c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+				empty = false;
+			} else if (c == ',') {
+				values.add(value.toString());
+				value.setLength(0);
+				empty = false;
+			} else if (c == '\r' || c == '\n') {
+				if (c == '\r') {
+					reader.mark(1);
+					if (reader.read() != '\n')
+						reader.reset();
+				}
+				if (!empty)
+					break;
+			} else {
+				value.append((char) c);
+				empty = false;
+			}
+		}
+
+		if (empty)
+			return null;
+		values.add(value.toString());
+		return values;
+	}
+}
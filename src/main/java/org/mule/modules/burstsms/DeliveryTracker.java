@@ -0,0 +1,241 @@
+package org.mule.modules.burstsms;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.api.callback.SourceCallback;
+import org.mule.modules.burstsms.BurstSMSConnector.DeliveryStatus;
+
+/**
+ * Tracks sent messages until delivery settles, replacing a get-sms-stats call per message per
+ * minute with checks scheduled for each message as it needs them.
+ * <p>
+ * A message is checked often while it is new, when most of its recipients are delivered, and less
+ * often as it ages: each check is scheduled after a quarter of the message's age, between the
+ * minimum and maximum intervals. A check asks get-sms-sent for a single pending recipient, so it
+ * transfers only the number of recipients still pending rather than every recipient's status.
+ * Once none are pending at two checks in a row the message has settled, and its aggregate stats
+ * are fetched once with get-sms-stats, along with the failed recipients if wanted. A message which
+ * has not settled by the timeout is reported as it stands.
+ * <p>
+ * Settled messages are queued for the flow. Registering a message which is already tracked does
+ * nothing, so every message is checked by one schedule however many times it is tracked.
+ */
+class DeliveryTracker {
+
+	static Log logger = LogFactory.getLog(DeliveryTracker.class);
+
+	//the number of checks in a row which must find nothing pending
+	private static final int SETTLED_CHECKS = 2;
+	//the largest page used to fetch failed recipients
+	private static final int FAILED_PAGE_SIZE = 500;
+
+	/**
+	 * Rejects every task, so failed recipients are read a page at a time on the checking thread.
+	 * Prefetching them on the executor running the check could leave every thread of the pool
+	 * waiting for a page queued behind it.
+	 */
+	private static final Executor NO_PREFETCH = new Executor() {
+		@Override
+		public void execute(Runnable task) {
+			throw new RejectedExecutionException();
+		}
+	};
+
+	private final BurstSMSClient client;
+	private final Executor executor;
+	private final ScheduledExecutorService scheduler;
+	private final ConcurrentMap<String, Tracked> tracked = new ConcurrentHashMap<String, Tracked>();
+	private final BlockingQueue<Map<String, Object>> settled = new LinkedBlockingQueue<Map<String, Object>>();
+
+	/**
+	 * @param client The client to make the calls with
+	 * @param executor Runs the checks, so the scheduler thread never waits for the API
+	 */
+	DeliveryTracker(BurstSMSClient client, Executor executor) {
+		this.client = client;
+		this.executor = executor;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(
+				HttpTransport.daemonThreadFactory("burst-sms-delivery-tracker"));
+	}
+
+	/**
+	 * Start tracking a message
+	 * @param messageId The message to track
+	 * @param minInterval The shortest time between checks, in milliseconds
+	 * @param maxInterval The longest time between checks, in milliseconds
+	 * @param timeout How long to track the message before reporting it unsettled, in milliseconds
+	 * @param includeFailures Fetch the recipients which failed once the message settles
+	 * @return True if the message was not already tracked
+	 */
+	boolean track(String messageId, long minInterval, long maxInterval, long timeout, boolean includeFailures) {
+		if (minInterval < 1 || maxInterval < minInterval)
+			throw new IllegalArgumentException("Intervals must be >= 1 and minInterval <= maxInterval");
+
+		Tracked message = new Tracked(messageId, minInterval, maxInterval, timeout, includeFailures);
+		if (tracked.putIfAbsent(messageId, message) != null)
+			return false;
+		schedule(message, minInterval);
+		return true;
+	}
+
+	/**
+	 * @return The number of messages which have not yet settled
+	 */
+	int getTrackedCount() {
+		return tracked.size();
+	}
+
+	/**
+	 * Pass each settled message to the flow until the thread is interrupted
+	 * @param callback The flow to pass each message's summary to, as a map
+	 */
+	void dispatch(SourceCallback callback) {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Map<String, Object> summary = settled.take();
+				try {
+					callback.process(summary);
+				} catch (Exception ex) {
+					logger.error("Failed to process the delivery summary of message " + summary.get("messageId"), ex);
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stop checking. Messages still tracked are abandoned.
+	 */
+	void close() {
+		scheduler.shutdownNow();
+		tracked.clear();
+	}
+
+	private void schedule(final Tracked message, long delay) {
+		try {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					submit(message);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException ex) {
+			//closed
+			tracked.remove(message.messageId, message);
+		}
+	}
+
+	private void submit(final Tracked message) {
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					check(message);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			//the pool is saturated, so try again after the shortest interval
+			schedule(message, message.minInterval);
+		}
+	}
+
+	private void check(Tracked message) {
+		long age = System.currentTimeMillis() - message.trackedAt;
+		try {
+			Map<?, ?> response = client.getSMSSent(message.messageId, null, 1, 1, DeliveryStatus.PENDING);
+			message.checks++;
+			long pending = response.get("total") instanceof Number ? ((Number) response.get("total")).longValue() : -1;
+			message.pending = pending;
+			message.settledChecks = pending == 0 ? message.settledChecks + 1 : 0;
+
+			if (message.settledChecks >= SETTLED_CHECKS) {
+				settle(message, true);
+				return;
+			}
+		} catch (BurstSMSException ex) {
+			logger.warn("Failed to check the delivery of message " + message.messageId + ": " + ex.getMessage());
+		} catch (RuntimeException ex) {
+			//e.g. a network or parse failure, after which the message is checked again as usual
+			logger.warn("Failed to check the delivery of message " + message.messageId, ex);
+		}
+
+		if (age >= message.timeout) {
+			settle(message, false);
+			return;
+		}
+		long interval = Math.max(message.minInterval, Math.min(message.maxInterval, age / 4));
+		schedule(message, Math.min(interval, message.timeout - age));
+	}
+
+	private void settle(Tracked message, boolean complete) {
+		tracked.remove(message.messageId, message);
+
+		Map<String, Object> summary = new LinkedHashMap<String, Object>();
+		summary.put("messageId", message.messageId);
+		summary.put("settled", complete);
+		summary.put("pending", message.pending);
+		summary.put("checks", message.checks);
+		summary.put("elapsedMillis", System.currentTimeMillis() - message.trackedAt);
+		try {
+			summary.put("stats", client.getSMSStatus(message.messageId).get("stats"));
+			if (message.includeFailures)
+				summary.put("failed", failedRecipients(message.messageId));
+		} catch (BurstSMSException ex) {
+			logger.warn("Failed to get the delivery stats of message " + message.messageId + ": " + ex.getMessage());
+			summary.put("error", ex.getMessage());
+		} catch (RuntimeException ex) {
+			logger.warn("Failed to get the delivery stats of message " + message.messageId, ex);
+			summary.put("error", String.valueOf(ex.getMessage()));
+		}
+		settled.add(summary);
+	}
+
+	private List<Map<String, Object>> failedRecipients(String messageId) throws BurstSMSException {
+		List<Map<String, Object>> failed = new ArrayList<Map<String, Object>>();
+		PageFetcher pages = client.getSMSSentPages(messageId, null, DeliveryStatus.FAILED, FAILED_PAGE_SIZE, NO_PREFETCH);
+		try {
+			for (List<Map<String, Object>> page = pages.nextPage(); !page.isEmpty(); page = pages.nextPage())
+				failed.addAll(page);
+		} finally {
+			pages.close();
+		}
+		return failed;
+	}
+
+	private static class Tracked {
+		final String messageId;
+		final long minInterval;
+		final long maxInterval;
+		final long timeout;
+		final boolean includeFailures;
+		final long trackedAt = System.currentTimeMillis();
+
+		//only one check of a message runs at a time, each after the last has finished
+		volatile int checks;
+		volatile int settledChecks;
+		volatile long pending = -1;
+
+		Tracked(String messageId, long minInterval, long maxInterval, long timeout, boolean includeFailures) {
+			this.messageId = messageId;
+			this.minInterval = minInterval;
+			this.maxInterval = maxInterval;
+			this.timeout = timeout;
+			this.includeFailures = includeFailures;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package org.mule.modules.burstsms;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Writes a form body built by a {@link QueryBuilder} straight to the request stream.
+ * <p>
+ * The body is ASCII, so its length in bytes is known before it is written and is sent as the
+ * Content-Length. The URL connection transport then streams the body to the connection, and
+ * neither transport falls back to chunked encoding, which some servers reject.
+ */
+@Provider
+class FormBodyWriter implements MessageBodyWriter<QueryBuilder> {
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return type == QueryBuilder.class;
+	}
+
+	@Override
+	public long getSize(QueryBuilder body, Class<?> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType) {
+		return body.length();
+	}
+
+	@Override
+	public void writeTo(QueryBuilder body, Class<?> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream out) throws IOException {
+		body.writeTo(out);
+	}
+}
@@ -0,0 +1,130 @@
+package org.mule.modules.burstsms;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.mule.modules.burstsms.config.ConnectorConfig;
+
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.client.apache4.ApacheHttpClient4Handler;
+import com.sun.jersey.client.urlconnection.URLConnectionClientHandler;
+
+/**
+ * The HTTP layer underneath the Jersey client used by {@link BurstSMSClient}.
+ * <p>
+ * The implementation is selected by {@link ConnectorConfig#getHttpTransport()}.
+ * The pooled transport keeps connections (and so their TLS sessions) alive between calls,
+ * which avoids a handshake with the API for every message sent.
+ */
+abstract class HttpTransport {
+
+	static final int DEFAULT_MAX_CONNECTIONS = 50;
+	static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+	static final int DEFAULT_IDLE_CONNECTION_TIMEOUT = 60000;
+	static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+	static final int DEFAULT_READ_TIMEOUT = 30000;
+
+	/**
+	 * @return The root Jersey handler which performs the HTTP exchange
+	 */
+	abstract ClientHandler getHandler();
+
+	/**
+	 * Release any connections and threads held by this transport
+	 */
+	void close() {
+	}
+
+	static HttpTransport create(ConnectorConfig config) {
+		if (config.getHttpTransport() == ConnectorConfig.HttpTransport.URL_CONNECTION)
+			return new UrlConnectionTransport();
+
+		return new PooledTransport(
+				valueOrDefault(config.getMaxConnections(), DEFAULT_MAX_CONNECTIONS),
+				valueOrDefault(config.getMaxConnectionsPerRoute(), DEFAULT_MAX_CONNECTIONS_PER_ROUTE),
+				valueOrDefault(config.getIdleConnectionTimeout(), DEFAULT_IDLE_CONNECTION_TIMEOUT),
+				valueOrDefault(config.getConnectTimeout(), DEFAULT_CONNECT_TIMEOUT),
+				valueOrDefault(config.getReadTimeout(), DEFAULT_READ_TIMEOUT));
+	}
+
+	static int valueOrDefault(Integer value, int defaultValue) {
+		return value != null ? value : defaultValue;
+	}
+
+	/**
+	 * Creates daemon threads so that a connector which is never stopped cannot hold the JVM open
+	 */
+	static ThreadFactory daemonThreadFactory(final String name) {
+		return new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + (++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	//** implementations **//
+
+	private static class UrlConnectionTransport extends HttpTransport {
+		private final ClientHandler handler = new URLConnectionClientHandler();
+
+		@Override
+		ClientHandler getHandler() {
+			return handler;
+		}
+	}
+
+	private static class PooledTransport extends HttpTransport {
+		private final ThreadSafeClientConnManager connectionManager;
+		private final ClientHandler handler;
+		private final ScheduledExecutorService evictor;
+
+		PooledTransport(int maxConnections, int maxConnectionsPerRoute, final int idleConnectionTimeout,
+				int connectTimeout, int readTimeout) {
+
+			connectionManager = new ThreadSafeClientConnManager(SchemeRegistryFactory.createDefault());
+			connectionManager.setMaxTotal(maxConnections);
+			connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+			HttpParams params = new BasicHttpParams();
+			HttpConnectionParams.setConnectionTimeout(params, connectTimeout);
+			HttpConnectionParams.setSoTimeout(params, readTimeout);
+			HttpConnectionParams.setTcpNoDelay(params, true);
+
+			handler = new ApacheHttpClient4Handler(new DefaultHttpClient(connectionManager, params), null, false);
+
+			evictor = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("burst-sms-connection-evictor"));
+			long period = Math.max(idleConnectionTimeout / 2, 1000);
+			evictor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					connectionManager.closeExpiredConnections();
+					connectionManager.closeIdleConnections(idleConnectionTimeout, TimeUnit.MILLISECONDS);
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		ClientHandler getHandler() {
+			return handler;
+		}
+
+		@Override
+		void close() {
+			evictor.shutdownNow();
+			connectionManager.shutdown();
+		}
+	}
+}
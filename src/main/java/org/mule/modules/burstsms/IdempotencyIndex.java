@@ -0,0 +1,330 @@
+package org.mule.modules.burstsms;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.api.store.ObjectAlreadyExistsException;
+import org.mule.api.store.ObjectStore;
+import org.mule.api.store.ObjectStoreException;
+import org.mule.modules.burstsms.BurstSMSException.ResponseCode;
+
+/**
+ * Remembers which idempotency keys have been sent, and the message id each was sent as, so that
+ * a repeated call with the same key is answered without sending again.
+ * <p>
+ * Keys are held as 64 bit hashes, together with a hash of the call's parameters and the message
+ * id, in two open-addressed tables of <code>long</code>s: new keys go into the current table, and
+ * when it has been in use for the window or is half full it replaces the previous table, whose keys
+ * are forgotten. Each key is therefore remembered for at least the window unless more than half the
+ * maximum number of keys are used within it. Each table has 24 bytes for each of its slots, which
+ * number the power of two at or above the maximum number of keys, so the index uses between 48 and
+ * 96 bytes for each key of that maximum.
+ * <p>
+ * With a persistent store the keys are also kept there, so they are remembered across restarts and
+ * by every node sharing the store. A key is written once and never removed, and the store is read
+ * and written outside the index's lock, so calls with other keys do not wait for it. A call with a key which is in progress on this node waits for it
+ * to finish; calls in progress on other nodes are not seen until they have completed. A call which
+ * fails in a way which may have sent the message is remembered as unknown, and later calls with
+ * its key fail rather than send it again.
+ */
+class IdempotencyIndex {
+
+	static Log logger = LogFactory.getLog(IdempotencyIndex.class);
+
+	/**
+	 * Returned by {@link #begin} when the key has not been sent, and the caller should send it
+	 */
+	static final long NEW = -1;
+
+	//a message id slot whose call is in progress, was abandoned and may be taken over, or failed
+	//in a way which leaves unknown whether the message was sent
+	private static final long PENDING = -2;
+	private static final long ABANDONED = -3;
+	private static final long UNKNOWN = -4;
+
+	/**
+	 * A key as it is kept in the persistent store
+	 */
+	static class Record implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final long fingerprint;
+		final long messageId;
+
+		Record(long fingerprint, long messageId) {
+			this.fingerprint = fingerprint;
+			this.messageId = messageId;
+		}
+	}
+
+	private final int tableCapacity;
+	private final long windowNanos;
+	private final ObjectStore<Record> store;
+
+	private Table current;
+	private Table previous;
+	private long repeats;
+	private long conflicts;
+
+	/**
+	 * @param maxEntries The most keys remembered
+	 * @param windowSeconds The least time each key is remembered for
+	 * @param store Where keys are also kept, or null to keep them only in memory
+	 */
+	IdempotencyIndex(int maxEntries, int windowSeconds, ObjectStore<Record> store) {
+		if (maxEntries < 2)
+			throw new IllegalArgumentException("maxEntries must be >= 2");
+		int capacity = 16;
+		//half the keys in each table, at a load factor of 0.5
+		while (capacity < maxEntries)
+			capacity <<= 1;
+		this.tableCapacity = capacity;
+		this.windowNanos = windowSeconds * 1000000000L;
+		this.store = store;
+		this.current = new Table(capacity);
+	}
+
+	/**
+	 * Start a call with an idempotency key, waiting if a call with the same key is in progress
+	 * @param key The idempotency key
+	 * @param fingerprint A hash of the call's parameters, see {@link #fingerprint}
+	 * @return {@link #NEW} if the key has not been sent, in which case the caller must send it and then
+	 *         call {@link #complete} or {@link #abandon}, or the message id it was sent as
+	 * @throws BurstSMSException KEY_EXISTS if the key was used for a call with different parameters, or
+	 *         an earlier call with the key failed without it being known whether the message was sent
+	 */
+	long begin(String key, long fingerprint) throws BurstSMSException {
+		long hash = hash(key);
+		//read from the store without holding the lock, once the key is found not to be in memory
+		Record record = null;
+		boolean retrieved = store == null;
+		while (true) {
+			synchronized (this) {
+				Table table = find(hash);
+				if (table == null && retrieved) {
+					if (record != null) {
+						checkFingerprint(key, fingerprint, record.fingerprint);
+						insert(hash, record.fingerprint, record.messageId);
+						checkKnown(key, record.messageId);
+						repeats++;
+						return record.messageId;
+					}
+					insert(hash, fingerprint, PENDING);
+					return NEW;
+				}
+
+				if (table != null) {
+					int slot = table.slot(hash);
+					long messageId = table.messageIds[slot];
+					if (messageId == ABANDONED) {
+						table.fingerprints[slot] = fingerprint;
+						table.messageIds[slot] = PENDING;
+						return NEW;
+					}
+					checkFingerprint(key, fingerprint, table.fingerprints[slot]);
+					checkKnown(key, messageId);
+					if (messageId != PENDING) {
+						repeats++;
+						return messageId;
+					}
+					try {
+						wait();
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						throw new BurstSMSException(ResponseCode.UNKNOWN, "Interrupted waiting for the call with key " + key, 0, ex);
+					}
+					continue;
+				}
+			}
+			record = retrieve(key);
+			retrieved = true;
+		}
+	}
+
+	/**
+	 * Record that the call begun with a key was sent
+	 */
+	void complete(String key, long fingerprint, long messageId) {
+		record(key, fingerprint, messageId);
+	}
+
+	/**
+	 * Record that the call begun with a key failed without it being known whether the message was
+	 * sent, so later calls with the key fail rather than risk sending it twice
+	 */
+	void unknown(String key, long fingerprint) {
+		record(key, fingerprint, UNKNOWN);
+	}
+
+	private void record(String key, long fingerprint, long messageId) {
+		synchronized (this) {
+			insert(hash(key), fingerprint, messageId);
+			notifyAll();
+		}
+		if (store != null) {
+			try {
+				store.store(key, new Record(fingerprint, messageId));
+			} catch (ObjectAlreadyExistsException ex) {
+				//only another node can have stored the key, and its record is kept
+				logger.warn("Idempotency key " + key + " was also sent by another node");
+			} catch (ObjectStoreException ex) {
+				logger.warn("Failed to store idempotency key " + key + ", it is only remembered on this node", ex);
+			}
+		}
+	}
+
+	/**
+	 * Record that the call begun with a key failed, so the key can be sent again
+	 */
+	synchronized void abandon(String key) {
+		long hash = hash(key);
+		Table table = find(hash);
+		if (table != null)
+			table.messageIds[table.slot(hash)] = ABANDONED;
+		notifyAll();
+	}
+
+	synchronized Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("keys", current.size + (previous == null ? 0 : previous.size));
+		statistics.put("repeats", repeats);
+		statistics.put("conflicts", conflicts);
+		statistics.put("persistent", store != null);
+		return statistics;
+	}
+
+	/**
+	 * @return A 64 bit hash of a call's parameters, in which a null differs from every string
+	 */
+	static long fingerprint(Object... parameters) {
+		long hash = 0xcbf29ce484222325L;
+		for (Object parameter: parameters) {
+			if (parameter instanceof List) {
+				for (Object element: (List<?>) parameter)
+					hash = (hash(hash, String.valueOf(element)) ^ 0x10002) * 0x100000001b3L;
+			} else if (parameter != null) {
+				hash = hash(hash, parameter.toString());
+			}
+			//separators which cannot occur in a string, so parameters cannot run into each other
+			hash = (hash ^ (parameter == null ? 0x10001 : 0x10000)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private void checkFingerprint(String key, long fingerprint, long expected) throws BurstSMSException {
+		if (fingerprint != expected) {
+			conflicts++;
+			throw new BurstSMSException(ResponseCode.KEY_EXISTS,
+					"The idempotency key " + key + " was already used for a different message", 0);
+		}
+	}
+
+	private void checkKnown(String key, long messageId) throws BurstSMSException {
+		if (messageId == UNKNOWN)
+			throw new BurstSMSException(ResponseCode.KEY_EXISTS, "An earlier call with the idempotency key " + key
+					+ " failed and may have sent the message, so it is not sent again", 0);
+	}
+
+	private Table find(long hash) {
+		if (current.slot(hash) >= 0)
+			return current;
+		if (previous != null && previous.slot(hash) >= 0)
+			return previous;
+		return null;
+	}
+
+	private void insert(long hash, long fingerprint, long messageId) {
+		Table table = find(hash);
+		if (table == null) {
+			if (current.size >= tableCapacity / 2 || System.nanoTime() - current.createdAt >= windowNanos) {
+				Table forgotten = previous;
+				previous = current;
+				current = new Table(tableCapacity);
+				//calls in progress must stay visible to the callers waiting for them
+				if (forgotten != null) {
+					for (int i = 0; i < forgotten.keys.length; i++) {
+						if (forgotten.keys[i] != 0 && forgotten.messageIds[i] == PENDING)
+							current.put(forgotten.keys[i], forgotten.fingerprints[i], PENDING);
+					}
+				}
+			}
+			table = current;
+		}
+		table.put(hash, fingerprint, messageId);
+	}
+
+	private Record retrieve(String key) {
+		if (store == null)
+			return null;
+		try {
+			return store.contains(key) ? store.retrieve(key) : null;
+		} catch (ObjectStoreException ex) {
+			logger.warn("Failed to read idempotency key " + key + " from the store", ex);
+			return null;
+		}
+	}
+
+	/**
+	 * FNV-1a of the UTF-16 characters of a key, never 0 as that marks an empty slot
+	 */
+	private static long hash(String key) {
+		long hash = hash(0xcbf29ce484222325L, key);
+		return hash == 0 ? 1 : hash;
+	}
+
+	private static long hash(long hash, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static class Table {
+		final long[] keys;
+		final long[] fingerprints;
+		final long[] messageIds;
+		final long createdAt = System.nanoTime();
+		int size;
+
+		Table(int capacity) {
+			keys = new long[capacity];
+			fingerprints = new long[capacity];
+			messageIds = new long[capacity];
+		}
+
+		/**
+		 * @return The slot holding the key, or -1
+		 */
+		int slot(long key) {
+			int mask = keys.length - 1;
+			for (int i = mix(key) & mask; keys[i] != 0; i = (i + 1) & mask) {
+				if (keys[i] == key)
+					return i;
+			}
+			return -1;
+		}
+
+		void put(long key, long fingerprint, long messageId) {
+			int mask = keys.length - 1;
+			int i = mix(key) & mask;
+			while (keys[i] != 0 && keys[i] != key)
+				i = (i + 1) & mask;
+			if (keys[i] == 0) {
+				keys[i] = key;
+				size++;
+			}
+			fingerprints[i] = fingerprint;
+			messageIds[i] = messageId;
+		}
+
+		private static int mix(long value) {
+			long h = value * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+}
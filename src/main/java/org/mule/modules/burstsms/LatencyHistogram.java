@@ -0,0 +1,112 @@
+package org.mule.modules.burstsms;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with buckets of logarithmically increasing width, in the style
+ * of HdrHistogram. Each power of two is split into 16 buckets, so percentiles are accurate to
+ * within about 3% from 1 microsecond to several hours, in a fixed 4.5KB per histogram.
+ * Recording a value is a few arithmetic operations and one atomic increment.
+ */
+class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	//values from 2^36 microseconds (19 hours) go in the last bucket
+	private static final int MAX_EXPONENT = 36;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder totalMicros = new LongAdder();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	void record(long nanos) {
+		long micros = Math.max(nanos / 1000, 0);
+		counts.incrementAndGet(bucket(micros));
+		totalMicros.add(micros);
+
+		long max = maxMicros.get();
+		while (micros > max && !maxMicros.compareAndSet(max, micros))
+			max = maxMicros.get();
+	}
+
+	/**
+	 * @return A consistent-enough copy of the counts to calculate percentiles from
+	 */
+	Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			total += copy[i];
+		}
+		return new Snapshot(copy, total, totalMicros.sum(), maxMicros.get());
+	}
+
+	static class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long totalMicros;
+		private final long maxMicros;
+
+		private Snapshot(long[] counts, long count, long totalMicros, long maxMicros) {
+			this.counts = counts;
+			this.count = count;
+			this.totalMicros = totalMicros;
+			this.maxMicros = maxMicros;
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		double getMeanMillis() {
+			return count == 0 ? 0 : totalMicros / 1000.0 / count;
+		}
+
+		double getMaxMillis() {
+			return maxMicros / 1000.0;
+		}
+
+		/**
+		 * @param percentile Between 0 and 100, e.g. 99.9
+		 * @return The latency which that percentage of calls completed within, in milliseconds
+		 */
+		double getPercentileMillis(double percentile) {
+			if (count == 0)
+				return 0;
+
+			long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank)
+					return Math.min(midpoint(i), maxMicros) / 1000.0;
+			}
+			return getMaxMillis();
+		}
+	}
+
+	private static int bucket(long micros) {
+		if (micros < SUB_BUCKETS)
+			return (int) micros;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if (exponent > MAX_EXPONENT)
+			return BUCKETS - 1;
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) (micros >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long midpoint(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lower + ((1L << shift) >> 1);
+	}
+}
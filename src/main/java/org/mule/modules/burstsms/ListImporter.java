@@ -0,0 +1,317 @@
+package org.mule.modules.burstsms;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.modules.burstsms.BurstSMSConnector.CountryCode;
+import org.mule.modules.burstsms.BurstSMSException.ResponseCode;
+
+/**
+ * Adds a stream of members to a list, one add-to-list call per member, as a pipeline:
+ * each record is read, its number normalised and checked against the numbers already added,
+ * and it is then added by one of a bounded number of parallel calls on the shared call pool.
+ * <p>
+ * Reading waits while the maximum number of calls are in progress, so only a few records are
+ * held in memory at a time however large the input is. The exception is de-duplication, which
+ * keeps about 16 bytes for each distinct number.
+ */
+class ListImporter {
+
+	static Log logger = LogFactory.getLog(ListImporter.class);
+
+	//how often progress is logged, in records
+	private static final long PROGRESS_INTERVAL = 10000;
+
+	enum Outcome {
+		ADDED, DUPLICATE, INVALID, FAILED
+	}
+
+	/**
+	 * Receives the outcome of every record. Called concurrently from the threads making the calls.
+	 */
+	interface ResultListener {
+		/**
+		 * @param record The position of the record in the input, starting at 1
+		 * @param number The number as it was sent, or as it was read if it was not sent
+		 * @param outcome What happened to the record
+		 * @param response The add-to-list response if the record was added
+		 * @param error Why the record was not added if it failed
+		 */
+		void onResult(long record, String number, Outcome outcome, Map<?, ?> response, BurstSMSException error);
+	}
+
+	/**
+	 * Keeps the error counts and the first few failed records, to report in the import summary
+	 */
+	static class FailureCollector implements ResultListener {
+		private final int maxFailures;
+		private final Map<String, Long> errors = new TreeMap<String, Long>();
+		private final List<Map<String, Object>> failures = new ArrayList<Map<String, Object>>();
+
+		/**
+		 * @param maxFailures The most failed records to keep
+		 */
+		FailureCollector(int maxFailures) {
+			this.maxFailures = maxFailures;
+		}
+
+		@Override
+		public synchronized void onResult(long record, String number, Outcome outcome, Map<?, ?> response,
+				BurstSMSException error) {
+			if (outcome != Outcome.FAILED && outcome != Outcome.INVALID)
+				return;
+
+			String code = error == null ? Outcome.INVALID.name() : String.valueOf(error.getCode());
+			Long count = errors.get(code);
+			errors.put(code, count == null ? 1 : count + 1);
+
+			if (failures.size() < maxFailures) {
+				Map<String, Object> failure = new LinkedHashMap<String, Object>();
+				failure.put("record", record);
+				failure.put("number", number);
+				failure.put("code", code);
+				failure.put("description", error == null ? "Invalid number" : error.getMessage());
+				failures.add(failure);
+			}
+		}
+
+		/**
+		 * Add the error counts and failed records to an import summary
+		 */
+		synchronized void addTo(Map<String, Object> summary) {
+			summary.put("errors", new TreeMap<String, Long>(errors));
+			summary.put("failures", new ArrayList<Map<String, Object>>(failures));
+		}
+	}
+
+	private final BurstSMSClient client;
+	private final Executor executor;
+	private final String listId;
+	private final CountryCode countryCode;
+	private final boolean normaliseLocally;
+	private final boolean deduplicate;
+	private final int parallelism;
+
+	/**
+	 * @param client The client to make the calls with
+	 * @param executor The pool to make the calls on
+	 * @param listId The list to add the members to
+	 * @param countryCode The country of numbers in national format, or null if all are international
+	 * @param normaliseLocally Convert numbers to international format without calling the API
+	 * @param deduplicate Skip numbers which have already been added in this import
+	 * @param parallelism The most add-to-list calls made at the same time
+	 */
+	ListImporter(BurstSMSClient client, Executor executor, String listId, CountryCode countryCode,
+			boolean normaliseLocally, boolean deduplicate, int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be >= 1");
+
+		this.client = client;
+		this.executor = executor;
+		this.listId = listId;
+		this.countryCode = countryCode;
+		this.normaliseLocally = normaliseLocally;
+		this.deduplicate = deduplicate;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Import every member, returning when all have been added or have failed.
+	 * <p>
+	 * The number is read from the <code>msisdn</code> or <code>number</code> key of each member,
+	 * and the names from <code>first_name</code> and <code>last_name</code>. Every other key is
+	 * a custom field, either its number (1 to 10) or its name, optionally prefixed with
+	 * <code>field_</code> or <code>field.</code>.
+	 *
+	 * @param members The members to add
+	 * @param listener Receives the outcome of each record
+	 * @return A summary of the import: the number of records read, added, duplicate, invalid and
+	 *         failed, the elapsed time and the throughput in records per second
+	 */
+	Map<String, Object> run(Iterator<? extends Map<String, ?>> members, final ResultListener listener) {
+		final Counters counters = new Counters();
+		//the numbers added so far, which AddTasks add to once their call succeeds
+		final LongHashSet seen = deduplicate ? new LongHashSet(1024) : null;
+		long started = System.nanoTime();
+
+		BoundedExecutor adder = new BoundedExecutor(executor, parallelism);
+		long record = 0;
+		while (members.hasNext()) {
+			Map<String, ?> member = members.next();
+			record++;
+			if (record % PROGRESS_INTERVAL == 0)
+				logProgress(record, started);
+
+			String number = stringValue(member.get("msisdn"));
+			if (number == null)
+				number = stringValue(member.get("number"));
+
+			long msisdn = number != null && normaliseLocally
+					? NumberNormaliser.normalise(number, countryCode) : NumberNormaliser.UNDECIDED;
+			if (number == null || msisdn == NumberNormaliser.INVALID) {
+				counters.record(Outcome.INVALID);
+				listener.onResult(record, number, Outcome.INVALID, null, null);
+				continue;
+			}
+			if (msisdn != NumberNormaliser.UNDECIDED)
+				number = Long.toString(msisdn);
+
+			long key = dedupeKey(msisdn, number);
+			if (seen != null && isAdded(seen, key)) {
+				counters.record(Outcome.DUPLICATE);
+				listener.onResult(record, number, Outcome.DUPLICATE, null, null);
+				continue;
+			}
+
+			adder.execute(new AddTask(record, number, member, counters, listener, seen, key));
+		}
+
+		//wait for the calls still in progress
+		adder.awaitCompletion();
+		return summarise(record, counters, started);
+	}
+
+	private static boolean isAdded(LongHashSet seen, long key) {
+		synchronized (seen) {
+			return seen.contains(key);
+		}
+	}
+
+	private class AddTask implements Runnable {
+		private final long record;
+		private final String number;
+		private final Map<String, ?> member;
+		private final Counters counters;
+		private final ResultListener listener;
+		//null unless deduplicating, so a failed number can be tried again by a later record
+		private final LongHashSet seen;
+		private final long key;
+
+		AddTask(long record, String number, Map<String, ?> member, Counters counters, ResultListener listener,
+				LongHashSet seen, long key) {
+			this.record = record;
+			this.number = number;
+			this.member = member;
+			this.counters = counters;
+			this.listener = listener;
+			this.seen = seen;
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Map<?, ?> response;
+				try {
+					response = client.addToList(listId, number, stringValue(member.get("first_name")),
+							stringValue(member.get("last_name")), fields(member), countryCode);
+				} catch (BurstSMSException ex) {
+					counters.record(Outcome.FAILED);
+					listener.onResult(record, number, Outcome.FAILED, null, ex);
+					return;
+				} catch (RuntimeException ex) {
+					counters.record(Outcome.FAILED);
+					listener.onResult(record, number, Outcome.FAILED, null,
+							new BurstSMSException(ResponseCode.UNKNOWN, String.valueOf(ex.getMessage()), 0, ex));
+					return;
+				}
+				if (seen != null) {
+					synchronized (seen) {
+						seen.add(key);
+					}
+				}
+				counters.record(Outcome.ADDED);
+				listener.onResult(record, number, Outcome.ADDED, response, null);
+			} catch (RuntimeException ex) {
+				logger.warn("Result listener failed for record " + record, ex);
+			}
+		}
+	}
+
+	private static Map<String, String> fields(Map<String, ?> member) {
+		Map<String, String> fields = null;
+		for (Map.Entry<String, ?> entry: member.entrySet()) {
+			String key = entry.getKey();
+			if (key == null || key.equals("msisdn") || key.equals("number") || key.equals("first_name")
+					|| key.equals("last_name"))
+				continue;
+			if (key.startsWith("field_") || key.startsWith("field."))
+				key = key.substring(6);
+			String value = stringValue(entry.getValue());
+			if (key.isEmpty() || value == null)
+				continue;
+			if (fields == null)
+				fields = new LinkedHashMap<String, String>();
+			fields.put(key, value);
+		}
+		return fields;
+	}
+
+	/**
+	 * Decided numbers are keyed by their value, which is always positive. Other numbers are keyed
+	 * by a 64 bit hash of their digits with the sign bit set, so the two never collide.
+	 */
+	private static long dedupeKey(long msisdn, String number) {
+		if (msisdn != NumberNormaliser.UNDECIDED)
+			return msisdn;
+
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < number.length(); i++) {
+			char c = number.charAt(i);
+			if (c >= '0' && c <= '9' || c == '+') {
+				hash ^= c;
+				hash *= 0x100000001b3L;
+			}
+		}
+		return hash | Long.MIN_VALUE;
+	}
+
+	private static String stringValue(Object value) {
+		if (value == null)
+			return null;
+		String string = value.toString().trim();
+		return string.isEmpty() ? null : string;
+	}
+
+	private static void logProgress(long records, long started) {
+		logger.info("Read " + records + " records, " + Math.round(rate(records, started)) + " records/s");
+	}
+
+	private static double rate(long records, long started) {
+		long elapsed = System.nanoTime() - started;
+		return elapsed <= 0 ? 0 : records * 1e9 / elapsed;
+	}
+
+	private static Map<String, Object> summarise(long records, Counters counters, long started) {
+		Map<String, Object> summary = new LinkedHashMap<String, Object>();
+		summary.put("records", records);
+		summary.put("added", counters.get(Outcome.ADDED));
+		summary.put("duplicates", counters.get(Outcome.DUPLICATE));
+		summary.put("invalid", counters.get(Outcome.INVALID));
+		summary.put("failed", counters.get(Outcome.FAILED));
+		summary.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+		summary.put("recordsPerSecond", Math.round(rate(records, started) * 10) / 10.0);
+		logger.info("Imported " + records + " records: " + summary);
+		return summary;
+	}
+
+	private static class Counters {
+		private final long[] counts = new long[Outcome.values().length];
+
+		synchronized void record(Outcome outcome) {
+			counts[outcome.ordinal()]++;
+		}
+
+		synchronized long get(Outcome outcome) {
+			return counts[outcome.ordinal()];
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package org.mule.modules.burstsms;
+
+/**
+ * A set of <code>long</code> values stored in a single open-addressed array, using about
+ * 16 bytes per value instead of the ~60 of a <code>HashSet&lt;Long&gt;</code>. Not thread safe.
+ */
+class LongHashSet {
+
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] values;
+	private int size;
+	private boolean containsZero;
+
+	LongHashSet(int expectedSize) {
+		int capacity = 16;
+		while (capacity * LOAD_FACTOR < expectedSize)
+			capacity <<= 1;
+		values = new long[capacity];
+	}
+
+	/**
+	 * @return True if the value was added, false if it was already present
+	 */
+	boolean add(long value) {
+		if (value == 0) {
+			if (containsZero)
+				return false;
+			containsZero = true;
+			size++;
+			return true;
+		}
+
+		int mask = values.length - 1;
+		for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+			if (values[i] == value)
+				return false;
+			if (values[i] == 0) {
+				values[i] = value;
+				if (++size > values.length * LOAD_FACTOR)
+					grow();
+				return true;
+			}
+		}
+	}
+
+	boolean contains(long value) {
+		if (value == 0)
+			return containsZero;
+
+		int mask = values.length - 1;
+		for (int i = mix(value) & mask; values[i] != 0; i = (i + 1) & mask) {
+			if (values[i] == value)
+				return true;
+		}
+		return false;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void grow() {
+		long[] old = values;
+		values = new long[old.length << 1];
+		int mask = values.length - 1;
+		for (long value: old) {
+			if (value == 0)
+				continue;
+			int i = mix(value) & mask;
+			while (values[i] != 0)
+				i = (i + 1) & mask;
+			values[i] = value;
+		}
+	}
+
+	/**
+	 * Spread the bits of a value, so sequential numbers do not cluster in the array
+	 */
+	private static int mix(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,264 @@
+package org.mule.modules.burstsms;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Works out how a message will be encoded and how many SMS parts it will be sent as, without
+ * calling the API.
+ * <p>
+ * A message made only of characters in the GSM 03.38 alphabet is sent as GSM-7: 160 septets in a
+ * single part, or 153 per part once it is split, with the characters of the extension table, such
+ * as <code>{ } [ ] ~ \ | ^ €</code>, taking two septets which are never split between parts. Any
+ * other character makes the whole message UCS-2: 70 UTF-16 code units in a single part, or 67 per
+ * part, with surrogate pairs never split between parts.
+ * <p>
+ * {@link #analyse} reads the message once through lookup tables and returns its encoding, length and
+ * parts packed into a <code>long</code>, so analysing does not allocate. {@link #substitute} replaces
+ * characters such as curly quotes, dashes and accented letters outside the GSM alphabet, which often
+ * arrive from word processors and are all that make a message UCS-2, with GSM look-alikes.
+ */
+final class MessageAnalyser {
+
+	static final int GSM_SINGLE_PART = 160;
+	static final int GSM_MULTI_PART = 153;
+	static final int UCS2_SINGLE_PART = 70;
+	static final int UCS2_MULTI_PART = 67;
+
+	//the septets each character below TABLE_SIZE takes in GSM-7, or 0 if it is not in the alphabet
+	private static final int TABLE_SIZE = 0x400;
+	private static final byte[] SEPTETS = new byte[TABLE_SIZE];
+	private static final char EURO = '€';
+
+	//the layout of an analysis
+	private static final int UNITS_BITS = 31;
+	private static final int PARTS_BITS = 20;
+	private static final int LAST_PART_BITS = 8;
+	private static final long UCS2 = 1L << (UNITS_BITS + PARTS_BITS + LAST_PART_BITS);
+
+	//the characters outside the GSM alphabet which have look-alikes, sorted for binary search
+	private static final char[] SUBSTITUTED;
+	private static final String[] SUBSTITUTES;
+
+	static {
+		String basic = "@£$¥èéùìòÇ\nØø\rÅå"
+				+ "Δ_ΦΓΛΩΠΨΣΘΞÆæßÉ"
+				+ " !\"#¤%&'()*+,-./0123456789:;<=>?"
+				+ "¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§"
+				+ "¿abcdefghijklmnopqrstuvwxyzäöñüà";
+		for (int i = 0; i < basic.length(); i++)
+			SEPTETS[basic.charAt(i)] = 1;
+		String extension = "\f^{}\\[~]|";
+		for (int i = 0; i < extension.length(); i++)
+			SEPTETS[extension.charAt(i)] = 2;
+
+		String[][] substitutes = {
+			{"\t", " "}, {"`", "'"}, {"\u00A0", " "}, {"©", "(c)"}, {"«", "\""}, {"\u00AD", ""},
+			{"®", "(R)"}, {"´", "'"}, {"·", "."}, {"»", "\""},
+			{"À", "A"}, {"Á", "A"}, {"Â", "A"}, {"Ã", "A"}, {"È", "E"}, {"Ê", "E"},
+			{"Ë", "E"}, {"Ì", "I"}, {"Í", "I"}, {"Î", "I"}, {"Ï", "I"}, {"Ò", "O"},
+			{"Ó", "O"}, {"Ô", "O"}, {"Õ", "O"}, {"Ù", "U"}, {"Ú", "U"}, {"Û", "U"},
+			{"Ý", "Y"}, {"á", "a"}, {"â", "a"}, {"ã", "a"}, {"ç", "Ç"},
+			{"ê", "e"}, {"ë", "e"}, {"í", "i"}, {"î", "i"}, {"ï", "i"}, {"ó", "o"},
+			{"ô", "o"}, {"õ", "o"}, {"ú", "u"}, {"û", "u"}, {"ý", "y"}, {"ÿ", "y"},
+			{"Œ", "OE"}, {"œ", "oe"},
+			{"\u2002", " "}, {"\u2003", " "}, {"\u2009", " "}, {"\u200A", " "}, {"\u200B", ""},
+			{"‐", "-"}, {"‑", "-"}, {"‒", "-"}, {"–", "-"}, {"—", "-"}, {"―", "-"},
+			{"‘", "'"}, {"’", "'"}, {"‚", "'"}, {"‛", "'"}, {"“", "\""}, {"”", "\""},
+			{"„", "\""}, {"‟", "\""}, {"•", "-"}, {"…", "..."}, {"′", "'"},
+			{"″", "\""}, {"‹", "<"}, {"›", ">"}, {"™", "TM"}, {"−", "-"},
+			{"\uFEFF", ""}
+		};
+		Arrays.sort(substitutes, new Comparator<String[]>() {
+			@Override
+			public int compare(String[] a, String[] b) {
+				return a[0].charAt(0) - b[0].charAt(0);
+			}
+		});
+		SUBSTITUTED = new char[substitutes.length];
+		SUBSTITUTES = new String[substitutes.length];
+		for (int i = 0; i < substitutes.length; i++) {
+			SUBSTITUTED[i] = substitutes[i][0].charAt(0);
+			SUBSTITUTES[i] = substitutes[i][1];
+		}
+	}
+
+	private MessageAnalyser() {
+	}
+
+	/**
+	 * @param message The message text
+	 * @return The analysis, read with {@link #isUnicode}, {@link #units}, {@link #parts} and {@link #remaining}
+	 */
+	static long analyse(CharSequence message) {
+		int length = message.length();
+		long units = 0;
+		int parts = 1;
+		int used = 0;
+		for (int i = 0; i < length; i++) {
+			int septets = septets(message.charAt(i));
+			if (septets == 0)
+				return analyseUcs2(message);
+			units += septets;
+			if (used + septets > GSM_MULTI_PART) {
+				parts++;
+				used = 0;
+			}
+			used += septets;
+		}
+		if (units <= GSM_SINGLE_PART)
+			return pack(false, units, 1, (int) units);
+		return pack(false, units, parts, used);
+	}
+
+	/**
+	 * @return True if the message is sent as UCS-2, false if GSM-7
+	 */
+	static boolean isUnicode(long analysis) {
+		return (analysis & UCS2) != 0;
+	}
+
+	/**
+	 * @return The length of the message in septets for GSM-7, or UTF-16 code units for UCS-2
+	 */
+	static int units(long analysis) {
+		return (int) (analysis & ((1L << UNITS_BITS) - 1));
+	}
+
+	/**
+	 * @return The number of SMS parts the message is sent as
+	 */
+	static int parts(long analysis) {
+		return (int) ((analysis >>> UNITS_BITS) & ((1L << PARTS_BITS) - 1));
+	}
+
+	/**
+	 * @return The number of septets or code units which could be added to the message without it
+	 *         taking another part
+	 */
+	static int remaining(long analysis) {
+		boolean unicode = isUnicode(analysis);
+		int capacity = parts(analysis) == 1
+				? (unicode ? UCS2_SINGLE_PART : GSM_SINGLE_PART)
+				: (unicode ? UCS2_MULTI_PART : GSM_MULTI_PART);
+		int used = (int) ((analysis >>> (UNITS_BITS + PARTS_BITS)) & ((1L << LAST_PART_BITS) - 1));
+		return capacity - used;
+	}
+
+	/**
+	 * Replace the characters outside the GSM alphabet which have GSM look-alikes
+	 * @param message The message text
+	 * @return The message with the substitutes, or the message itself if it has nothing to replace,
+	 *         or if other characters would still make it UCS-2
+	 */
+	static String substitute(String message) {
+		int length = message.length();
+		int first = -1;
+		for (int i = 0; i < length; i++) {
+			char c = message.charAt(i);
+			if (septets(c) == 0) {
+				if (substituteIndex(c) < 0)
+					return message;
+				if (first < 0)
+					first = i;
+			}
+		}
+		if (first < 0)
+			return message;
+
+		StringBuilder substituted = new StringBuilder(length + 8);
+		substituted.append(message, 0, first);
+		for (int i = first; i < length; i++) {
+			char c = message.charAt(i);
+			if (septets(c) == 0)
+				substituted.append(SUBSTITUTES[substituteIndex(c)]);
+			else
+				substituted.append(c);
+		}
+		return substituted.toString();
+	}
+
+	/**
+	 * Describe the analysis of a message, and its estimated cost when sent to a number of recipients
+	 * @param message The message text
+	 * @param substitute Whether to replace characters outside the GSM alphabet with GSM look-alikes first
+	 * @param recipients The number of recipients
+	 * @param pricePerPart The price of each SMS part, or null to leave out the cost
+	 */
+	static Map<String, Object> describe(String message, boolean substitute, long recipients, BigDecimal pricePerPart) {
+		String text = substitute ? substitute(message) : message;
+		long analysis = analyse(text);
+
+		Map<String, Object> description = new LinkedHashMap<String, Object>();
+		description.put("encoding", isUnicode(analysis) ? "UCS-2" : "GSM-7");
+		description.put("characters", text.codePointCount(0, text.length()));
+		description.put("units", units(analysis));
+		description.put("parts", parts(analysis));
+		description.put("remaining", remaining(analysis));
+		if (isUnicode(analysis))
+			description.put("unicodeCharacters", unicodeCharacters(text));
+		if (substitute)
+			description.put("message", text);
+		description.put("recipients", recipients);
+		description.put("totalParts", parts(analysis) * recipients);
+		if (pricePerPart != null)
+			description.put("estimatedCost", pricePerPart.multiply(BigDecimal.valueOf(parts(analysis) * recipients)));
+		return description;
+	}
+
+	/**
+	 * @return The distinct characters outside the GSM alphabet, in the order they first occur
+	 */
+	private static Set<String> unicodeCharacters(String text) {
+		Set<String> characters = new LinkedHashSet<String>();
+		for (int i = 0; i < text.length(); ) {
+			int codePoint = text.codePointAt(i);
+			int count = Character.charCount(codePoint);
+			if (count > 1 || septets(text.charAt(i)) == 0)
+				characters.add(text.substring(i, i + count));
+			i += count;
+		}
+		return characters;
+	}
+
+	private static long analyseUcs2(CharSequence message) {
+		int length = message.length();
+		int parts = 1;
+		int used = 0;
+		for (int i = 0; i < length; i++) {
+			int units = Character.isHighSurrogate(message.charAt(i)) && i + 1 < length
+					&& Character.isLowSurrogate(message.charAt(i + 1)) ? 2 : 1;
+			if (used + units > UCS2_MULTI_PART) {
+				parts++;
+				used = 0;
+			}
+			used += units;
+			i += units - 1;
+		}
+		if (length <= UCS2_SINGLE_PART)
+			return pack(true, length, 1, length);
+		return pack(true, length, parts, used);
+	}
+
+	private static int septets(char c) {
+		if (c < TABLE_SIZE)
+			return SEPTETS[c];
+		return c == EURO ? 2 : 0;
+	}
+
+	private static int substituteIndex(char c) {
+		return Arrays.binarySearch(SUBSTITUTED, c);
+	}
+
+	private static long pack(boolean unicode, long units, int parts, int lastPart) {
+		return (unicode ? UCS2 : 0)
+				| (long) lastPart << (UNITS_BITS + PARTS_BITS)
+				| Math.min(parts, (1L << PARTS_BITS) - 1) << UNITS_BITS
+				| Math.min(units, (1L << UNITS_BITS) - 1);
+	}
+}
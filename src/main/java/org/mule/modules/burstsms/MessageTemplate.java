@@ -0,0 +1,211 @@
+package org.mule.modules.burstsms;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A message template compiled once and rendered for each list member.
+ * <p>
+ * A placeholder is a field name in square brackets, e.g. <code>[first_name]</code>, optionally
+ * with a default used when the member has no value, e.g. <code>[first_name|there]</code>. The
+ * names are those of list members: <code>msisdn</code> (or <code>number</code> or <code>mobile</code>),
+ * <code>first_name</code>, <code>last_name</code>, and custom fields by number (1 to 10), by name,
+ * or by name prefixed with <code>field_</code> or <code>field.</code>. A square bracket which does
+ * not start a placeholder, e.g. <code>[ ]</code>, is left as it is. Members read from a list have
+ * their custom fields under <code>field_1</code> to <code>field_10</code>, so named placeholders are
+ * only found once the list's field names are given to {@link #withFieldNames}.
+ * <p>
+ * Compiling splits the template into literal text and placeholders, with the keys each
+ * placeholder may be found under worked out in advance, so rendering only appends to a buffer.
+ */
+final class MessageTemplate {
+
+	private final String source;
+	//literals[i] comes before placeholder i, and the last literal after the last placeholder
+	private final String[] literals;
+	private final String[] names;
+	private final String[][] keys;
+	//null where the placeholder has no default
+	private final String[] defaults;
+
+	private MessageTemplate(String source, String[] literals, String[] names, String[][] keys, String[] defaults) {
+		this.source = source;
+		this.literals = literals;
+		this.names = names;
+		this.keys = keys;
+		this.defaults = defaults;
+	}
+
+	/**
+	 * @param template The template text
+	 * @return The compiled template
+	 */
+	static MessageTemplate compile(String template) {
+		List<String> literals = new ArrayList<String>();
+		List<String> names = new ArrayList<String>();
+		List<String[]> keys = new ArrayList<String[]>();
+		List<String> defaults = new ArrayList<String>();
+
+		StringBuilder literal = new StringBuilder();
+		int length = template.length();
+		int i = 0;
+		while (i < length) {
+			char c = template.charAt(i);
+			int end = c == '[' ? placeholderEnd(template, i) : -1;
+			if (end < 0) {
+				literal.append(c);
+				i++;
+				continue;
+			}
+
+			String placeholder = template.substring(i + 1, end);
+			int bar = placeholder.indexOf('|');
+			String name = bar < 0 ? placeholder : placeholder.substring(0, bar);
+			literals.add(literal.toString());
+			literal.setLength(0);
+			names.add(name);
+			keys.add(keysFor(name));
+			defaults.add(bar < 0 ? null : placeholder.substring(bar + 1));
+			i = end + 1;
+		}
+		literals.add(literal.toString());
+
+		return new MessageTemplate(template, literals.toArray(new String[literals.size()]),
+				names.toArray(new String[names.size()]), keys.toArray(new String[keys.size()][]), defaults.toArray(new String[defaults.size()]));
+	}
+
+	/**
+	 * @param fieldNames The names of a list's custom fields keyed by field, e.g. field_1, as returned by get-list
+	 * @return The template with each placeholder naming one of the fields also looked up under its field
+	 */
+	MessageTemplate withFieldNames(Map<?, ?> fieldNames) {
+		if (fieldNames == null || fieldNames.isEmpty() || keys.length == 0)
+			return this;
+		String[][] resolved = new String[keys.length][];
+		for (int i = 0; i < keys.length; i++) {
+			List<String> found = new ArrayList<String>();
+			String name = canonicalName(names[i]);
+			for (Map.Entry<?, ?> field: fieldNames.entrySet()) {
+				if (field.getValue() != null && canonicalName(field.getValue().toString()).equals(name))
+					found.add(field.getKey().toString());
+			}
+			for (String key: keys[i]) {
+				if (!found.contains(key))
+					found.add(key);
+			}
+			resolved[i] = found.toArray(new String[found.size()]);
+		}
+		return new MessageTemplate(source, literals, names, resolved, defaults);
+	}
+
+	/**
+	 * Check that every placeholder without a default can be filled, so a campaign is not sent with
+	 * blank personalisation
+	 * @param available The keys members have
+	 * @throws IllegalArgumentException If a placeholder has no default and none of its keys are available
+	 */
+	void checkFields(Collection<?> available) {
+		List<String> missing = new ArrayList<String>();
+		for (int i = 0; i < keys.length; i++) {
+			if (defaults[i] != null)
+				continue;
+			boolean found = false;
+			for (String key: keys[i])
+				found |= available.contains(key);
+			if (!found && !missing.contains(names[i]))
+				missing.add(names[i]);
+		}
+		if (!missing.isEmpty())
+			throw new IllegalArgumentException("The members have no field for " + missing + ", check the field "
+					+ "names or give the placeholders defaults, e.g. [" + missing.get(0) + "|default]");
+	}
+
+	/**
+	 * @return True if the template has no placeholders, so every member gets the same text
+	 */
+	boolean isConstant() {
+		return keys.length == 0;
+	}
+
+	/**
+	 * Append the message for a member to a buffer
+	 * @param member The member's fields
+	 * @param out The buffer to append to
+	 */
+	void render(Map<String, ?> member, StringBuilder out) {
+		out.append(literals[0]);
+		for (int i = 0; i < keys.length; i++) {
+			Object value = null;
+			for (String key: keys[i]) {
+				value = member.get(key);
+				if (value != null)
+					break;
+			}
+			if (value == null || value instanceof String && ((String) value).isEmpty()) {
+				if (defaults[i] != null)
+					out.append(defaults[i]);
+			}
+			else if (value instanceof CharSequence)
+				out.append((CharSequence) value);
+			else
+				out.append(value);
+			out.append(literals[i + 1]);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return source;
+	}
+
+	/**
+	 * @return The index of the bracket closing the placeholder starting at <code>start</code>, or -1
+	 *         if there is no placeholder there
+	 */
+	private static int placeholderEnd(String template, int start) {
+		int i = start + 1;
+		while (i < template.length() && isNameChar(template.charAt(i)))
+			i++;
+		if (i == start + 1 || i == template.length())
+			return -1;
+		if (template.charAt(i) == ']')
+			return i;
+		if (template.charAt(i) != '|')
+			return -1;
+		int end = template.indexOf(']', i);
+		return end < 0 ? -1 : end;
+	}
+
+	private static boolean isNameChar(char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '.' || c == '-';
+	}
+
+	/**
+	 * @return A field name as it is compared with the names of a list's fields, e.g. appointment_date
+	 *         for Appointment Date or field.appointment_date
+	 */
+	private static String canonicalName(String name) {
+		String canonical = name.trim().toLowerCase(Locale.ROOT).replace(' ', '_');
+		if (canonical.startsWith("field_") || canonical.startsWith("field."))
+			canonical = canonical.substring(6);
+		return canonical;
+	}
+
+	/**
+	 * @return The keys a field may be found under in a member, in the order they are tried
+	 */
+	private static String[] keysFor(String name) {
+		if (name.equals("msisdn") || name.equals("number") || name.equals("mobile"))
+			return new String[] {"msisdn", "number", "mobile"};
+		if (name.equals("first_name") || name.equals("last_name"))
+			return new String[] {name};
+		if (name.matches("\\d{1,2}"))
+			return new String[] {"field_" + name, "field." + name, name};
+		if (name.startsWith("field_") || name.startsWith("field."))
+			return new String[] {name, name.substring(6), "field_" + name.substring(6), "field." + name.substring(6)};
+		return new String[] {name, "field_" + name, "field." + name};
+	}
+}
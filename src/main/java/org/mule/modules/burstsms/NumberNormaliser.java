@@ -0,0 +1,288 @@
+package org.mule.modules.burstsms;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mule.modules.burstsms.BurstSMSConnector.CountryCode;
+
+/**
+ * Converts phone numbers to international MSISDN format without calling format-number.
+ * <p>
+ * Numbers may be in national format (0422 222 222), international format (+61 422 222 222 or
+ * 0061422222222) or international format without the plus (61422222222), with spaces, dashes,
+ * dots and brackets between digits. The normaliser only decides the numbers it can be sure of:
+ * mobile numbers for AU, NZ, SG and GB, and any number in the North American numbering plan for
+ * US. It returns {@link #UNDECIDED} for everything else, e.g. landlines or numbers from other
+ * countries, and those should be checked with format-number.
+ * <p>
+ * Numbers are parsed straight from the {@link CharSequence} into a <code>long</code>, so
+ * normalising does not allocate.
+ */
+final class NumberNormaliser {
+
+	/**
+	 * The number is not valid
+	 */
+	static final long INVALID = -1;
+
+	/**
+	 * The number may be valid but can only be checked by the API
+	 */
+	static final long UNDECIDED = -2;
+
+	//E.164 numbers have at most 15 digits
+	private static final int MAX_DIGITS = 15;
+
+	private NumberNormaliser() {
+	}
+
+	/**
+	 * @param number The number, in national or international format
+	 * @param countryCode The country of numbers in national format
+	 * @return The number in international format without the plus, e.g. 61422222222,
+	 *         or {@link #INVALID} or {@link #UNDECIDED}
+	 */
+	static long normalise(CharSequence number, CountryCode countryCode) {
+		if (number == null)
+			return INVALID;
+
+		long digits = 0;
+		int count = 0;
+		int leadingZeros = 0;
+		boolean plus = false;
+		for (int i = 0; i < number.length(); i++) {
+			char c = number.charAt(i);
+			if (c >= '0' && c <= '9') {
+				if (count == MAX_DIGITS + 3)
+					return INVALID;
+				if (c == '0' && digits == 0)
+					leadingZeros++;
+				digits = digits * 10 + (c - '0');
+				count++;
+			} else if (c == '+' && count == 0 && !plus) {
+				plus = true;
+			} else if (c != ' ' && c != '-' && c != '.' && c != '(' && c != ')') {
+				return INVALID;
+			}
+		}
+		if (count == 0)
+			return INVALID;
+
+		//the international prefixes 00 and, from the US, 011
+		if (plus) {
+			if (leadingZeros > 0)
+				return INVALID;
+		} else if (leadingZeros == 2) {
+			plus = true;
+			count -= 2;
+		} else if (leadingZeros > 2) {
+			return INVALID;
+		} else if (countryCode == CountryCode.US && leadingZeros == 1 && count > 3
+				&& digits / pow10(count - 3) == 11) {
+			plus = true;
+			count -= 3;
+			digits %= pow10(count);
+		}
+
+		if (plus) {
+			if (count == 0 || count > MAX_DIGITS)
+				return INVALID;
+			return international(digits, count);
+		}
+		if (countryCode == null || count > MAX_DIGITS)
+			return UNDECIDED;
+
+		//numbers already in international format without the plus
+		int callingCode = callingCode(countryCode);
+		int callingCodeDigits = callingCode < 10 ? 1 : 2;
+		if (leadingZeros == 0 && count == callingCodeDigits + nationalLength(countryCode)
+				&& digits / pow10(count - callingCodeDigits) == callingCode)
+			return international(digits, count);
+
+		return national(digits, count - leadingZeros, leadingZeros, countryCode);
+	}
+
+	/**
+	 * Normalise a list of numbers, keeping the numbers which cannot be decided unchanged
+	 * @param numbers The numbers to normalise
+	 * @param countryCode The country of numbers in national format
+	 * @param invalid Receives the numbers which are not valid
+	 * @return The valid numbers in international format, and the undecided numbers as they were given
+	 */
+	static List<String> normaliseAll(List<String> numbers, CountryCode countryCode, List<String> invalid) {
+		List<String> normalised = new ArrayList<String>(numbers.size());
+		for (String number: numbers) {
+			long msisdn = normalise(number, countryCode);
+			if (msisdn == INVALID)
+				invalid.add(number);
+			else
+				normalised.add(msisdn == UNDECIDED ? number : Long.toString(msisdn));
+		}
+		return normalised;
+	}
+
+	/**
+	 * Build a response in the shape of the format-number response for a decided number
+	 * @param msisdn The result of {@link #normalise}, either a number or {@link #INVALID}
+	 * @param countryCode The country the number was checked against
+	 */
+	static Map<String, Object> formatNumberResponse(long msisdn, CountryCode countryCode) {
+		Map<String, Object> number = new LinkedHashMap<String, Object>();
+		if (msisdn == INVALID) {
+			number.put("isValid", false);
+		} else {
+			number.put("international", Long.toString(msisdn));
+			number.put("e164", "+" + msisdn);
+			number.put("isValid", true);
+			number.put("isValidForRegion", countryCode == null || isForCountry(msisdn, countryCode));
+		}
+
+		Map<String, Object> error = new LinkedHashMap<String, Object>();
+		error.put("code", "SUCCESS");
+		error.put("description", "OK");
+
+		Map<String, Object> response = new LinkedHashMap<String, Object>();
+		response.put("number", number);
+		response.put("error", error);
+		return response;
+	}
+
+	/**
+	 * Check an international number, e.g. 61422222222
+	 */
+	private static long international(long digits, int count) {
+		for (CountryCode country: CountryCode.values()) {
+			int callingCode = callingCode(country);
+			int callingCodeDigits = callingCode < 10 ? 1 : 2;
+			if (count > callingCodeDigits && digits / pow10(count - callingCodeDigits) == callingCode) {
+				long nsn = digits % pow10(count - callingCodeDigits);
+				int nsnDigits = count - callingCodeDigits;
+				//allow a trunk prefix written after the calling code, e.g. +44 (0)7911 123456
+				if (nsn < pow10(nsnDigits - 1)) {
+					if (nsn < pow10(nsnDigits - 2) || !hasTrunkPrefix(country))
+						return INVALID;
+					nsnDigits--;
+				}
+				return validate(nsn, nsnDigits, country);
+			}
+		}
+		return UNDECIDED;
+	}
+
+	/**
+	 * Check a number in national format, e.g. 0422222222
+	 */
+	private static long national(long digits, int count, int leadingZeros, CountryCode country) {
+		//the trunk prefix is an optional 0, except in the US where it is 1
+		if (count == 0 || leadingZeros > (hasTrunkPrefix(country) ? 1 : 0))
+			return INVALID;
+		if (country == CountryCode.US && count == 11 && digits / pow10(10) == 1) {
+			digits %= pow10(10);
+			count = 10;
+		}
+		return validate(digits, count, country);
+	}
+
+	/**
+	 * Check a national significant number, i.e. without the trunk prefix
+	 */
+	private static long validate(long nsn, int count, CountryCode country) {
+		int first = (int) (nsn / pow10(count - 1));
+		int second = count > 1 ? (int) (nsn / pow10(count - 2) % 10) : -1;
+		switch (country) {
+		case AU:
+			//mobiles are 4xx xxx xxx
+			if (first != 4)
+				return UNDECIDED;
+			return count == 9 ? join(61, nsn, count) : INVALID;
+		case NZ:
+			//mobiles are 2x followed by 6 to 8 digits
+			if (first != 2)
+				return UNDECIDED;
+			return count >= 8 && count <= 10 ? join(64, nsn, count) : INVALID;
+		case SG:
+			//mobiles are 8xxx xxxx or 9xxx xxxx
+			if (first != 8 && first != 9)
+				return UNDECIDED;
+			return count == 8 ? join(65, nsn, count) : INVALID;
+		case GB:
+			//mobiles are 7xxx xxxxxx, other than 70 (personal numbers) and 76 (pagers)
+			if (first != 7 || second == 0 || second == 6)
+				return UNDECIDED;
+			return count == 10 ? join(44, nsn, count) : INVALID;
+		case US:
+			//NXX NXX XXXX, where the area code is not N11 (e.g. 911)
+			if (count != 10 || first < 2)
+				return INVALID;
+			long exchange = nsn / 10000 % 1000;
+			if (exchange < 200 || (second == 1 && nsn / pow10(7) % 10 == 1))
+				return INVALID;
+			return join(1, nsn, count);
+		default:
+			return UNDECIDED;
+		}
+	}
+
+	private static boolean isForCountry(long msisdn, CountryCode country) {
+		int callingCode = callingCode(country);
+		int callingCodeDigits = callingCode < 10 ? 1 : 2;
+		return msisdn / pow10(digitCount(msisdn) - callingCodeDigits) == callingCode;
+	}
+
+	private static boolean hasTrunkPrefix(CountryCode country) {
+		return country == CountryCode.AU || country == CountryCode.NZ || country == CountryCode.GB;
+	}
+
+	private static int callingCode(CountryCode country) {
+		switch (country) {
+		case AU:
+			return 61;
+		case NZ:
+			return 64;
+		case SG:
+			return 65;
+		case GB:
+			return 44;
+		default:
+			return 1;
+		}
+	}
+
+	/**
+	 * @return The length of a mobile number without the trunk prefix
+	 */
+	private static int nationalLength(CountryCode country) {
+		switch (country) {
+		case AU:
+			return 9;
+		case NZ:
+			return 9;
+		case SG:
+			return 8;
+		default:
+			return 10;
+		}
+	}
+
+	private static long join(int callingCode, long nsn, int count) {
+		return callingCode * pow10(count) + nsn;
+	}
+
+	private static int digitCount(long value) {
+		int count = 1;
+		while (value >= 10) {
+			value /= 10;
+			count++;
+		}
+		return count;
+	}
+
+	private static long pow10(int exponent) {
+		long value = 1;
+		for (int i = 0; i < exponent; i++)
+			value *= 10;
+		return value;
+	}
+}
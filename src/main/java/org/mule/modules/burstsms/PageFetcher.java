@@ -0,0 +1,168 @@
+package org.mule.modules.burstsms;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.mule.modules.burstsms.BurstSMSException.ResponseCode;
+
+/**
+ * Walks through the pages of a paginated API call one page at a time.
+ * <p>
+ * As each page is returned the request for the following page is started in the background,
+ * so fetching the next page overlaps with the consumer processing the current one. At most
+ * two pages are held in memory however many results there are in total.
+ */
+class PageFetcher {
+
+	/**
+	 * Invokes one page of a paginated API call
+	 */
+	interface PageSource {
+		Map<?, ?> fetch(int page, int max) throws BurstSMSException;
+	}
+
+	private final PageSource source;
+	private final String itemsKey;
+	private final int pageSize;
+	private final Executor executor;
+
+	private int nextPage = 1;
+	private boolean exhausted;
+	private long total = -1;
+	private Map<?, ?> first;
+	private FutureTask<Map<?, ?>> prefetched;
+
+	/**
+	 * @param source The paginated call
+	 * @param itemsKey The key of the results array in each response, e.g. recipients
+	 * @param pageSize The number of results to request per page
+	 * @param executor Runs the background request for the next page
+	 */
+	PageFetcher(PageSource source, String itemsKey, int pageSize, Executor executor) {
+		if (pageSize < 1)
+			throw new IllegalArgumentException("pageSize must be >= 1");
+
+		this.source = source;
+		this.itemsKey = itemsKey;
+		this.pageSize = pageSize;
+		this.executor = executor;
+	}
+
+	/**
+	 * @return The results on the next page, or an empty list once all pages have been read
+	 * @throws BurstSMSException If the API call for the page fails
+	 */
+	synchronized List<Map<String, Object>> nextPage() throws BurstSMSException {
+		if (exhausted)
+			return Collections.emptyList();
+
+		Map<?, ?> response;
+		try {
+			response = prefetched != null ? await(prefetched) : source.fetch(nextPage, pageSize);
+		} catch (BurstSMSException ex) {
+			exhausted = true;
+			throw ex;
+		} finally {
+			prefetched = null;
+		}
+
+		List<Map<String, Object>> items = items(response);
+		if (first == null) {
+			//without the results, so they are not held once the caller is done with them
+			Map<Object, Object> fields = new LinkedHashMap<Object, Object>(response);
+			fields.remove(itemsKey);
+			first = fields;
+		}
+		if (response.get("total") instanceof Number)
+			total = ((Number) response.get("total")).longValue();
+
+		if (hasMore(response, items)) {
+			nextPage++;
+			prefetch(nextPage);
+		} else {
+			exhausted = true;
+		}
+		return items;
+	}
+
+	/**
+	 * @return The total number of results, or -1 if not yet known
+	 */
+	synchronized long getTotal() {
+		return total;
+	}
+
+	/**
+	 * @param key A key of the responses other than the results, e.g. fields for get-list
+	 * @return Its value in the first page read, or null if no page has been read
+	 */
+	synchronized Object getResponseField(String key) {
+		return first == null ? null : first.get(key);
+	}
+
+	/**
+	 * Stop reading pages, abandoning any page being fetched in the background
+	 */
+	synchronized void close() {
+		exhausted = true;
+		if (prefetched != null) {
+			prefetched.cancel(true);
+			prefetched = null;
+		}
+	}
+
+	private void prefetch(final int page) {
+		FutureTask<Map<?, ?>> task = new FutureTask<Map<?, ?>>(new Callable<Map<?, ?>>() {
+			@Override
+			public Map<?, ?> call() throws BurstSMSException {
+				return source.fetch(page, pageSize);
+			}
+		});
+		try {
+			executor.execute(task);
+			prefetched = task;
+		} catch (RejectedExecutionException ex) {
+			//the executor is saturated, the page will be fetched when it is asked for instead
+			prefetched = null;
+		}
+	}
+
+	private boolean hasMore(Map<?, ?> response, List<Map<String, Object>> items) {
+		Object page = response.get("page");
+		if (page instanceof Map) {
+			Object number = ((Map<?, ?>) page).get("number");
+			Object count = ((Map<?, ?>) page).get("count");
+			if (number instanceof Number && count instanceof Number)
+				return ((Number) number).intValue() < ((Number) count).intValue();
+		}
+		return items.size() >= pageSize;
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Map<String, Object>> items(Map<?, ?> response) {
+		Object items = response.get(itemsKey);
+		return items instanceof List ? (List<Map<String, Object>>) items : Collections.<Map<String, Object>>emptyList();
+	}
+
+	private static Map<?, ?> await(FutureTask<Map<?, ?>> task) throws BurstSMSException {
+		try {
+			return task.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new BurstSMSException(ResponseCode.UNKNOWN, "Interrupted waiting for the next page", 0, ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof BurstSMSException)
+				throw (BurstSMSException) ex.getCause();
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			throw new BurstSMSException(ResponseCode.UNKNOWN, String.valueOf(ex.getCause()), 0, ex.getCause());
+		}
+	}
+}
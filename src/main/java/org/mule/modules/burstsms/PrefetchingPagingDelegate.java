@@ -0,0 +1,35 @@
+package org.mule.modules.burstsms;
+
+import java.util.List;
+import java.util.Map;
+
+import org.mule.api.MuleException;
+import org.mule.streaming.ProviderAwarePagingDelegate;
+
+/**
+ * Adapts a {@link PageFetcher} to DevKit's auto-paging, so a paged processor streams
+ * every result of a paginated call into the flow without the flow looping over pages.
+ */
+class PrefetchingPagingDelegate extends ProviderAwarePagingDelegate<Map<String, Object>, BurstSMSConnector> {
+
+	private final PageFetcher fetcher;
+
+	PrefetchingPagingDelegate(PageFetcher fetcher) {
+		this.fetcher = fetcher;
+	}
+
+	@Override
+	public List<Map<String, Object>> getPage(BurstSMSConnector connector) throws Exception {
+		return fetcher.nextPage();
+	}
+
+	@Override
+	public int getTotalResults(BurstSMSConnector connector) throws Exception {
+		return (int) Math.min(fetcher.getTotal(), Integer.MAX_VALUE);
+	}
+
+	@Override
+	public void close() throws MuleException {
+		fetcher.close();
+	}
+}
@@ -0,0 +1,166 @@
+package org.mule.modules.burstsms;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Builds a request URI with a URL-encoded query string, e.g. 
+ * <code>https://api.transmitsms.com/send-sms.json?message=Hi%20guys&amp;to=61491570156,61491570157</code>,
+ * by encoding each parameter straight into a single buffer.
+ * <p>
+ * Each thread reuses one buffer, so building a request allocates little beyond the final
+ * string. A builder must be {@link #release() released} once its string has been taken;
+ * builders acquired while the thread's buffer is in use get a buffer of their own.
+ */
+final class QueryBuilder {
+
+	private static final int INITIAL_CAPACITY = 512;
+	//larger buffers, e.g. from a 10,000 recipient send, are left to the garbage collector
+	private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+	//the longest number in a recipient list is 15 digits, plus a comma
+	private static final int LIST_ITEM_CAPACITY = 16;
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private static final ThreadLocal<QueryBuilder> CACHED = new ThreadLocal<QueryBuilder>();
+
+	private final StringBuilder buffer;
+	private boolean inUse;
+	private int start;
+	private char separator;
+
+	private QueryBuilder(int capacity) {
+		this.buffer = new StringBuilder(capacity);
+	}
+
+	/**
+	 * @return A builder for a query string without a URI, e.g. for a form body
+	 */
+	static QueryBuilder acquire() {
+		return acquire(null, null);
+	}
+
+	/**
+	 * @param base The URI of the API, e.g. https://api.transmitsms.com
+	 * @param path The path of the call, e.g. send-sms.json
+	 * @return A builder for the URI of the call, reusing this thread's buffer if it is free
+	 */
+	static QueryBuilder acquire(String base, String path) {
+		QueryBuilder builder = CACHED.get();
+		if (builder == null) {
+			builder = new QueryBuilder(INITIAL_CAPACITY);
+			CACHED.set(builder);
+		} else if (builder.inUse) {
+			builder = new QueryBuilder(INITIAL_CAPACITY);
+		}
+		builder.inUse = true;
+		builder.buffer.setLength(0);
+		builder.separator = 0;
+		if (base != null) {
+			builder.buffer.append(base);
+			if (!base.endsWith("/"))
+				builder.buffer.append('/');
+			builder.buffer.append(path);
+			builder.separator = '?';
+		}
+		builder.start = builder.buffer.length();
+		return builder;
+	}
+
+	/**
+	 * Return the buffer to the thread for reuse. The builder must not be used afterwards.
+	 */
+	void release() {
+		inUse = false;
+		if (buffer.capacity() > MAX_RETAINED_CAPACITY && CACHED.get() == this)
+			CACHED.remove();
+	}
+
+	QueryBuilder add(String name, Object value) {
+		startParam(name);
+		encode(value instanceof CharSequence ? (CharSequence) value : value.toString());
+		return this;
+	}
+
+	/**
+	 * Add a parameter whose value is a comma separated list, e.g. the recipients of a message
+	 */
+	QueryBuilder addAll(String name, List<?> values) {
+		buffer.ensureCapacity(buffer.length() + name.length() + 2 + values.size() * LIST_ITEM_CAPACITY);
+		startParam(name);
+		for (int i = 0, size = values.size(); i < size; i++) {
+			if (i > 0)
+				buffer.append(',');
+			Object value = values.get(i);
+			encode(value instanceof CharSequence ? (CharSequence) value : String.valueOf(value));
+		}
+		return this;
+	}
+
+	int length() {
+		return buffer.length();
+	}
+
+	/**
+	 * Write the encoded string, which is always ASCII, without copying it into a string first
+	 */
+	void writeTo(OutputStream out) throws IOException {
+		byte[] chunk = new byte[Math.min(Math.max(buffer.length(), 1), 8192)];
+		for (int offset = 0; offset < buffer.length(); ) {
+			int count = Math.min(chunk.length, buffer.length() - offset);
+			for (int i = 0; i < count; i++)
+				chunk[i] = (byte) buffer.charAt(offset + i);
+			out.write(chunk, 0, count);
+			offset += count;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return buffer.toString();
+	}
+
+	private void startParam(String name) {
+		if (buffer.length() > start)
+			buffer.append('&');
+		else if (separator != 0)
+			buffer.append(separator);
+		encode(name);
+		buffer.append('=');
+	}
+
+	/**
+	 * Percent-encode the UTF-8 bytes of every character other than the unreserved characters of RFC 3986
+	 */
+	private void encode(CharSequence value) {
+		for (int i = 0, length = value.length(); i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+					|| c == '-' || c == '.' || c == '_' || c == '~') {
+				buffer.append(c);
+			} else if (c < 0x80) {
+				appendByte(c);
+			} else if (c < 0x800) {
+				appendByte(0xC0 | c >> 6);
+				appendByte(0x80 | c & 0x3F);
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				appendByte(0xF0 | codePoint >> 18);
+				appendByte(0x80 | codePoint >> 12 & 0x3F);
+				appendByte(0x80 | codePoint >> 6 & 0x3F);
+				appendByte(0x80 | codePoint & 0x3F);
+			} else if (Character.isSurrogate(c)) {
+				//an unpaired surrogate is not valid UTF-16, so send a replacement character as String.getBytes would
+				appendByte('?');
+			} else {
+				appendByte(0xE0 | c >> 12);
+				appendByte(0x80 | c >> 6 & 0x3F);
+				appendByte(0x80 | c & 0x3F);
+			}
+		}
+	}
+
+	private void appendByte(int b) {
+		buffer.append('%').append(HEX[b >> 4 & 0xF]).append(HEX[b & 0xF]);
+	}
+}
@@ -0,0 +1,167 @@
+package org.mule.modules.burstsms;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.modules.burstsms.BurstSMSException.ResponseCode;
+
+/**
+ * Client-side token bucket limiter with a separate budget for each group of API endpoints.
+ * <p>
+ * Each bucket starts at its configured rate. When the API reports that the limit has been
+ * exceeded (OVER_LIMIT or HTTP 429) the rate is halved, and it then climbs back towards the
+ * configured rate as calls succeed (additive increase, multiplicative decrease). Sustained
+ * throughput therefore settles just below the provider's limit instead of alternating
+ * between bursts and storms of errors.
+ */
+class RateLimiter {
+
+	static Log logger = LogFactory.getLog(RateLimiter.class);
+
+	/**
+	 * Groups of endpoints which share a budget
+	 */
+	enum EndpointGroup {
+		SEND, LIST, OTHER;
+
+		static EndpointGroup forPath(String path) {
+			if (path.startsWith("send-sms"))
+				return SEND;
+			if (path.contains("list"))
+				return LIST;
+			return OTHER;
+		}
+	}
+
+	private final Map<EndpointGroup, Bucket> buckets = new EnumMap<EndpointGroup, Bucket>(EndpointGroup.class);
+
+	/**
+	 * @param sendRate Requests per second for send-sms, or 0 for no limit
+	 * @param listRate Requests per second for the list calls, or 0 for no limit
+	 * @param defaultRate Requests per second for all other calls, or 0 for no limit
+	 */
+	RateLimiter(int sendRate, int listRate, int defaultRate) {
+		if (sendRate > 0)
+			buckets.put(EndpointGroup.SEND, new Bucket(sendRate));
+		if (listRate > 0)
+			buckets.put(EndpointGroup.LIST, new Bucket(listRate));
+		if (defaultRate > 0)
+			buckets.put(EndpointGroup.OTHER, new Bucket(defaultRate));
+	}
+
+	/**
+	 * Wait until the budget for the path allows another call
+	 * @throws BurstSMSException If interrupted while waiting
+	 */
+	void acquire(String path) throws BurstSMSException {
+		Bucket bucket = buckets.get(EndpointGroup.forPath(path));
+		if (bucket == null)
+			return;
+
+		long waitNanos = bucket.reserve();
+		if (waitNanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new BurstSMSException(ResponseCode.UNKNOWN, "Interrupted waiting for the rate limit", 0, ex);
+			}
+		}
+	}
+
+	/**
+	 * Record that a call completed without being throttled
+	 */
+	void onSuccess(String path) {
+		Bucket bucket = buckets.get(EndpointGroup.forPath(path));
+		if (bucket != null)
+			bucket.increase();
+	}
+
+	/**
+	 * Record that the API rejected a call for exceeding its limit
+	 */
+	void onThrottled(String path) {
+		Bucket bucket = buckets.get(EndpointGroup.forPath(path));
+		if (bucket != null && bucket.decrease())
+			logger.warn("API limit exceeded, " + EndpointGroup.forPath(path) + " rate reduced to "
+					+ bucket.getRate() + "/s");
+	}
+
+	static boolean isThrottled(BurstSMSException ex) {
+		return ex.getCode() == ResponseCode.OVER_LIMIT || ex.getHttpStatus() == 429;
+	}
+
+	/**
+	 * @return The current rate of each limited group, in requests per second
+	 */
+	Map<EndpointGroup, Double> getRates() {
+		Map<EndpointGroup, Double> rates = new EnumMap<EndpointGroup, Double>(EndpointGroup.class);
+		for (Map.Entry<EndpointGroup, Bucket> entry: buckets.entrySet())
+			rates.put(entry.getKey(), entry.getValue().getRate());
+		return rates;
+	}
+
+	//** helper classes **//
+
+	private static class Bucket {
+		private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+		private static final double INCREASE_FRACTION_PER_SECOND = 0.05;
+
+		private final double maxRate;
+		private final double minRate;
+		private double rate;
+		private double tokens;
+		private long lastRefill = System.nanoTime();
+		private long lastDecrease = System.nanoTime() - DECREASE_COOLDOWN_NANOS;
+
+		Bucket(double maxRate) {
+			this.maxRate = maxRate;
+			this.minRate = Math.max(maxRate / 64, 0.1);
+			this.rate = maxRate;
+			this.tokens = Math.max(maxRate, 1);
+		}
+
+		/**
+		 * Take a token, borrowing against future refills if none are left
+		 * @return How long the caller must wait before its token is available, in nanoseconds
+		 */
+		synchronized long reserve() {
+			refill();
+			tokens -= 1;
+			return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+		}
+
+		synchronized void increase() {
+			//a success arrives roughly every 1/rate seconds, so this adds a fixed fraction of the limit per second
+			rate = Math.min(maxRate, rate + maxRate * INCREASE_FRACTION_PER_SECOND / rate);
+		}
+
+		/**
+		 * @return False if the rate was already reduced within the cooldown, e.g. by a concurrent call
+		 */
+		synchronized boolean decrease() {
+			long now = System.nanoTime();
+			if (now - lastDecrease < DECREASE_COOLDOWN_NANOS)
+				return false;
+			lastDecrease = now;
+			refill();
+			rate = Math.max(minRate, rate / 2);
+			tokens = Math.min(tokens, 0);
+			return true;
+		}
+
+		synchronized double getRate() {
+			return rate;
+		}
+
+		private void refill() {
+			long now = System.nanoTime();
+			tokens = Math.min(Math.max(rate, 1), tokens + (now - lastRefill) / 1e9 * rate);
+			lastRefill = now;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package org.mule.modules.burstsms;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded in-memory cache of responses from read-mostly API calls.
+ * <p>
+ * Entries expire after a time to live which can be set for each operation, and when the cache
+ * is full the least recently used entry is evicted. Calls which change the data behind a cached
+ * operation, e.g. lease-number for get-number, remove the affected entries as soon as they succeed.
+ */
+class ResponseCache {
+
+	/**
+	 * The cacheable operations, with the time to live in seconds of those which do not use the default
+	 */
+	private static final Map<String, Integer> DEFAULT_TTLS = new HashMap<String, Integer>();
+
+	/**
+	 * The cached operations invalidated by each operation which changes data
+	 */
+	private static final Map<String, List<String>> INVALIDATES = new HashMap<String, List<String>>();
+
+	static {
+		DEFAULT_TTLS.put("get-number", null);
+		DEFAULT_TTLS.put("get-numbers", null);
+		DEFAULT_TTLS.put("get-keywords", null);
+		DEFAULT_TTLS.put("get-lists", null);
+		DEFAULT_TTLS.put("get-client", null);
+		DEFAULT_TTLS.put("get-balance", 30);
+		DEFAULT_TTLS.put("format-number", 86400);
+
+		INVALIDATES.put("lease-number", Arrays.asList("get-number", "get-numbers", "get-balance"));
+		INVALIDATES.put("add-keyword", Arrays.asList("get-keywords"));
+		INVALIDATES.put("edit-keyword", Arrays.asList("get-keywords"));
+		INVALIDATES.put("add-list", Arrays.asList("get-lists"));
+		INVALIDATES.put("remove-list", Arrays.asList("get-lists"));
+		INVALIDATES.put("add-client", Arrays.asList("get-client"));
+		INVALIDATES.put("edit-client", Arrays.asList("get-client"));
+		INVALIDATES.put("send-sms", Arrays.asList("get-balance"));
+	}
+
+	private final boolean enabled;
+	private final Map<String, Long> ttls = new HashMap<String, Long>();
+	private final LinkedHashMap<String, CachedResponse> entries;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param enabled False to cache nothing
+	 * @param maxEntries The most responses held before the least recently used is evicted
+	 * @param defaultTtl The time to live, in seconds, for operations with no built-in or configured value
+	 * @param ttlOverrides Times to live in seconds keyed by operation, e.g. get-balance, which take
+	 *                     precedence over the built-in values
+	 */
+	ResponseCache(boolean enabled, final int maxEntries, int defaultTtl, Map<String, Integer> ttlOverrides) {
+		this.enabled = enabled;
+		for (Map.Entry<String, Integer> ttl: DEFAULT_TTLS.entrySet()) {
+			int seconds = ttl.getValue() != null ? ttl.getValue() : defaultTtl;
+			ttls.put(ttl.getKey(), TimeUnit.SECONDS.toNanos(seconds));
+		}
+		if (ttlOverrides != null) {
+			for (Map.Entry<String, Integer> ttl: ttlOverrides.entrySet()) {
+				if (DEFAULT_TTLS.containsKey(ttl.getKey()) && ttl.getValue() != null)
+					ttls.put(ttl.getKey(), TimeUnit.SECONDS.toNanos(ttl.getValue()));
+			}
+		}
+
+		this.entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+				if (size() > maxEntries) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @param path The API path, e.g. get-number.json
+	 * @return True if responses from the path are cached
+	 */
+	boolean isCacheable(String path) {
+		if (!enabled)
+			return false;
+		Long ttl = ttls.get(operation(path));
+		return ttl != null && ttl > 0;
+	}
+
+	/**
+	 * @param key The path and canonical parameters of the call
+	 * @return The cached response, or null if there is none or it has expired
+	 */
+	synchronized Map<?, ?> get(String key) {
+		CachedResponse entry = entries.get(key);
+		if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+			hits++;
+			return entry.response;
+		}
+		if (entry != null)
+			entries.remove(key);
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Cache a response, returning the read-only view which was stored. The maps and lists nested
+	 * in the response are replaced by read-only views of themselves, so the response must not be
+	 * held anywhere else.
+	 */
+	synchronized Map<?, ?> put(String path, String key, Map<?, ?> response) {
+		Map<?, ?> readOnly = readOnly(response);
+		entries.put(key, new CachedResponse(readOnly, System.nanoTime() + ttls.get(operation(path))));
+		return readOnly;
+	}
+
+	/**
+	 * Remove the entries made stale by a successful call to the path
+	 */
+	void invalidateFor(String path) {
+		if (!enabled)
+			return;
+		List<String> stale = INVALIDATES.get(operation(path));
+		if (stale == null)
+			return;
+
+		synchronized (this) {
+			for (Iterator<String> keys = entries.keySet().iterator(); keys.hasNext(); ) {
+				if (stale.contains(operation(keys.next())))
+					keys.remove();
+			}
+		}
+	}
+
+	synchronized Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("enabled", enabled);
+		statistics.put("size", entries.size());
+		statistics.put("hits", hits);
+		statistics.put("misses", misses);
+		statistics.put("evictions", evictions);
+		return statistics;
+	}
+
+	/**
+	 * @return A read-only view of a parsed JSON value, with its nested maps and lists made read-only in place
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T readOnly(T value) {
+		if (value instanceof Map) {
+			for (Map.Entry<Object, Object> entry: ((Map<Object, Object>) value).entrySet())
+				entry.setValue(readOnly(entry.getValue()));
+			return (T) Collections.unmodifiableMap((Map<?, ?>) value);
+		}
+		if (value instanceof List) {
+			List<Object> list = (List<Object>) value;
+			for (ListIterator<Object> elements = list.listIterator(); elements.hasNext(); )
+				elements.set(readOnly(elements.next()));
+			return (T) Collections.unmodifiableList(list);
+		}
+		return value;
+	}
+
+	/**
+	 * @return The operation name of a path or cache key, e.g. get-number for get-number.json?number=1
+	 */
+	private static String operation(String path) {
+		int end = path.indexOf('.');
+		return end < 0 ? path : path.substring(0, end);
+	}
+
+	private static class CachedResponse {
+		final Map<?, ?> response;
+		final long expiresAt;
+
+		CachedResponse(Map<?, ?> response, long expiresAt) {
+			this.response = response;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
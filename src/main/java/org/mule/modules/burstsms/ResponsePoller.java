@@ -0,0 +1,274 @@
+package org.mule.modules.burstsms;
+
+import java.io.Serializable;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.api.callback.SourceCallback;
+import org.mule.api.store.ObjectStore;
+import org.mule.api.store.ObjectStoreException;
+import org.mule.modules.burstsms.BurstSMSConnector.OnlyOmitBoth;
+
+/**
+ * Polls get-user-sms-responses for the responses received since the last poll.
+ * <p>
+ * Each poll asks for the responses received from the watermark onwards, where the watermark is
+ * the time of the latest response already seen, less an optional overlap for responses the API
+ * makes visible late. The ids of the responses from the watermark onwards are kept with it, so
+ * those seen by the previous poll are not passed to the flow again, and a poll only reads the
+ * new responses and those in the overlap. The watermark is saved in an object store after every
+ * poll, so polling resumes where it left off when the application restarts. Each watermark is
+ * stored under one of two keys before the previous one is removed, so a crash while saving leaves
+ * at least one of them.
+ * <p>
+ * The watermark is only advanced once every batch of a poll has been processed. If the flow fails,
+ * the next poll passes the same responses again, so each response is delivered at least once.
+ */
+class ResponsePoller {
+
+	static Log logger = LogFactory.getLog(ResponsePoller.class);
+
+	/**
+	 * The state saved between polls
+	 */
+	static class Watermark implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		//the start of the next poll, yyyy-MM-dd HH:mm:ss
+		final String start;
+		//the ids of the responses received at or after start
+		final long[] seen;
+		//counts the saves, so the later of two stored watermarks can be told apart
+		final long generation;
+
+		Watermark(String start, long[] seen, long generation) {
+			this.start = start;
+			this.seen = seen;
+			this.generation = generation;
+		}
+
+		@Override
+		public String toString() {
+			return start + " (" + seen.length + " seen)";
+		}
+	}
+
+	private final BurstSMSClient client;
+	private final ObjectStore<Watermark> store;
+	private final String key;
+	private final String since;
+	private final int overlapSeconds;
+	private final OnlyOmitBoth keywords;
+	private final Boolean includeOriginal;
+	private final int pageSize;
+	private final Executor executor;
+	private final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+	private Watermark watermark;
+	//the key the watermark is stored under, or null if it has not been stored
+	private String storedKey;
+
+	/**
+	 * @param client The client to make the calls with
+	 * @param store Where the watermark is saved between polls
+	 * @param key The key of the watermark in the store
+	 * @param since The time to start from if there is no saved watermark, or null to start from now
+	 * @param overlapSeconds How far before the latest response each poll starts
+	 * @param keywords Filter if keyword responses should be included
+	 * @param includeOriginal Include the text of the original message
+	 * @param pageSize The number of responses to request per page, and the largest batch
+	 * @param executor Reads the next page in the background
+	 */
+	ResponsePoller(BurstSMSClient client, ObjectStore<Watermark> store, String key, String since,
+			int overlapSeconds, OnlyOmitBoth keywords, Boolean includeOriginal, int pageSize, Executor executor) {
+		if (overlapSeconds < 0)
+			throw new IllegalArgumentException("overlap must be >= 0");
+
+		this.client = client;
+		this.store = store;
+		this.key = key;
+		this.since = since;
+		this.overlapSeconds = overlapSeconds;
+		this.keywords = keywords;
+		this.includeOriginal = includeOriginal;
+		this.pageSize = pageSize;
+		this.executor = executor;
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	/**
+	 * Poll every <code>intervalMillis</code> until the thread is interrupted. A poll which fails
+	 * is logged and tried again at the next interval.
+	 * @param callback The flow to pass each batch to, as a list of response maps
+	 * @param intervalMillis The time between the end of one poll and the start of the next
+	 */
+	void run(SourceCallback callback, long intervalMillis) {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					poll(callback);
+				} catch (BurstSMSException ex) {
+					logger.warn("Failed to poll for SMS responses: " + ex.getMessage());
+				} catch (ObjectStoreException ex) {
+					logger.error("Failed to save the SMS response watermark " + key, ex);
+				} catch (RuntimeException ex) {
+					//e.g. a network failure which outlasted the retries, which is when polling matters most
+					logger.warn("Failed to poll for SMS responses", ex);
+				}
+				Thread.sleep(intervalMillis);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Pass the responses received since the last poll to the flow, a page at a time
+	 * @return The number of responses passed to the flow
+	 */
+	int poll(SourceCallback callback) throws BurstSMSException, ObjectStoreException {
+		Watermark current = load();
+		long start = parse(current.start, 0);
+		LongHashSet previous = new LongHashSet(current.seen.length);
+		for (long id: current.seen)
+			previous.add(id);
+		//responses can appear twice in one poll if new ones arrive between pages
+		LongHashSet seen = new LongHashSet(current.seen.length + pageSize);
+
+		//the id and time of every response in the window, to work out the next watermark
+		long[] ids = new long[Math.max(current.seen.length, 16)];
+		long[] times = new long[ids.length];
+		int count = 0;
+		long latest = start;
+		int emitted = 0;
+
+		PageFetcher pages = client.getUserSMSResponsesPages(current.start, null, keywords, includeOriginal,
+				pageSize, executor);
+		try {
+			for (List<Map<String, Object>> page = pages.nextPage(); !page.isEmpty(); page = pages.nextPage()) {
+				List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>(page.size());
+				for (Map<String, Object> response: page) {
+					long time = parse(response.get("received_at"), start);
+					Long id = id(response.get("id"));
+					if (id != null) {
+						if (!seen.add(id))
+							continue;
+						if (count == ids.length) {
+							ids = Arrays.copyOf(ids, count * 2);
+							times = Arrays.copyOf(times, count * 2);
+						}
+						ids[count] = id;
+						times[count] = time;
+						count++;
+					}
+					latest = Math.max(latest, time);
+					if (id == null || !previous.contains(id))
+						batch.add(response);
+				}
+
+				if (!batch.isEmpty()) {
+					try {
+						callback.process(batch);
+					} catch (Exception ex) {
+						//keep the watermark, so the next poll passes these responses again
+						logger.error("Failed to process " + batch.size() + " SMS responses", ex);
+						return emitted;
+					}
+					emitted += batch.size();
+				}
+			}
+		} finally {
+			pages.close();
+		}
+
+		long next = Math.max(start, latest - TimeUnit.SECONDS.toMillis(overlapSeconds));
+		long[] nextSeen = new long[count];
+		int nextCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (times[i] >= next)
+				nextSeen[nextCount++] = ids[i];
+		}
+		save(new Watermark(format.format(new Date(next)), Arrays.copyOf(nextSeen, nextCount), current.generation + 1));
+
+		if (emitted > 0)
+			logger.debug("Received " + emitted + " SMS responses, watermark is now " + watermark);
+		return emitted;
+	}
+
+	private Watermark load() throws ObjectStoreException {
+		if (watermark == null) {
+			//both keys are only present if saving was interrupted, when the later one is used
+			Watermark first = store.contains(key) ? store.retrieve(key) : null;
+			Watermark second = store.contains(alternateKey()) ? store.retrieve(alternateKey()) : null;
+			if (first != null || second != null) {
+				boolean useSecond = first == null || second != null && second.generation > first.generation;
+				watermark = useSecond ? second : first;
+				storedKey = useSecond ? alternateKey() : key;
+				logger.info("Resuming polling for SMS responses from " + watermark);
+			} else {
+				String start = since != null ? since
+						: format.format(new Date(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(overlapSeconds)));
+				watermark = new Watermark(start, new long[0], 0);
+				logger.info("Polling for SMS responses from " + start);
+			}
+		}
+		return watermark;
+	}
+
+	/**
+	 * Store the watermark under the key not holding the current one, and only then remove the current one
+	 */
+	private void save(Watermark next) throws ObjectStoreException {
+		if (next.start.equals(watermark.start) && Arrays.equals(next.seen, watermark.seen))
+			return;
+		String nextKey = key.equals(storedKey) ? alternateKey() : key;
+		//an older watermark left there by an interrupted save
+		if (store.contains(nextKey))
+			store.remove(nextKey);
+		store.store(nextKey, next);
+		if (storedKey != null && store.contains(storedKey))
+			store.remove(storedKey);
+		storedKey = nextKey;
+		watermark = next;
+	}
+
+	private String alternateKey() {
+		return key + "#1";
+	}
+
+	/**
+	 * @return The time in milliseconds, or <code>fallback</code> if it is missing or not in the expected format
+	 */
+	private long parse(Object time, long fallback) {
+		if (time == null)
+			return fallback;
+		try {
+			return format.parse(time.toString()).getTime();
+		} catch (ParseException ex) {
+			return fallback;
+		}
+	}
+
+	private static Long id(Object id) {
+		if (id instanceof Number)
+			return ((Number) id).longValue();
+		if (id != null) {
+			try {
+				return Long.valueOf(id.toString());
+			} catch (NumberFormatException ex) {
+				//responses without a numeric id cannot be de-duplicated
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,121 @@
+package org.mule.modules.burstsms;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mule.modules.burstsms.BurstSMSException.ResponseCode;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+
+/**
+ * Decides whether a failed API call may be attempted again, and how long to wait first.
+ * <p>
+ * Read calls (get-* and format-number) are retried on any transient failure: I/O errors
+ * such as socket timeouts, 5xx responses and rate limiting. Calls which change state,
+ * send-sms in particular, are only retried when the failure shows the API cannot have acted
+ * on the request, i.e. the connection was never established or the call was rejected with
+ * OVER_LIMIT or HTTP 429. Repeating a call that may have been processed would risk sending
+ * the same message twice.
+ * <p>
+ * Delays grow exponentially from the base delay up to the maximum, and a random part of each
+ * delay (the jitter) spreads out retries from concurrent callers.
+ */
+class RetryPolicy {
+
+	private final int maxAttempts;
+	private final long baseDelay;
+	private final long maxDelay;
+	private final double jitter;
+	private final ConcurrentMap<String, AtomicLong> retries = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * @param maxAttempts The most times a call is attempted, including the first; 1 disables retries
+	 * @param baseDelay The delay before the first retry, in milliseconds
+	 * @param maxDelay The longest delay between attempts, in milliseconds
+	 * @param jitter The fraction, between 0 and 1, of each delay which is randomised
+	 */
+	RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, double jitter) {
+		this.maxAttempts = Math.max(maxAttempts, 1);
+		this.baseDelay = Math.max(baseDelay, 0);
+		this.maxDelay = Math.max(maxDelay, this.baseDelay);
+		this.jitter = Math.min(Math.max(jitter, 0), 1);
+	}
+
+	/**
+	 * @param path The API path of the call, e.g. send-sms.json
+	 * @param attempt The number of attempts made so far
+	 * @param failure Why the last attempt failed
+	 * @return True if the call should be attempted again
+	 */
+	boolean shouldRetry(String path, int attempt, Exception failure) {
+		if (attempt >= maxAttempts)
+			return false;
+		return isReadOnly(path) ? isTransient(failure) : isNotProcessed(failure);
+	}
+
+	/**
+	 * @return The time to wait before the next attempt, in milliseconds
+	 */
+	long delay(int attempt) {
+		long delay = baseDelay << Math.min(attempt - 1, 30);
+		if (delay <= 0 || delay > maxDelay)
+			delay = maxDelay;
+		return delay - (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+	}
+
+	void recordRetry(String path) {
+		AtomicLong count = retries.get(path);
+		if (count == null) {
+			AtomicLong created = new AtomicLong();
+			count = retries.putIfAbsent(path, created);
+			if (count == null)
+				count = created;
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * @return The number of retries made for each API path
+	 */
+	Map<String, Long> getRetryCounts() {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry: retries.entrySet())
+			counts.put(entry.getKey(), entry.getValue().get());
+		return counts;
+	}
+
+	static boolean isReadOnly(String path) {
+		return path.startsWith("get-") || path.startsWith("format-number");
+	}
+
+	private static boolean isTransient(Exception failure) {
+		if (failure instanceof BurstSMSException) {
+			BurstSMSException ex = (BurstSMSException) failure;
+			if (ex.getCode() == ResponseCode.CIRCUIT_OPEN)
+				return false;
+			return RateLimiter.isThrottled(ex) || ex.getHttpStatus() >= 500;
+		}
+		return failure instanceof ClientHandlerException && failure.getCause() instanceof IOException;
+	}
+
+	/**
+	 * @return True if the failure shows the API did not process the call, so it is safe to make again
+	 */
+	static boolean isNotProcessed(Exception failure) {
+		if (failure instanceof BurstSMSException) {
+			BurstSMSException ex = (BurstSMSException) failure;
+			return ex.getCode() == ResponseCode.OVER_LIMIT || ex.getHttpStatus() == 429;
+		}
+		Throwable cause = failure.getCause();
+		return failure instanceof ClientHandlerException && (cause instanceof ConnectException
+				|| cause instanceof UnknownHostException || cause instanceof NoRouteToHostException);
+	}
+}
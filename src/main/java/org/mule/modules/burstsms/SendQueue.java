@@ -0,0 +1,370 @@
+package org.mule.modules.burstsms;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.api.callback.SourceCallback;
+import org.mule.modules.burstsms.BurstSMSConnector.CountryCode;
+import org.mule.modules.burstsms.BurstSMSException.ResponseCode;
+import org.mule.modules.burstsms.model.SendSmsResult;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+
+/**
+ * A durable queue of send-sms calls, written to a {@link WriteAheadLog} before they are accepted
+ * and sent in the background.
+ * <p>
+ * {@link #enqueue} returns as soon as the call is in the log, so producers are never held back by
+ * the API. Sender threads take calls in the order they were queued, send them, and acknowledge
+ * each in the log with the message id it was sent as, or the error it failed with. When the
+ * queue is opened again after a restart or crash, the calls which were not acknowledged are sent
+ * before any new ones.
+ * <p>
+ * A call which the API did not process, e.g. because of a rate limit, an open circuit or a refused
+ * connection, is kept and sent again after a delay. Any other failure is acknowledged as failed, as
+ * the message may have been sent. A call which was sent but not yet acknowledged when the process
+ * stopped, or which was interrupted by the queue closing, is sent again when the queue is reopened,
+ * so each queued call is sent at least once.
+ */
+class SendQueue {
+
+	static Log logger = LogFactory.getLog(SendQueue.class);
+
+	private static final byte SENT = 1;
+	private static final byte FAILED = 2;
+
+	//the delay before a call which was not processed is sent again
+	private static final long MIN_RETRY_DELAY = 1000;
+	private static final long MAX_RETRY_DELAY = 60000;
+	//the most results held for the flow, after which further results are dropped
+	private static final int MAX_RESULTS = 10000;
+
+	private final BurstSMSClient client;
+	private final WriteAheadLog log;
+	private final BlockingDeque<WriteAheadLog.Entry> pending = new LinkedBlockingDeque<WriteAheadLog.Entry>();
+	private final BlockingQueue<Map<String, Object>> results = new ArrayBlockingQueue<Map<String, Object>>(MAX_RESULTS);
+	private final ExecutorService senders;
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong droppedResults = new AtomicLong();
+	private volatile long retryDelay = 0;
+
+	/**
+	 * Open the queue and start sending, beginning with any calls recovered from the log
+	 * @param client The client to send with
+	 * @param directory Where the log is kept. Only one queue may use a directory at a time.
+	 * @param segmentSize The size of each log file in bytes
+	 * @param force Flush every call to the device before accepting it
+	 * @param senderThreads The number of calls sent at the same time
+	 * @throws IOException If the log cannot be opened
+	 */
+	SendQueue(BurstSMSClient client, File directory, int segmentSize, boolean force, int senderThreads)
+			throws IOException {
+		if (senderThreads < 1)
+			throw new IllegalArgumentException("senderThreads must be >= 1");
+
+		this.client = client;
+		this.log = new WriteAheadLog(directory, segmentSize, force);
+		this.pending.addAll(log.getRecovered());
+		this.senders = Executors.newFixedThreadPool(senderThreads,
+				HttpTransport.daemonThreadFactory("burst-sms-send-queue"));
+		for (int i = 0; i < senderThreads; i++) {
+			senders.execute(new Runnable() {
+				@Override
+				public void run() {
+					send();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Queue a send-sms call, with the same parameters as {@link BurstSMSClient#sendSMS}
+	 * @return The sequence number of the call, once it has been written to the log
+	 * @throws IOException If the call cannot be written to the log
+	 */
+	long enqueue(String message, List<String> to, String from, String sendAt, Long listId, String dlrCallback,
+			String replyCallback, Long validity, String repliesToEmail, Boolean fromShared, CountryCode countryCode)
+					throws IOException {
+		byte[] payload = encode(message, to, from, sendAt, listId, dlrCallback, replyCallback, validity,
+				repliesToEmail, fromShared, countryCode);
+		WriteAheadLog.Entry entry = log.append(payload);
+		pending.add(entry);
+		return entry.sequence;
+	}
+
+	/**
+	 * Pass the result of each call to the flow until the thread is interrupted
+	 * @param callback The flow to pass each result to, as a map
+	 */
+	void dispatch(SourceCallback callback) {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Map<String, Object> result = results.take();
+				try {
+					callback.process(result);
+				} catch (Exception ex) {
+					logger.error("Failed to process the result of queued call " + result.get("sequence"), ex);
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>(log.getStatistics());
+		statistics.put("queued", pending.size());
+		statistics.put("sent", sent.get());
+		statistics.put("failed", failed.get());
+		statistics.put("droppedResults", droppedResults.get());
+		return statistics;
+	}
+
+	/**
+	 * Stop sending. Calls not yet acknowledged stay in the log and are sent when it is next opened.
+	 */
+	void close() {
+		senders.shutdownNow();
+		try {
+			senders.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		log.close();
+	}
+
+	private void send() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				WriteAheadLog.Entry entry = pending.take();
+				long delay = retryDelay;
+				if (delay > 0)
+					Thread.sleep(delay);
+				try {
+					sendEntry(entry);
+				} catch (IOException ex) {
+					//the call stays unacknowledged in the log, so it is sent again when the queue is reopened
+					logger.error("Failed to acknowledge queued call " + entry.sequence, ex);
+				} catch (RuntimeException ex) {
+					//stopping interrupts the call, which stays unacknowledged so it is sent when the queue is reopened
+					if (!Thread.currentThread().isInterrupted())
+						failUnexpectedly(entry, ex);
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void sendEntry(WriteAheadLog.Entry entry) throws IOException {
+		ByteBuffer payload = ByteBuffer.wrap(log.read(entry));
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("sequence", entry.sequence);
+		String message, from, sendAt, dlrCallback, replyCallback, repliesToEmail;
+		List<String> to;
+		Long listId, validity;
+		Boolean fromShared;
+		CountryCode countryCode;
+		try {
+			message = readString(payload);
+			to = readList(payload);
+			from = readString(payload);
+			sendAt = readString(payload);
+			listId = readLong(payload);
+			dlrCallback = readString(payload);
+			replyCallback = readString(payload);
+			validity = readLong(payload);
+			repliesToEmail = readString(payload);
+			fromShared = readBoolean(payload);
+			String country = readString(payload);
+			countryCode = country == null ? null : CountryCode.valueOf(country);
+		} catch (RuntimeException ex) {
+			//a BufferUnderflowException or an unknown country, neither of which sending again would fix
+			fail(entry, result, "CORRUPT", "The queued call could not be read: " + ex);
+			offer(result);
+			return;
+		}
+
+		try {
+			SendSmsResult response = client.sendSMSResult(message, to, from, sendAt, listId, dlrCallback,
+					replyCallback, validity, repliesToEmail, fromShared, countryCode);
+			retryDelay = 0;
+			log.acknowledge(entry, acknowledgement(SENT, String.valueOf(response.getMessageId())));
+			sent.incrementAndGet();
+			result.put("sent", true);
+			result.put("messageId", response.getMessageId());
+			result.put("recipients", response.getRecipients());
+			result.put("cost", response.getCost());
+			result.put("fails", response.getFails());
+		} catch (BurstSMSException ex) {
+			//stopping interrupts the call, which stays unacknowledged so it is sent when the queue is reopened
+			if (Thread.currentThread().isInterrupted())
+				return;
+			if (RetryPolicy.isNotProcessed(ex) || ex.getCode() == ResponseCode.CIRCUIT_OPEN) {
+				requeue(entry, ex);
+				return;
+			}
+			fail(entry, result, String.valueOf(ex.getCode()), ex.getMessage());
+		} catch (ClientHandlerException ex) {
+			if (Thread.currentThread().isInterrupted())
+				return;
+			if (RetryPolicy.isNotProcessed(ex)) {
+				requeue(entry, ex);
+				return;
+			}
+			fail(entry, result, "UNKNOWN", ex.getMessage());
+		}
+		offer(result);
+	}
+
+	/**
+	 * Fail a call which failed in a way the sender does not expect, as it may have been made, and
+	 * sending it again could send the message twice
+	 */
+	private void failUnexpectedly(WriteAheadLog.Entry entry, RuntimeException failure) {
+		logger.error("Failed to send queued call " + entry.sequence, failure);
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("sequence", entry.sequence);
+		try {
+			fail(entry, result, "UNKNOWN", String.valueOf(failure));
+			offer(result);
+		} catch (Exception ex) {
+			//the call stays unacknowledged in the log, so it is sent again when the queue is reopened
+			logger.error("Failed to acknowledge queued call " + entry.sequence, ex);
+		}
+	}
+
+	private void offer(Map<String, Object> result) {
+		if (!results.offer(result))
+			droppedResults.incrementAndGet();
+	}
+
+	private void requeue(WriteAheadLog.Entry entry, Exception failure) {
+		long delay = Math.min(Math.max(retryDelay * 2, MIN_RETRY_DELAY), MAX_RETRY_DELAY);
+		retryDelay = delay;
+		logger.warn("Queued call " + entry.sequence + " was not processed (" + failure.getMessage()
+				+ "), sending again in " + delay + "ms");
+		pending.addFirst(entry);
+	}
+
+	private void fail(WriteAheadLog.Entry entry, Map<String, Object> result, String code, String description)
+			throws IOException {
+		log.acknowledge(entry, acknowledgement(FAILED, code));
+		failed.incrementAndGet();
+		result.put("sent", false);
+		result.put("code", code);
+		result.put("description", description);
+	}
+
+	private static byte[] acknowledgement(byte status, String detail) {
+		byte[] bytes = detail.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(1 + bytes.length);
+		buffer.put(status).put(bytes);
+		return buffer.array();
+	}
+
+	private static byte[] encode(String message, List<String> to, String from, String sendAt, Long listId,
+			String dlrCallback, String replyCallback, Long validity, String repliesToEmail, Boolean fromShared,
+			CountryCode countryCode) {
+		List<byte[]> strings = new ArrayList<byte[]>();
+		int size = 0;
+		for (String string: new String[] { message, from, sendAt, dlrCallback, replyCallback, repliesToEmail }) {
+			byte[] bytes = string == null ? null : string.getBytes(StandardCharsets.UTF_8);
+			strings.add(bytes);
+			size += 4 + (bytes == null ? 0 : bytes.length);
+		}
+		List<byte[]> numbers = new ArrayList<byte[]>(to == null ? 0 : to.size());
+		if (to != null) {
+			for (String number: to) {
+				byte[] bytes = number.getBytes(StandardCharsets.UTF_8);
+				numbers.add(bytes);
+				size += 4 + bytes.length;
+			}
+		}
+		byte[] country = countryCode == null ? null : countryCode.name().getBytes(StandardCharsets.UTF_8);
+		//the list size, listId, validity, fromShared and countryCode
+		size += 4 + 9 + 9 + 1 + 4 + (country == null ? 0 : country.length);
+
+		//in the order of the send-sms parameters
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		writeBytes(buffer, strings.get(0));
+		if (to == null) {
+			buffer.putInt(-1);
+		} else {
+			buffer.putInt(numbers.size());
+			for (byte[] number: numbers)
+				writeBytes(buffer, number);
+		}
+		writeBytes(buffer, strings.get(1));
+		writeBytes(buffer, strings.get(2));
+		writeLong(buffer, listId);
+		writeBytes(buffer, strings.get(3));
+		writeBytes(buffer, strings.get(4));
+		writeLong(buffer, validity);
+		writeBytes(buffer, strings.get(5));
+		buffer.put(fromShared == null ? -1 : fromShared ? (byte) 1 : 0);
+		writeBytes(buffer, country);
+		return buffer.array();
+	}
+
+	private static void writeBytes(ByteBuffer buffer, byte[] bytes) {
+		if (bytes == null) {
+			buffer.putInt(-1);
+		} else {
+			buffer.putInt(bytes.length);
+			buffer.put(bytes);
+		}
+	}
+
+	private static void writeLong(ByteBuffer buffer, Long value) {
+		buffer.put(value == null ? (byte) 0 : 1);
+		buffer.putLong(value == null ? 0 : value);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0)
+			return null;
+		String string = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return string;
+	}
+
+	private static List<String> readList(ByteBuffer buffer) {
+		int size = buffer.getInt();
+		if (size < 0)
+			return null;
+		List<String> list = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++)
+			list.add(readString(buffer));
+		return list;
+	}
+
+	private static Long readLong(ByteBuffer buffer) {
+		boolean present = buffer.get() != 0;
+		long value = buffer.getLong();
+		return present ? value : null;
+	}
+
+	private static Boolean readBoolean(ByteBuffer buffer) {
+		byte value = buffer.get();
+		return value < 0 ? null : value != 0;
+	}
+}
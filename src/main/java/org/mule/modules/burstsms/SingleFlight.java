@@ -0,0 +1,173 @@
+package org.mule.modules.burstsms;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mule.modules.burstsms.BurstSMSException.ResponseCode;
+
+/**
+ * Shares one in-flight call between concurrent identical read calls.
+ * <p>
+ * The first caller for a key makes the call, and callers arriving while it is in flight wait for
+ * it and receive its response, or the exception it failed with, instead of making their own.
+ * Nothing is kept once the call completes, so a caller arriving after that makes a new call.
+ * Each waiting caller receives its own copy of a snapshot taken before the first caller gets the
+ * response, so callers can change their responses independently as they could before.
+ */
+class SingleFlight {
+
+	/**
+	 * Makes the shared call
+	 */
+	interface Call {
+		Map<?, ?> call() throws BurstSMSException;
+	}
+
+	private final boolean enabled;
+	private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong shared = new AtomicLong();
+
+	/**
+	 * @param enabled False to make every call
+	 */
+	SingleFlight(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @param path The API path, e.g. get-number.json
+	 * @return True if concurrent calls to the path are shared, which is the case for every
+	 *         call which only reads
+	 */
+	boolean isShared(String path) {
+		return enabled && (path.startsWith("get-") || path.startsWith("format-number"));
+	}
+
+	/**
+	 * @param key The path and canonical parameters of the call
+	 * @param call Makes the call if none with the same key is in flight
+	 * @param copy False if the response is read-only, so it can be given to every caller as it is
+	 * @return The response
+	 * @throws BurstSMSException If the shared call fails, or the thread is interrupted while waiting for it
+	 */
+	Map<?, ?> execute(String key, Call call, boolean copy) throws BurstSMSException {
+		Flight flight = new Flight();
+		Flight inFlight;
+		while ((inFlight = flights.putIfAbsent(key, flight)) != null) {
+			//a flight which finished before it could be joined may already be changed by its caller
+			if (inFlight.join()) {
+				shared.incrementAndGet();
+				Map<?, ?> response = inFlight.await(key);
+				return copy ? copyMap(response) : response;
+			}
+			flights.remove(key, inFlight);
+		}
+
+		calls.incrementAndGet();
+		try {
+			Map<?, ?> response = call.call();
+			flight.response = response;
+			return response;
+		} catch (BurstSMSException ex) {
+			flight.failure = ex;
+			throw ex;
+		} catch (RuntimeException ex) {
+			flight.failure = ex;
+			throw ex;
+		} catch (Error ex) {
+			flight.failure = ex;
+			throw ex;
+		} finally {
+			flights.remove(key, flight);
+			flight.finish(copy);
+		}
+	}
+
+	Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("enabled", enabled);
+		statistics.put("inFlight", flights.size());
+		statistics.put("calls", calls.get());
+		statistics.put("shared", shared.get());
+		return statistics;
+	}
+
+	private static class Flight {
+		final CountDownLatch done = new CountDownLatch(1);
+		//written before done is counted down, and read after it has been
+		Map<?, ?> response;
+		Throwable failure;
+		//guarded by this
+		private int waiters;
+		private boolean finished;
+
+		/**
+		 * @return False if the flight has already finished, so its response cannot be shared
+		 */
+		synchronized boolean join() {
+			if (finished)
+				return false;
+			waiters++;
+			return true;
+		}
+
+		/**
+		 * Release the waiters, giving them a snapshot of the response if it is to be copied, as the
+		 * first caller may change the response as soon as this returns
+		 */
+		void finish(boolean copy) {
+			synchronized (this) {
+				finished = true;
+				if (copy && waiters > 0 && response != null)
+					response = copyMap(response);
+			}
+			done.countDown();
+		}
+
+		Map<?, ?> await(String key) throws BurstSMSException {
+			try {
+				done.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new BurstSMSException(ResponseCode.UNKNOWN, "Interrupted waiting for " + key, 0, ex);
+			}
+			if (failure instanceof BurstSMSException)
+				throw (BurstSMSException) failure;
+			if (failure instanceof RuntimeException)
+				throw (RuntimeException) failure;
+			if (failure instanceof Error)
+				throw (Error) failure;
+			return response;
+		}
+	}
+
+	/**
+	 * Copy the maps and lists of a parsed JSON response, sharing the immutable values
+	 */
+	private static Map<Object, Object> copyMap(Map<?, ?> map) {
+		Map<Object, Object> copy = new LinkedHashMap<Object, Object>(Math.max(map.size() * 4 / 3 + 1, 16));
+		for (Map.Entry<?, ?> entry: map.entrySet())
+			copy.put(entry.getKey(), copyValue(entry.getValue()));
+		return copy;
+	}
+
+	private static Object copyValue(Object value) {
+		if (value instanceof Map)
+			return copyMap((Map<?, ?>) value);
+		if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			List<Object> copy = new ArrayList<Object>(list.size());
+			for (Object element: list)
+				copy.add(copyValue(element));
+			return copy;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,449 @@
+package org.mule.modules.burstsms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.modules.burstsms.BurstSMSConnector.CountryCode;
+import org.mule.modules.burstsms.BurstSMSException.ResponseCode;
+
+/**
+ * Sends a personalised message to a stream of list members, rendering a {@link MessageTemplate}
+ * for each member and sending every group of members whose messages are identical with a single
+ * send-sms call.
+ * <p>
+ * Each message is rendered into one reused buffer and looked up in a table of the distinct
+ * messages by its content, so a <code>String</code> is only made for a message the first time it
+ * is seen. A group is sent as soon as it has <code>chunkSize</code> recipients. The others are
+ * held until the members have all been read, or until <code>maxGroups</code> distinct messages
+ * are held, when every group is sent and the table starts again, so memory is bounded however
+ * many members there are. Sends are made by a bounded number of parallel calls on the shared call
+ * pool as in {@link ListImporter}, and reading waits while they are all busy.
+ * <p>
+ * A sender is used for one campaign.
+ */
+class TemplateSender {
+
+	static Log logger = LogFactory.getLog(TemplateSender.class);
+
+	//how often progress is logged, in members
+	private static final long PROGRESS_INTERVAL = 100000;
+	//the most errors kept for the summary
+	private static final int MAX_ERRORS = 100;
+
+	private final BurstSMSClient client;
+	private final Executor executor;
+	private MessageTemplate template;
+	private final String from;
+	private final String sendAt;
+	private final String dlrCallback;
+	private final String replyCallback;
+	private final Long validity;
+	private final String repliesToEmail;
+	private final Boolean fromShared;
+	private final CountryCode countryCode;
+	private final boolean normaliseLocally;
+	private final int chunkSize;
+	private final int parallelism;
+	private final int maxGroups;
+
+	private final StringBuilder buffer = new StringBuilder(256);
+	private final TextGroups groups;
+	private final Results results = new Results();
+	//the custom fields of the list being sent to, e.g. field_1
+	private Collection<?> listFields = Collections.emptySet();
+	private BoundedExecutor sender;
+	private long members;
+	private long invalid;
+
+	/**
+	 * @param client The client to make the calls with
+	 * @param executor The pool to make the calls on
+	 * @param template The message for each member
+	 * @param countryCode The country of numbers in national format, or null if all are international
+	 * @param normaliseLocally Convert numbers to international format without calling the API
+	 * @param chunkSize The most recipients sent in one call
+	 * @param parallelism The most send-sms calls made at the same time
+	 * @param maxGroups The most distinct messages held before they are sent
+	 */
+	TemplateSender(BurstSMSClient client, Executor executor, MessageTemplate template, String from, String sendAt,
+			String dlrCallback, String replyCallback, Long validity, String repliesToEmail, Boolean fromShared,
+			CountryCode countryCode, boolean normaliseLocally, int chunkSize, int parallelism, int maxGroups) {
+		if (chunkSize < 1 || chunkSize > BurstSMSConnector.MAX_RECIPIENTS_PER_REQUEST)
+			throw new IllegalArgumentException("chunkSize must be >= 1 and <= "
+					+ BurstSMSConnector.MAX_RECIPIENTS_PER_REQUEST);
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be >= 1");
+		if (maxGroups < 1)
+			throw new IllegalArgumentException("maxGroups must be >= 1");
+
+		this.client = client;
+		this.executor = executor;
+		this.template = template;
+		this.from = from;
+		this.sendAt = sendAt;
+		this.dlrCallback = dlrCallback;
+		this.replyCallback = replyCallback;
+		this.validity = validity;
+		this.repliesToEmail = repliesToEmail;
+		this.fromShared = fromShared;
+		this.countryCode = countryCode;
+		this.normaliseLocally = normaliseLocally;
+		this.chunkSize = chunkSize;
+		this.parallelism = parallelism;
+		this.maxGroups = maxGroups;
+		this.groups = new TextGroups(Math.min(maxGroups, 1024));
+	}
+
+	/**
+	 * Send to every member, returning when every call has completed or failed.
+	 * <p>
+	 * The number is read from the <code>msisdn</code>, <code>number</code> or <code>mobile</code>
+	 * key of each member, and the fields from the keys described by {@link MessageTemplate}.
+	 * @param members The members to send to
+	 * @return A summary of the campaign. If the members cannot be read, e.g. from a malformed CSV
+	 *         file, the members already read are sent and the error is reported in the summary.
+	 * @throws IllegalArgumentException If a placeholder without a default is not a field of the first
+	 *         member, in which case nothing is sent
+	 * @throws RuntimeException If the first member cannot be read
+	 */
+	Map<String, Object> send(Iterator<? extends Map<String, ?>> members) {
+		long started = start();
+		try {
+			while (members.hasNext())
+				add(members.next(), started);
+		} catch (RuntimeException ex) {
+			//nothing has been sent, so the call fails
+			if (this.members == 0)
+				throw ex;
+			readFailed("the members", ResponseCode.UNKNOWN, ex);
+		}
+		flush();
+		return finish(started);
+	}
+
+	/**
+	 * Send to every member of a list, as it is read a page at a time. Placeholders naming the list's
+	 * custom fields are filled from the <code>field_N</code> the list gives each name.
+	 * @param pages The pages of members
+	 * @return A summary of the campaign. If a page cannot be read the members already read are
+	 *         sent and the error is reported in the summary.
+	 * @throws IllegalArgumentException If a placeholder without a default is not a field of the
+	 *         list, in which case nothing is sent
+	 */
+	Map<String, Object> send(PageFetcher pages) {
+		long started = start();
+		try {
+			List<Map<String, Object>> page = pages.nextPage();
+			Object fields = pages.getResponseField("fields");
+			if (fields instanceof Map) {
+				template = template.withFieldNames((Map<?, ?>) fields);
+				listFields = ((Map<?, ?>) fields).keySet();
+			}
+			for (; !page.isEmpty(); page = pages.nextPage()) {
+				for (Map<String, Object> member: page)
+					add(member, started);
+			}
+		} catch (BurstSMSException ex) {
+			readFailed("the list", ex.getCode(), ex);
+		} catch (RuntimeException ex) {
+			if (members == 0)
+				throw ex;
+			readFailed("the list", ResponseCode.UNKNOWN, ex);
+		} finally {
+			pages.close();
+		}
+		flush();
+		return finish(started);
+	}
+
+	private long start() {
+		if (sender != null)
+			throw new IllegalStateException("A TemplateSender can only be used once");
+		sender = new BoundedExecutor(executor, parallelism);
+		return System.nanoTime();
+	}
+
+	private void readFailed(String source, ResponseCode code, Exception ex) {
+		logger.error("Failed to read " + source + " after " + members + " members, sending to those already read", ex);
+		//e.g. the IOException CsvMemberReader wraps
+		String message = ex.getCause() != null && ex.getCause().getMessage() != null
+				? ex.getMessage() + ": " + ex.getCause().getMessage() : String.valueOf(ex.getMessage());
+		results.failed(-1, code, "Reading " + source + " failed: " + message);
+	}
+
+	private void add(Map<String, ?> member, long started) {
+		if (members == 0) {
+			Set<Object> keys = new HashSet<Object>(member.keySet());
+			keys.addAll(listFields);
+			template.checkFields(keys);
+		}
+		members++;
+		if (members % PROGRESS_INTERVAL == 0)
+			logger.info("Rendered " + members + " messages in " + elapsedMillis(started) + " ms, "
+					+ results.calls() + " calls made");
+
+		String number = stringValue(member.get("msisdn"));
+		if (number == null)
+			number = stringValue(member.get("number"));
+		if (number == null)
+			number = stringValue(member.get("mobile"));
+		if (number != null && normaliseLocally && countryCode != null) {
+			long msisdn = NumberNormaliser.normalise(number, countryCode);
+			if (msisdn == NumberNormaliser.INVALID) {
+				results.invalid(number);
+				invalid++;
+				return;
+			}
+			if (msisdn != NumberNormaliser.UNDECIDED)
+				number = Long.toString(msisdn);
+		}
+		if (number == null) {
+			invalid++;
+			return;
+		}
+
+		buffer.setLength(0);
+		template.render(member, buffer);
+		if (groups.size() >= maxGroups && groups.find(buffer) == null)
+			flush();
+		Group group = groups.get(buffer);
+		group.recipients.add(number);
+		if (group.recipients.size() >= chunkSize) {
+			submit(group.text, group.recipients);
+			group.recipients = new ArrayList<String>();
+		}
+	}
+
+	/**
+	 * Send every group held and start the table again
+	 */
+	private void flush() {
+		for (Group group: groups.groups()) {
+			if (!group.recipients.isEmpty())
+				submit(group.text, group.recipients);
+		}
+		groups.clear();
+	}
+
+	private void submit(final String message, final List<String> to) {
+		sender.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					results.sent(to.size(), client.sendSMS(message, to, from, sendAt, null, dlrCallback,
+							replyCallback, validity, repliesToEmail, fromShared, countryCode));
+				} catch (BurstSMSException ex) {
+					results.failed(to.size(), ex.getCode(), ex.getMessage());
+				} catch (RuntimeException ex) {
+					results.failed(to.size(), ResponseCode.UNKNOWN, String.valueOf(ex.getMessage()));
+				}
+			}
+		});
+	}
+
+	private Map<String, Object> finish(long started) {
+		//wait for the calls still in progress
+		sender.awaitCompletion();
+
+		Map<String, Object> summary = new LinkedHashMap<String, Object>();
+		summary.put("members", members);
+		summary.put("invalid", invalid);
+		results.addTo(summary);
+		summary.put("elapsedMillis", elapsedMillis(started));
+		logger.info("Sent template to " + members + " members: " + summary.get("calls") + " calls, "
+				+ summary.get("failedCalls") + " failed");
+		return summary;
+	}
+
+	private static long elapsedMillis(long started) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+	}
+
+	private static String stringValue(Object value) {
+		if (value == null)
+			return null;
+		String string = value.toString().trim();
+		return string.isEmpty() ? null : string;
+	}
+
+	/**
+	 * The merged responses of the send-sms calls, in the shape of the send-bulk-sms result
+	 */
+	private static class Results {
+		private final List<Object> messageIds = new ArrayList<Object>();
+		private final List<Object> fails = new ArrayList<Object>();
+		private final List<Map<String, Object>> errors = new ArrayList<Map<String, Object>>();
+		private long calls;
+		private long failedCalls;
+		private long recipients;
+		private long failedRecipients;
+		private long sms;
+		private double cost;
+
+		synchronized void sent(int to, Map<?, ?> response) {
+			calls++;
+			if (response.get("message_id") != null)
+				messageIds.add(response.get("message_id"));
+			if (response.get("fails") instanceof List)
+				fails.addAll((List<?>) response.get("fails"));
+			recipients += BulkSMSSender.longValue(response.get("recipients"));
+			sms += BulkSMSSender.longValue(response.get("sms"));
+			cost += BulkSMSSender.doubleValue(response.get("cost"));
+		}
+
+		/**
+		 * @param to The number of recipients of the failed call, or -1 if it was not a send-sms call
+		 */
+		synchronized void failed(int to, ResponseCode code, String description) {
+			if (to >= 0) {
+				calls++;
+				failedCalls++;
+				failedRecipients += to;
+			}
+			if (errors.size() < MAX_ERRORS) {
+				Map<String, Object> error = new LinkedHashMap<String, Object>();
+				if (to >= 0)
+					error.put("recipients", to);
+				error.put("code", code != null ? code.name() : null);
+				error.put("description", description);
+				errors.add(error);
+			}
+		}
+
+		synchronized void invalid(String number) {
+			fails.add(number);
+		}
+
+		synchronized long calls() {
+			return calls;
+		}
+
+		synchronized void addTo(Map<String, Object> summary) {
+			summary.put("message_ids", messageIds);
+			summary.put("calls", calls);
+			summary.put("failedCalls", failedCalls);
+			summary.put("recipients", recipients);
+			summary.put("failedRecipients", failedRecipients);
+			summary.put("sms", sms);
+			summary.put("cost", cost);
+			summary.put("fails", fails);
+			summary.put("errors", errors);
+		}
+	}
+
+	private static class Group {
+		final String text;
+		final int hash;
+		List<String> recipients = new ArrayList<String>();
+
+		Group(String text, int hash) {
+			this.text = text;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * The groups held, keyed by the content of their message, so a rendered buffer can be looked up
+	 * without making a <code>String</code> of it
+	 */
+	private static class TextGroups {
+		private Group[] table;
+		private int size;
+
+		TextGroups(int expected) {
+			int capacity = 16;
+			while (capacity < expected * 2)
+				capacity <<= 1;
+			table = new Group[capacity];
+		}
+
+		int size() {
+			return size;
+		}
+
+		Group find(CharSequence text) {
+			int hash = hash(text);
+			int mask = table.length - 1;
+			for (int i = hash & mask; table[i] != null; i = (i + 1) & mask) {
+				if (table[i].hash == hash && contentEquals(table[i].text, text))
+					return table[i];
+			}
+			return null;
+		}
+
+		/**
+		 * @return The group for the text, added if it is not held
+		 */
+		Group get(CharSequence text) {
+			int hash = hash(text);
+			int mask = table.length - 1;
+			int i = hash & mask;
+			for (; table[i] != null; i = (i + 1) & mask) {
+				if (table[i].hash == hash && contentEquals(table[i].text, text))
+					return table[i];
+			}
+			Group group = new Group(text.toString(), hash);
+			table[i] = group;
+			if (++size * 2 > table.length)
+				resize();
+			return group;
+		}
+
+		List<Group> groups() {
+			List<Group> groups = new ArrayList<Group>(size);
+			for (Group group: table) {
+				if (group != null)
+					groups.add(group);
+			}
+			return groups;
+		}
+
+		void clear() {
+			Arrays.fill(table, null);
+			size = 0;
+		}
+
+		private void resize() {
+			Group[] old = table;
+			table = new Group[old.length * 2];
+			int mask = table.length - 1;
+			for (Group group: old) {
+				if (group == null)
+					continue;
+				int i = group.hash & mask;
+				while (table[i] != null)
+					i = (i + 1) & mask;
+				table[i] = group;
+			}
+		}
+
+		private static int hash(CharSequence text) {
+			int hash = 0;
+			for (int i = 0; i < text.length(); i++)
+				hash = 31 * hash + text.charAt(i);
+			return hash ^ (hash >>> 16);
+		}
+
+		private static boolean contentEquals(String a, CharSequence b) {
+			if (a.length() != b.length())
+				return false;
+			for (int i = 0; i < a.length(); i++) {
+				if (a.charAt(i) != b.charAt(i))
+					return false;
+			}
+			return true;
+		}
+	}
+}
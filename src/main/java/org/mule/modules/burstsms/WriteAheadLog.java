@@ -0,0 +1,339 @@
+package org.mule.modules.burstsms;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An append-only log of entries and their acknowledgements, kept in memory-mapped segment files,
+ * from which the entries not yet acknowledged can be recovered after a crash.
+ * <p>
+ * Each record is written straight into the mapped segment, so once {@link #append} returns the
+ * entry is in the operating system's page cache and survives the process crashing. With
+ * <code>force</code> set every record is also flushed to the device before returning, so entries
+ * survive the machine failing too, at the cost of a disk write per record.
+ * <p>
+ * A record is its length, its type, the sequence number of its entry, its payload and a CRC32 of
+ * the type, sequence and payload. A record torn by a crash fails its check and ends the log.
+ * Acknowledgements refer to entries in the same or earlier segments, so segments are deleted
+ * oldest first, once every entry in them has been acknowledged.
+ */
+final class WriteAheadLog {
+
+	static Log logger = LogFactory.getLog(WriteAheadLog.class);
+
+	static final byte ENTRY = 1;
+	static final byte ACK = 2;
+
+	private static final int MAGIC = 0x4253574C;
+	private static final int VERSION = 1;
+	private static final int SEGMENT_HEADER = 8;
+	//length, type, sequence and CRC
+	private static final int RECORD_OVERHEAD = 4 + 1 + 8 + 4;
+	private static final String SUFFIX = ".wal";
+
+	/**
+	 * An entry which has not been acknowledged
+	 */
+	static class Entry {
+		final long sequence;
+		//the segment in the high 32 bits and the offset in the low 32 bits
+		final long position;
+
+		Entry(long sequence, long position) {
+			this.sequence = sequence;
+			this.position = position;
+		}
+	}
+
+	private static class Segment {
+		final int id;
+		final File file;
+		final MappedByteBuffer buffer;
+		int unacknowledged;
+
+		Segment(int id, File file, MappedByteBuffer buffer) {
+			this.id = id;
+			this.file = file;
+			this.buffer = buffer;
+		}
+	}
+
+	private final File directory;
+	private final int segmentSize;
+	private final boolean force;
+	private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<Integer, Segment>();
+	private final CRC32 crc = new CRC32();
+	private final List<Entry> recovered;
+
+	private Segment current;
+	private int writePosition;
+	private long nextSequence = 1;
+	private long unacknowledged;
+
+	/**
+	 * Open the log in a directory, creating it if need be, and recover the entries not acknowledged
+	 * @param directory The directory holding the segment files
+	 * @param segmentSize The size of each segment file in bytes
+	 * @param force Flush every record to the device before returning
+	 * @throws IOException If the log cannot be read or created
+	 */
+	WriteAheadLog(File directory, int segmentSize, boolean force) throws IOException {
+		if (segmentSize < 4096)
+			throw new IllegalArgumentException("segmentSize must be >= 4096");
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create " + directory);
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.force = force;
+		this.recovered = recover();
+	}
+
+	/**
+	 * @return The entries which were not acknowledged when the log was opened, oldest first
+	 */
+	List<Entry> getRecovered() {
+		return recovered;
+	}
+
+	/**
+	 * @return The largest payload a record can hold
+	 */
+	int getMaxPayload() {
+		return segmentSize - SEGMENT_HEADER - RECORD_OVERHEAD;
+	}
+
+	/**
+	 * Write an entry
+	 * @return The entry, once its record has been written
+	 * @throws IOException If a new segment is needed and cannot be created
+	 */
+	synchronized Entry append(byte[] payload) throws IOException {
+		long sequence = nextSequence++;
+		long position = write(ENTRY, sequence, payload);
+		current.unacknowledged++;
+		unacknowledged++;
+		return new Entry(sequence, position);
+	}
+
+	/**
+	 * Write the acknowledgement of an entry, after which it is not recovered
+	 * @param entry The entry
+	 * @param payload What became of the entry, e.g. the id of the message it was sent as
+	 * @throws IOException If a new segment is needed and cannot be created
+	 */
+	synchronized void acknowledge(Entry entry, byte[] payload) throws IOException {
+		write(ACK, entry.sequence, payload);
+		Segment segment = segments.get(segmentOf(entry.position));
+		if (segment != null) {
+			segment.unacknowledged--;
+			unacknowledged--;
+		}
+		deleteAcknowledged();
+	}
+
+	/**
+	 * Read the payload of an entry. Safe to call concurrently with writes.
+	 */
+	byte[] read(Entry entry) throws IOException {
+		Segment segment = segments.get(segmentOf(entry.position));
+		if (segment == null)
+			throw new IOException("Entry " + entry.sequence + " has already been deleted");
+
+		ByteBuffer buffer = segment.buffer.duplicate();
+		buffer.position((int) entry.position);
+		int length = buffer.getInt();
+		buffer.position(buffer.position() + 1 + 8);
+		byte[] payload = new byte[length - 1 - 8];
+		buffer.get(payload);
+		return payload;
+	}
+
+	synchronized Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("unacknowledged", unacknowledged);
+		statistics.put("segments", segments.size());
+		statistics.put("nextSequence", nextSequence);
+		return statistics;
+	}
+
+	/**
+	 * Flush the current segment. The files stay mapped until they are garbage collected.
+	 */
+	synchronized void close() {
+		if (current != null)
+			current.buffer.force();
+	}
+
+	private long write(byte type, long sequence, byte[] payload) throws IOException {
+		int length = 1 + 8 + payload.length;
+		if (payload.length > getMaxPayload())
+			throw new IllegalArgumentException("A record of " + payload.length + " bytes does not fit in a segment");
+		if (writePosition + 4 + length + 4 > current.buffer.capacity())
+			roll();
+
+		ByteBuffer buffer = current.buffer;
+		int position = writePosition;
+		buffer.position(position + 4);
+		buffer.put(type);
+		buffer.putLong(sequence);
+		buffer.put(payload);
+		buffer.putInt(checksum(buffer, position, length));
+		//the length goes last, so a record is not seen until it is complete
+		buffer.putInt(position, length);
+		writePosition = buffer.position();
+		if (force)
+			current.buffer.force();
+		return (long) current.id << 32 | position;
+	}
+
+	private void roll() throws IOException {
+		if (current != null)
+			current.buffer.force();
+		current = create(current == null ? 1 : current.id + 1);
+		writePosition = SEGMENT_HEADER;
+		deleteAcknowledged();
+	}
+
+	/**
+	 * Delete the oldest segments while every entry in them has been acknowledged
+	 */
+	private void deleteAcknowledged() {
+		for (Iterator<Segment> oldest = segments.values().iterator(); oldest.hasNext(); ) {
+			Segment segment = oldest.next();
+			if (segment == current || segment.unacknowledged > 0)
+				return;
+			oldest.remove();
+			if (!segment.file.delete())
+				logger.warn("Failed to delete " + segment.file);
+		}
+	}
+
+	private Segment create(int id) throws IOException {
+		File file = new File(directory, String.format("%010d", id) + SUFFIX);
+		Segment segment = new Segment(id, file, map(file, segmentSize));
+		segment.buffer.putInt(0, MAGIC);
+		segment.buffer.putInt(4, VERSION);
+		segments.put(id, segment);
+		return segment;
+	}
+
+	private static MappedByteBuffer map(File file, long size) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.length() < size)
+				raf.setLength(size);
+			//the mapping stays valid once the file is closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+	}
+
+	private List<Entry> recover() throws IOException {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(SUFFIX) && name.length() > SUFFIX.length();
+			}
+		});
+		Arrays.sort(files);
+
+		Map<Long, Entry> pending = new LinkedHashMap<Long, Entry>();
+		for (File file: files) {
+			int id;
+			try {
+				id = Integer.parseInt(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+			} catch (NumberFormatException ex) {
+				continue;
+			}
+			Segment segment = new Segment(id, file, map(file, 0));
+			if (segment.buffer.capacity() < SEGMENT_HEADER || segment.buffer.getInt(0) != MAGIC
+					|| segment.buffer.getInt(4) != VERSION)
+				throw new IOException(file + " is not a send queue log");
+			segments.put(id, segment);
+			current = segment;
+			writePosition = scan(segment, pending);
+		}
+
+		for (Entry entry: pending.values())
+			segments.get(segmentOf(entry.position)).unacknowledged++;
+		unacknowledged = pending.size();
+
+		if (current == null) {
+			roll();
+		} else {
+			//clear anything after the last complete record, e.g. a torn record
+			ByteBuffer buffer = current.buffer.duplicate();
+			buffer.position(writePosition);
+			byte[] zeros = new byte[8192];
+			while (buffer.hasRemaining())
+				buffer.put(zeros, 0, Math.min(zeros.length, buffer.remaining()));
+			deleteAcknowledged();
+		}
+
+		if (!pending.isEmpty())
+			logger.info("Recovered " + pending.size() + " unacknowledged entries from " + directory);
+		return new ArrayList<Entry>(pending.values());
+	}
+
+	/**
+	 * Read the records of a segment, adding entries to and removing acknowledged entries from <code>pending</code>
+	 * @return The position after the last complete record
+	 */
+	private int scan(Segment segment, Map<Long, Entry> pending) {
+		ByteBuffer buffer = segment.buffer;
+		int position = SEGMENT_HEADER;
+		while (position + RECORD_OVERHEAD <= buffer.capacity()) {
+			int length = buffer.getInt(position);
+			if (length < 9 || position + 4 + length + 4 > buffer.capacity())
+				break;
+
+			if (buffer.getInt(position + 4 + length) != checksum(buffer, position, length))
+				break;
+
+			byte type = buffer.get(position + 4);
+			long sequence = buffer.getLong(position + 5);
+
+			if (type == ENTRY)
+				pending.put(sequence, new Entry(sequence, (long) segment.id << 32 | position));
+			else if (type == ACK)
+				pending.remove(sequence);
+			nextSequence = Math.max(nextSequence, sequence + 1);
+			position += 4 + length + 4;
+		}
+		return position;
+	}
+
+	private static int segmentOf(long position) {
+		return (int) (position >>> 32);
+	}
+
+	/**
+	 * @return The CRC32 of the type, sequence and payload of the record at <code>position</code>
+	 */
+	private int checksum(ByteBuffer buffer, int position, int length) {
+		ByteBuffer body = buffer.duplicate();
+		body.limit(position + 4 + length);
+		body.position(position + 4);
+		crc.reset();
+		crc.update(body);
+		return (int) crc.getValue();
+	}
+}
@@ -1,5 +1,7 @@
 package org.mule.modules.burstsms.config;
 
+import java.util.Map;
+
 import org.mule.api.annotations.Configurable;
 import org.mule.api.annotations.components.Configuration;
 import org.mule.api.annotations.display.Password;
@@ -14,6 +16,16 @@ import org.mule.api.annotations.param.Optional;
 @Configuration(friendlyName = "Config")
 public class ConnectorConfig {
 
+	/**
+	 * The HTTP implementation used to talk to the BurstSMS API
+	 */
+	public enum HttpTransport {
+		/** Apache HttpClient with a pooled, keep-alive connection manager */
+		POOLED,
+		/** The JDK's HttpURLConnection */
+		URL_CONNECTION
+	}
+
 	/**
 	 * The HTTP endpoint for the BurstSMS API
 	 */
@@ -38,6 +50,308 @@ public class ConnectorConfig {
 	@Placement(order = 3)
 	private String password;
 
+	/**
+	 * The HTTP implementation used to invoke API methods
+	 */
+	@Configurable
+	@Optional
+	@Default("POOLED")
+	@Placement(tab = "Advanced", group = "Connection", order = 1)
+	private HttpTransport httpTransport;
+
+	/**
+	 * The maximum number of pooled connections
+	 */
+	@Configurable
+	@Optional
+	@Default("50")
+	@Placement(tab = "Advanced", group = "Connection", order = 2)
+	private Integer maxConnections;
+
+	/**
+	 * The maximum number of pooled connections to a single host
+	 */
+	@Configurable
+	@Optional
+	@Default("20")
+	@Placement(tab = "Advanced", group = "Connection", order = 3)
+	private Integer maxConnectionsPerRoute;
+
+	/**
+	 * Pooled connections idle for longer than this many milliseconds are closed
+	 */
+	@Configurable
+	@Optional
+	@Default("60000")
+	@Placement(tab = "Advanced", group = "Connection", order = 4)
+	private Integer idleConnectionTimeout;
+
+	/**
+	 * Timeout in milliseconds when establishing a connection to the API
+	 */
+	@Configurable
+	@Optional
+	@Default("10000")
+	@Placement(tab = "Advanced", group = "Connection", order = 5)
+	private Integer connectTimeout;
+
+	/**
+	 * Timeout in milliseconds when waiting for an API response
+	 */
+	@Configurable
+	@Optional
+	@Default("30000")
+	@Placement(tab = "Advanced", group = "Connection", order = 6)
+	private Integer readTimeout;
+
+	/**
+	 * The number of threads used to run asynchronous API calls
+	 */
+	@Configurable
+	@Optional
+	@Default("64")
+	@Placement(tab = "Advanced", group = "Asynchronous Calls", order = 1)
+	private Integer asyncThreads;
+
+	/**
+	 * The number of asynchronous API calls which may wait for a thread before new calls are rejected
+	 */
+	@Configurable
+	@Optional
+	@Default("1000")
+	@Placement(tab = "Advanced", group = "Asynchronous Calls", order = 2)
+	private Integer asyncQueueSize;
+
+	/**
+	 * The maximum number of send-sms calls per second, or 0 for no limit
+	 */
+	@Configurable
+	@Optional
+	@Default("0")
+	@Placement(tab = "Advanced", group = "Rate Limits", order = 1)
+	private Integer sendRateLimit;
+
+	/**
+	 * The maximum number of list calls per second, or 0 for no limit
+	 */
+	@Configurable
+	@Optional
+	@Default("0")
+	@Placement(tab = "Advanced", group = "Rate Limits", order = 2)
+	private Integer listRateLimit;
+
+	/**
+	 * The maximum number of all other calls per second, or 0 for no limit
+	 */
+	@Configurable
+	@Optional
+	@Default("0")
+	@Placement(tab = "Advanced", group = "Rate Limits", order = 3)
+	private Integer defaultRateLimit;
+
+	/**
+	 * The most times a call is attempted, including the first. 1 disables retries.
+	 */
+	@Configurable
+	@Optional
+	@Default("3")
+	@Placement(tab = "Advanced", group = "Retries", order = 1)
+	private Integer retryMaxAttempts;
+
+	/**
+	 * The delay before the first retry in milliseconds, doubling for each further retry
+	 */
+	@Configurable
+	@Optional
+	@Default("200")
+	@Placement(tab = "Advanced", group = "Retries", order = 2)
+	private Integer retryBaseDelay;
+
+	/**
+	 * The longest delay between retries in milliseconds
+	 */
+	@Configurable
+	@Optional
+	@Default("5000")
+	@Placement(tab = "Advanced", group = "Retries", order = 3)
+	private Integer retryMaxDelay;
+
+	/**
+	 * The fraction of each retry delay, between 0 and 1, which is randomised
+	 */
+	@Configurable
+	@Optional
+	@Default("0.5")
+	@Placement(tab = "Advanced", group = "Retries", order = 4)
+	private Double retryJitter;
+
+	/**
+	 * Whether to stop calling the API while it is failing
+	 */
+	@Configurable
+	@Optional
+	@Default("true")
+	@Placement(tab = "Advanced", group = "Circuit Breaker", order = 1)
+	private Boolean circuitBreakerEnabled;
+
+	/**
+	 * The number of recent calls the failure rate is calculated over
+	 */
+	@Configurable
+	@Optional
+	@Default("20")
+	@Placement(tab = "Advanced", group = "Circuit Breaker", order = 2)
+	private Integer circuitBreakerWindowSize;
+
+	/**
+	 * The percentage of failed or slow calls which stops calls to the API
+	 */
+	@Configurable
+	@Optional
+	@Default("50")
+	@Placement(tab = "Advanced", group = "Circuit Breaker", order = 3)
+	private Integer circuitBreakerFailureRate;
+
+	/**
+	 * Calls taking longer than this many milliseconds count as slow
+	 */
+	@Configurable
+	@Optional
+	@Default("10000")
+	@Placement(tab = "Advanced", group = "Circuit Breaker", order = 4)
+	private Integer circuitBreakerSlowCallThreshold;
+
+	/**
+	 * How long calls are stopped, in milliseconds, before the API is tested again
+	 */
+	@Configurable
+	@Optional
+	@Default("30000")
+	@Placement(tab = "Advanced", group = "Circuit Breaker", order = 5)
+	private Integer circuitBreakerOpenDuration;
+
+	/**
+	 * Whether to cache responses from read-mostly calls such as get-number and format-number
+	 */
+	@Configurable
+	@Optional
+	@Default("false")
+	@Placement(tab = "Advanced", group = "Response Cache", order = 1)
+	private Boolean cacheEnabled;
+
+	/**
+	 * The most responses cached before the least recently used is evicted
+	 */
+	@Configurable
+	@Optional
+	@Default("1000")
+	@Placement(tab = "Advanced", group = "Response Cache", order = 2)
+	private Integer cacheMaxEntries;
+
+	/**
+	 * How long, in seconds, cached responses are used for. get-balance (30 seconds) and 
+	 * format-number (1 day) have their own defaults.
+	 */
+	@Configurable
+	@Optional
+	@Default("300")
+	@Placement(tab = "Advanced", group = "Response Cache", order = 3)
+	private Integer cacheTtl;
+
+	/**
+	 * How long, in seconds, responses from individual operations are cached for, keyed by 
+	 * operation, e.g. get-balance
+	 */
+	@Configurable
+	@Optional
+	@Placement(tab = "Advanced", group = "Response Cache", order = 4)
+	private Map<String, Integer> cacheTtls;
+
+	/**
+	 * Whether concurrent identical read calls, such as get-number or get-sms with the same arguments,
+	 * share a single request and its response rather than each making their own
+	 */
+	@Configurable
+	@Optional
+	@Default("true")
+	@Placement(tab = "Advanced", group = "Response Cache", order = 5)
+	private Boolean coalesceReads;
+
+	/**
+	 * A directory for the write-ahead log of queue-sms. Calls queued with queue-sms are kept there 
+	 * until they have been sent, so they survive a restart. queue-sms cannot be used without it.
+	 */
+	@Configurable
+	@Optional
+	@Placement(tab = "Advanced", group = "Send Queue", order = 1)
+	private String sendQueueDirectory;
+
+	/**
+	 * The number of queued calls sent at the same time
+	 */
+	@Configurable
+	@Optional
+	@Default("4")
+	@Placement(tab = "Advanced", group = "Send Queue", order = 2)
+	private Integer sendQueueSenders;
+
+	/**
+	 * The size of each write-ahead log file, in megabytes. A call's recipients must fit in one file.
+	 */
+	@Configurable
+	@Optional
+	@Default("64")
+	@Placement(tab = "Advanced", group = "Send Queue", order = 3)
+	private Integer sendQueueSegmentSize;
+
+	/**
+	 * Whether to flush each queued call to disk before accepting it, so queued calls also survive 
+	 * the machine failing. Otherwise they survive the application or JVM failing.
+	 */
+	@Configurable
+	@Optional
+	@Default("false")
+	@Placement(tab = "Advanced", group = "Send Queue", order = 4)
+	private Boolean sendQueueForceWrites;
+
+	/**
+	 * How long send-sms-once remembers each idempotency key, in seconds
+	 */
+	@Configurable
+	@Optional
+	@Default("86400")
+	@Placement(tab = "Advanced", group = "Idempotency", order = 1)
+	private Integer idempotencyWindow;
+
+	/**
+	 * The most idempotency keys send-sms-once remembers. When more are used within the window the 
+	 * oldest are forgotten early.
+	 */
+	@Configurable
+	@Optional
+	@Default("100000")
+	@Placement(tab = "Advanced", group = "Idempotency", order = 2)
+	private Integer idempotencyMaxEntries;
+
+	/**
+	 * Whether to also keep idempotency keys in a persistent object store, so they are remembered 
+	 * across restarts and by every node of a cluster
+	 */
+	@Configurable
+	@Optional
+	@Default("false")
+	@Placement(tab = "Advanced", group = "Idempotency", order = 3)
+	private Boolean idempotencyPersistent;
+
+	/**
+	 * Whether to publish the request counts, latencies and errors of each API operation as MBeans
+	 */
+	@Configurable
+	@Optional
+	@Default("true")
+	@Placement(tab = "Advanced", group = "Monitoring", order = 1)
+	private Boolean jmxEnabled;
+
 	public String getApiUrl() {
 		return apiUrl;
 	}
@@ -62,4 +376,268 @@ public class ConnectorConfig {
 		this.password = password;
 	}
 
+	public HttpTransport getHttpTransport() {
+		return httpTransport;
+	}
+
+	public void setHttpTransport(HttpTransport httpTransport) {
+		this.httpTransport = httpTransport;
+	}
+
+	public Integer getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxConnections(Integer maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	public Integer getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	public void setMaxConnectionsPerRoute(Integer maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+
+	public Integer getIdleConnectionTimeout() {
+		return idleConnectionTimeout;
+	}
+
+	public void setIdleConnectionTimeout(Integer idleConnectionTimeout) {
+		this.idleConnectionTimeout = idleConnectionTimeout;
+	}
+
+	public Integer getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public void setConnectTimeout(Integer connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public Integer getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout(Integer readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	public Integer getAsyncThreads() {
+		return asyncThreads;
+	}
+
+	public void setAsyncThreads(Integer asyncThreads) {
+		this.asyncThreads = asyncThreads;
+	}
+
+	public Integer getAsyncQueueSize() {
+		return asyncQueueSize;
+	}
+
+	public void setAsyncQueueSize(Integer asyncQueueSize) {
+		this.asyncQueueSize = asyncQueueSize;
+	}
+
+	public Integer getSendRateLimit() {
+		return sendRateLimit;
+	}
+
+	public void setSendRateLimit(Integer sendRateLimit) {
+		this.sendRateLimit = sendRateLimit;
+	}
+
+	public Integer getListRateLimit() {
+		return listRateLimit;
+	}
+
+	public void setListRateLimit(Integer listRateLimit) {
+		this.listRateLimit = listRateLimit;
+	}
+
+	public Integer getDefaultRateLimit() {
+		return defaultRateLimit;
+	}
+
+	public void setDefaultRateLimit(Integer defaultRateLimit) {
+		this.defaultRateLimit = defaultRateLimit;
+	}
+
+	public Integer getRetryMaxAttempts() {
+		return retryMaxAttempts;
+	}
+
+	public void setRetryMaxAttempts(Integer retryMaxAttempts) {
+		this.retryMaxAttempts = retryMaxAttempts;
+	}
+
+	public Integer getRetryBaseDelay() {
+		return retryBaseDelay;
+	}
+
+	public void setRetryBaseDelay(Integer retryBaseDelay) {
+		this.retryBaseDelay = retryBaseDelay;
+	}
+
+	public Integer getRetryMaxDelay() {
+		return retryMaxDelay;
+	}
+
+	public void setRetryMaxDelay(Integer retryMaxDelay) {
+		this.retryMaxDelay = retryMaxDelay;
+	}
+
+	public Double getRetryJitter() {
+		return retryJitter;
+	}
+
+	public void setRetryJitter(Double retryJitter) {
+		this.retryJitter = retryJitter;
+	}
+
+	public Boolean getCircuitBreakerEnabled() {
+		return circuitBreakerEnabled;
+	}
+
+	public void setCircuitBreakerEnabled(Boolean circuitBreakerEnabled) {
+		this.circuitBreakerEnabled = circuitBreakerEnabled;
+	}
+
+	public Integer getCircuitBreakerWindowSize() {
+		return circuitBreakerWindowSize;
+	}
+
+	public void setCircuitBreakerWindowSize(Integer circuitBreakerWindowSize) {
+		this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+	}
+
+	public Integer getCircuitBreakerFailureRate() {
+		return circuitBreakerFailureRate;
+	}
+
+	public void setCircuitBreakerFailureRate(Integer circuitBreakerFailureRate) {
+		this.circuitBreakerFailureRate = circuitBreakerFailureRate;
+	}
+
+	public Integer getCircuitBreakerSlowCallThreshold() {
+		return circuitBreakerSlowCallThreshold;
+	}
+
+	public void setCircuitBreakerSlowCallThreshold(Integer circuitBreakerSlowCallThreshold) {
+		this.circuitBreakerSlowCallThreshold = circuitBreakerSlowCallThreshold;
+	}
+
+	public Integer getCircuitBreakerOpenDuration() {
+		return circuitBreakerOpenDuration;
+	}
+
+	public void setCircuitBreakerOpenDuration(Integer circuitBreakerOpenDuration) {
+		this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+	}
+
+	public Boolean getCacheEnabled() {
+		return cacheEnabled;
+	}
+
+	public void setCacheEnabled(Boolean cacheEnabled) {
+		this.cacheEnabled = cacheEnabled;
+	}
+
+	public Integer getCacheMaxEntries() {
+		return cacheMaxEntries;
+	}
+
+	public void setCacheMaxEntries(Integer cacheMaxEntries) {
+		this.cacheMaxEntries = cacheMaxEntries;
+	}
+
+	public Integer getCacheTtl() {
+		return cacheTtl;
+	}
+
+	public void setCacheTtl(Integer cacheTtl) {
+		this.cacheTtl = cacheTtl;
+	}
+
+	public Map<String, Integer> getCacheTtls() {
+		return cacheTtls;
+	}
+
+	public void setCacheTtls(Map<String, Integer> cacheTtls) {
+		this.cacheTtls = cacheTtls;
+	}
+
+	public Boolean getCoalesceReads() {
+		return coalesceReads;
+	}
+
+	public void setCoalesceReads(Boolean coalesceReads) {
+		this.coalesceReads = coalesceReads;
+	}
+
+	public String getSendQueueDirectory() {
+		return sendQueueDirectory;
+	}
+
+	public void setSendQueueDirectory(String sendQueueDirectory) {
+		this.sendQueueDirectory = sendQueueDirectory;
+	}
+
+	public Integer getSendQueueSenders() {
+		return sendQueueSenders;
+	}
+
+	public void setSendQueueSenders(Integer sendQueueSenders) {
+		this.sendQueueSenders = sendQueueSenders;
+	}
+
+	public Integer getSendQueueSegmentSize() {
+		return sendQueueSegmentSize;
+	}
+
+	public void setSendQueueSegmentSize(Integer sendQueueSegmentSize) {
+		this.sendQueueSegmentSize = sendQueueSegmentSize;
+	}
+
+	public Boolean getSendQueueForceWrites() {
+		return sendQueueForceWrites;
+	}
+
+	public void setSendQueueForceWrites(Boolean sendQueueForceWrites) {
+		this.sendQueueForceWrites = sendQueueForceWrites;
+	}
+
+	public Integer getIdempotencyWindow() {
+		return idempotencyWindow;
+	}
+
+	public void setIdempotencyWindow(Integer idempotencyWindow) {
+		this.idempotencyWindow = idempotencyWindow;
+	}
+
+	public Integer getIdempotencyMaxEntries() {
+		return idempotencyMaxEntries;
+	}
+
+	public void setIdempotencyMaxEntries(Integer idempotencyMaxEntries) {
+		this.idempotencyMaxEntries = idempotencyMaxEntries;
+	}
+
+	public Boolean getIdempotencyPersistent() {
+		return idempotencyPersistent;
+	}
+
+	public void setIdempotencyPersistent(Boolean idempotencyPersistent) {
+		this.idempotencyPersistent = idempotencyPersistent;
+	}
+
+	public Boolean getJmxEnabled() {
+		return jmxEnabled;
+	}
+
+	public void setJmxEnabled(Boolean jmxEnabled) {
+		this.jmxEnabled = jmxEnabled;
+	}
+
 }
@@ -0,0 +1,49 @@
+package org.mule.modules.burstsms.model;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A notification sent by BurstSMS to a callback URL given to send-sms or set in the API settings
+ */
+public abstract class CallbackEvent implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Map<String, String> parameters;
+	private final long receivedAt;
+
+	/**
+	 * @param parameters The decoded query or form parameters of the callback request
+	 */
+	CallbackEvent(Map<String, String> parameters) {
+		this.parameters = Collections.unmodifiableMap(parameters);
+		this.receivedAt = System.currentTimeMillis();
+	}
+
+	public String getMessageId() {
+		return parameters.get("message_id");
+	}
+
+	/**
+	 * @return The recipient's number for a delivery receipt, or the sender's number for a reply
+	 */
+	public String getMobile() {
+		return parameters.get("mobile");
+	}
+
+	/**
+	 * @return Every parameter of the callback, including any not exposed by a getter
+	 */
+	public Map<String, String> getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * @return When the connector received the callback, in milliseconds since the epoch
+	 */
+	public long getReceivedAt() {
+		return receivedAt;
+	}
+}
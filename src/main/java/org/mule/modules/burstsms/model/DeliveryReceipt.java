@@ -0,0 +1,38 @@
+package org.mule.modules.burstsms.model;
+
+import java.util.Map;
+
+/**
+ * A delivery receipt, sent to the DLR callback URL when the status of a message to one recipient changes
+ */
+public class DeliveryReceipt extends CallbackEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	public DeliveryReceipt(Map<String, String> parameters) {
+		super(parameters);
+	}
+
+	/**
+	 * @return The delivery status, e.g. delivered, pending or hard-bounce
+	 */
+	public String getStatus() {
+		return getParameters().get("status");
+	}
+
+	/**
+	 * @return When the status changed, e.g. 2016-08-01 10:00:05
+	 */
+	public String getDatetime() {
+		return getParameters().get("datetime");
+	}
+
+	public boolean isDelivered() {
+		return "delivered".equalsIgnoreCase(getStatus());
+	}
+
+	@Override
+	public String toString() {
+		return "DeliveryReceipt[messageId=" + getMessageId() + ", mobile=" + getMobile() + ", status=" + getStatus() + "]";
+	}
+}
@@ -0,0 +1,401 @@
+package org.mule.modules.burstsms.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Streaming parsers for API responses.
+ * <p>
+ * The typed parsers read straight from the token stream into the model classes, keeping
+ * numbers as primitives and skipping anything they do not recognise, so no intermediate
+ * tree of maps is built for large responses. {@link #MAP} reads any response into nested
+ * maps and lists in the same shape as before.
+ */
+public final class JsonResponses {
+
+	private static final JsonFactory FACTORY = new JsonFactory();
+
+	private JsonResponses() {
+	}
+
+	/**
+	 * Parse a response body
+	 * @param in The response body
+	 * @param parser The parser for the expected response type
+	 * @return The parsed response
+	 * @throws IOException If the response could not be read or is not valid JSON
+	 */
+	public static <T> T parse(InputStream in, ResponseParser<T> parser) throws IOException {
+		JsonParser jsonParser = FACTORY.createJsonParser(in);
+		try {
+			return parser.parse(jsonParser);
+		} finally {
+			jsonParser.close();
+		}
+	}
+
+	/**
+	 * Reads any response into nested maps and lists
+	 */
+	public static final ResponseParser<Map<String, Object>> MAP = new ResponseParser<Map<String, Object>>() {
+		@Override
+		@SuppressWarnings("unchecked")
+		public Map<String, Object> parse(JsonParser parser) throws IOException {
+			if (startObject(parser) != JsonToken.START_OBJECT)
+				throw new JsonParseException("Expected a JSON object", parser.getCurrentLocation());
+			return (Map<String, Object>) readValue(parser);
+		}
+	};
+
+	/**
+	 * Reads a send-sms response
+	 */
+	public static final ResponseParser<SendSmsResult> SEND_SMS_RESULT = new ObjectParser<SendSmsResult>() {
+		@Override
+		SendSmsResult create() {
+			return new SendSmsResult();
+		}
+
+		@Override
+		boolean field(SendSmsResult result, String name, JsonParser parser) throws IOException {
+			if ("message_id".equals(name))
+				result.messageId = longValue(parser);
+			else if ("send_at".equals(name))
+				result.sendAt = text(parser);
+			else if ("recipients".equals(name))
+				result.recipients = (int) longValue(parser);
+			else if ("sms".equals(name))
+				result.sms = (int) longValue(parser);
+			else if ("cost".equals(name))
+				result.cost = doubleValue(parser);
+			else if ("fails".equals(name))
+				readTextArray(parser, result.fails);
+			else
+				return false;
+			return true;
+		}
+	};
+
+	private static final ObjectParser<Recipient> RECIPIENT = new ObjectParser<Recipient>() {
+		@Override
+		Recipient create() {
+			return new Recipient();
+		}
+
+		@Override
+		boolean field(Recipient recipient, String name, JsonParser parser) throws IOException {
+			if ("msisdn".equals(name))
+				recipient.msisdn = text(parser);
+			else if ("first_name".equals(name))
+				recipient.firstName = text(parser);
+			else if ("last_name".equals(name))
+				recipient.lastName = text(parser);
+			else if ("send_at".equals(name))
+				recipient.sendAt = text(parser);
+			else if ("delivered_at".equals(name))
+				recipient.deliveredAt = text(parser);
+			else if ("status".equals(name) || "delivery".equals(name) || "delivery_status".equals(name))
+				recipient.status = text(parser);
+			else
+				return false;
+			return true;
+		}
+	};
+
+	/**
+	 * Reads a get-sms-sent response
+	 */
+	public static final ResponseParser<Page<Recipient>> SMS_SENT_PAGE = new ObjectParser<Page<Recipient>>() {
+		@Override
+		Page<Recipient> create() {
+			return new Page<Recipient>();
+		}
+
+		@Override
+		boolean field(Page<Recipient> page, String name, JsonParser parser) throws IOException {
+			if ("recipients".equals(name)) {
+				readArray(parser, RECIPIENT, page.items);
+				return true;
+			}
+			return pageField(page, name, parser);
+		}
+	};
+
+	private static final ObjectParser<ListMember> LIST_MEMBER = new ObjectParser<ListMember>() {
+		@Override
+		ListMember create() {
+			return new ListMember();
+		}
+
+		@Override
+		boolean field(ListMember member, String name, JsonParser parser) throws IOException {
+			if ("id".equals(name))
+				member.id = longValue(parser);
+			else if ("msisdn".equals(name))
+				member.msisdn = text(parser);
+			else if ("first_name".equals(name))
+				member.firstName = text(parser);
+			else if ("last_name".equals(name))
+				member.lastName = text(parser);
+			else if ("created_at".equals(name))
+				member.createdAt = text(parser);
+			else if ("status".equals(name))
+				member.status = text(parser);
+			else if (parser.getCurrentToken().isScalarValue())
+				member.fields.put(name, text(parser));
+			else
+				return false;
+			return true;
+		}
+	};
+
+	/**
+	 * Reads a get-list response
+	 */
+	public static final ResponseParser<ListPage> LIST_PAGE = new ObjectParser<ListPage>() {
+		@Override
+		ListPage create() {
+			return new ListPage();
+		}
+
+		@Override
+		boolean field(ListPage page, String name, JsonParser parser) throws IOException {
+			if ("id".equals(name))
+				page.id = longValue(parser);
+			else if ("name".equals(name))
+				page.name = text(parser);
+			else if ("members_total".equals(name))
+				page.membersTotal = longValue(parser);
+			else if ("members_active".equals(name))
+				page.membersActive = longValue(parser);
+			else if ("fields".equals(name))
+				readTextObject(parser, page.fieldNames);
+			else if ("members".equals(name))
+				readArray(parser, LIST_MEMBER, page.items);
+			else
+				return pageField(page, name, parser);
+			return true;
+		}
+	};
+
+	private static final ObjectParser<Transaction> TRANSACTION = new ObjectParser<Transaction>() {
+		@Override
+		Transaction create() {
+			return new Transaction();
+		}
+
+		@Override
+		boolean field(Transaction transaction, String name, JsonParser parser) throws IOException {
+			if ("id".equals(name))
+				transaction.id = longValue(parser);
+			else if ("date".equals(name) || "created_at".equals(name))
+				transaction.date = text(parser);
+			else if ("type".equals(name))
+				transaction.type = text(parser);
+			else if ("description".equals(name))
+				transaction.description = text(parser);
+			else if ("amount".equals(name))
+				transaction.amount = doubleValue(parser);
+			else if ("balance".equals(name))
+				transaction.balance = doubleValue(parser);
+			else
+				return false;
+			return true;
+		}
+	};
+
+	/**
+	 * Reads a get-transactions response
+	 */
+	public static final ResponseParser<Page<Transaction>> TRANSACTIONS_PAGE = new ObjectParser<Page<Transaction>>() {
+		@Override
+		Page<Transaction> create() {
+			return new Page<Transaction>();
+		}
+
+		@Override
+		boolean field(Page<Transaction> page, String name, JsonParser parser) throws IOException {
+			if ("transactions".equals(name)) {
+				readArray(parser, TRANSACTION, page.items);
+				return true;
+			}
+			return pageField(page, name, parser);
+		}
+	};
+
+	//** helpers **//
+
+	/**
+	 * Reads the fields of one JSON object into a new instance of T
+	 */
+	abstract static class ObjectParser<T> implements ResponseParser<T> {
+
+		abstract T create();
+
+		/**
+		 * Read the value of one field, with the parser positioned on the value's first token
+		 * @return False if the field is not recognised and its value should be skipped
+		 */
+		abstract boolean field(T target, String name, JsonParser parser) throws IOException;
+
+		@Override
+		public T parse(JsonParser parser) throws IOException {
+			if (startObject(parser) != JsonToken.START_OBJECT)
+				throw new JsonParseException("Expected a JSON object", parser.getCurrentLocation());
+
+			T target = create();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				parser.nextToken();
+				if (!field(target, name, parser))
+					parser.skipChildren();
+			}
+			return target;
+		}
+	}
+
+	private static JsonToken startObject(JsonParser parser) throws IOException {
+		JsonToken token = parser.getCurrentToken();
+		return token == JsonToken.START_OBJECT ? token : parser.nextToken();
+	}
+
+	private static Object readValue(JsonParser parser) throws IOException {
+		switch (parser.getCurrentToken()) {
+		case START_OBJECT:
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				parser.nextToken();
+				map.put(name, readValue(parser));
+			}
+			return map;
+		case START_ARRAY:
+			List<Object> list = new ArrayList<Object>();
+			while (parser.nextToken() != JsonToken.END_ARRAY)
+				list.add(readValue(parser));
+			return list;
+		case VALUE_NUMBER_INT:
+		case VALUE_NUMBER_FLOAT:
+			return parser.getNumberValue();
+		case VALUE_TRUE:
+			return Boolean.TRUE;
+		case VALUE_FALSE:
+			return Boolean.FALSE;
+		case VALUE_NULL:
+			return null;
+		default:
+			return parser.getText();
+		}
+	}
+
+	private static boolean pageField(Page<?> page, String name, JsonParser parser) throws IOException {
+		if ("total".equals(name)) {
+			page.total = longValue(parser);
+			return true;
+		}
+		if ("page".equals(name) && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				parser.nextToken();
+				if ("count".equals(field))
+					page.count = (int) longValue(parser);
+				else if ("number".equals(field))
+					page.number = (int) longValue(parser);
+				else
+					parser.skipChildren();
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private static <E> void readArray(JsonParser parser, ObjectParser<E> elementParser, List<E> into)
+			throws IOException {
+		if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+			parser.skipChildren();
+			return;
+		}
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			if (token == JsonToken.START_OBJECT)
+				into.add(elementParser.parse(parser));
+			else
+				parser.skipChildren();
+		}
+	}
+
+	private static void readTextArray(JsonParser parser, List<String> into) throws IOException {
+		if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+			parser.skipChildren();
+			return;
+		}
+		while (parser.nextToken() != JsonToken.END_ARRAY) {
+			if (parser.getCurrentToken().isScalarValue())
+				into.add(text(parser));
+			else
+				parser.skipChildren();
+		}
+	}
+
+	private static void readTextObject(JsonParser parser, Map<String, String> into) throws IOException {
+		if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return;
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			if (parser.nextToken().isScalarValue())
+				into.put(name, text(parser));
+			else
+				parser.skipChildren();
+		}
+	}
+
+	private static String text(JsonParser parser) throws IOException {
+		return parser.getCurrentToken() == JsonToken.VALUE_NULL ? null : parser.getText();
+	}
+
+	private static long longValue(JsonParser parser) throws IOException {
+		switch (parser.getCurrentToken()) {
+		case VALUE_NUMBER_INT:
+			return parser.getLongValue();
+		case VALUE_NUMBER_FLOAT:
+			return (long) parser.getDoubleValue();
+		case VALUE_STRING:
+			try {
+				return Long.parseLong(parser.getText().trim());
+			} catch (NumberFormatException ex) {
+				return 0;
+			}
+		default:
+			parser.skipChildren();
+			return 0;
+		}
+	}
+
+	private static double doubleValue(JsonParser parser) throws IOException {
+		switch (parser.getCurrentToken()) {
+		case VALUE_NUMBER_INT:
+		case VALUE_NUMBER_FLOAT:
+			return parser.getDoubleValue();
+		case VALUE_STRING:
+			try {
+				return Double.parseDouble(parser.getText().trim());
+			} catch (NumberFormatException ex) {
+				return 0;
+			}
+		default:
+			parser.skipChildren();
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package org.mule.modules.burstsms.model;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A member of a contact list, as returned by get-list
+ */
+public class ListMember implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	long id;
+	String msisdn;
+	String firstName;
+	String lastName;
+	String createdAt;
+	String status;
+	final Map<String, String> fields = new LinkedHashMap<String, String>();
+
+	public long getId() {
+		return id;
+	}
+
+	public String getMsisdn() {
+		return msisdn;
+	}
+
+	public String getFirstName() {
+		return firstName;
+	}
+
+	public String getLastName() {
+		return lastName;
+	}
+
+	public String getCreatedAt() {
+		return createdAt;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return The custom fields set on this member, keyed by field name, e.g. field_1
+	 */
+	public Map<String, String> getFields() {
+		return fields;
+	}
+}
@@ -0,0 +1,41 @@
+package org.mule.modules.burstsms.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A contact list and one page of its members, as returned by get-list
+ */
+public class ListPage extends Page<ListMember> {
+
+	private static final long serialVersionUID = 1L;
+
+	long id;
+	String name;
+	long membersTotal;
+	long membersActive;
+	final Map<String, String> fieldNames = new LinkedHashMap<String, String>();
+
+	public long getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getMembersTotal() {
+		return membersTotal;
+	}
+
+	public long getMembersActive() {
+		return membersActive;
+	}
+
+	/**
+	 * @return The names given to the custom fields of this list, keyed by field, e.g. field_1
+	 */
+	public Map<String, String> getFieldNames() {
+		return fieldNames;
+	}
+}
@@ -0,0 +1,54 @@
+package org.mule.modules.burstsms.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of results from a paginated API call
+ * @param <T> The type of each result
+ */
+public class Page<T> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	final List<T> items = new ArrayList<T>();
+	int number;
+	int count;
+	long total;
+
+	/**
+	 * @return The results on this page
+	 */
+	public List<T> getItems() {
+		return items;
+	}
+
+	/**
+	 * @return The number of this page, starting at 1
+	 */
+	public int getNumber() {
+		return number;
+	}
+
+	/**
+	 * @return The total number of pages
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return The total number of results across all pages
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return True if there are further pages after this one
+	 */
+	public boolean hasNext() {
+		return number < count;
+	}
+}
@@ -0,0 +1,45 @@
+package org.mule.modules.burstsms.model;
+
+import java.io.Serializable;
+
+/**
+ * A recipient of a sent message, as returned by get-sms-sent
+ */
+public class Recipient implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	String msisdn;
+	String firstName;
+	String lastName;
+	String sendAt;
+	String deliveredAt;
+	String status;
+
+	public String getMsisdn() {
+		return msisdn;
+	}
+
+	public String getFirstName() {
+		return firstName;
+	}
+
+	public String getLastName() {
+		return lastName;
+	}
+
+	public String getSendAt() {
+		return sendAt;
+	}
+
+	public String getDeliveredAt() {
+		return deliveredAt;
+	}
+
+	/**
+	 * @return The delivery status, e.g. delivered, pending or failed
+	 */
+	public String getStatus() {
+		return status;
+	}
+}
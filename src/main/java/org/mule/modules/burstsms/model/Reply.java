@@ -0,0 +1,45 @@
+package org.mule.modules.burstsms.model;
+
+import java.util.Map;
+
+/**
+ * A reply to a message, sent to the reply callback URL
+ */
+public class Reply extends CallbackEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	public Reply(Map<String, String> parameters) {
+		super(parameters);
+	}
+
+	/**
+	 * @return The text of the reply
+	 */
+	public String getResponse() {
+		return getParameters().get("response");
+	}
+
+	public String getResponseId() {
+		return getParameters().get("response_id");
+	}
+
+	/**
+	 * @return The virtual number the reply was sent to
+	 */
+	public String getLongcode() {
+		return getParameters().get("longcode");
+	}
+
+	/**
+	 * @return When the reply was received, e.g. 2016-08-01 10:05:00
+	 */
+	public String getDatetime() {
+		return getParameters().get("datetime_entry");
+	}
+
+	@Override
+	public String toString() {
+		return "Reply[messageId=" + getMessageId() + ", mobile=" + getMobile() + ", responseId=" + getResponseId() + "]";
+	}
+}
@@ -0,0 +1,19 @@
+package org.mule.modules.burstsms.model;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonParser;
+
+/**
+ * Reads an API response body from a streaming JSON parser.
+ * @param <T> The type the response is read into
+ */
+public interface ResponseParser<T> {
+
+	/**
+	 * @param parser A parser positioned before the first token of the response
+	 * @return The parsed response
+	 * @throws IOException If the response could not be read or is not valid JSON
+	 */
+	T parse(JsonParser parser) throws IOException;
+}
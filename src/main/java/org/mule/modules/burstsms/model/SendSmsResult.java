@@ -0,0 +1,56 @@
+package org.mule.modules.burstsms.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The result of a send-sms call
+ */
+public class SendSmsResult implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	long messageId;
+	String sendAt;
+	int recipients;
+	int sms;
+	double cost;
+	final List<String> fails = new ArrayList<String>();
+
+	public long getMessageId() {
+		return messageId;
+	}
+
+	public String getSendAt() {
+		return sendAt;
+	}
+
+	/**
+	 * @return The number of recipients the message was accepted for
+	 */
+	public int getRecipients() {
+		return recipients;
+	}
+
+	/**
+	 * @return The number of SMS parts sent to each recipient
+	 */
+	public int getSms() {
+		return sms;
+	}
+
+	/**
+	 * @return The cost, in the major unit of the account currency
+	 */
+	public double getCost() {
+		return cost;
+	}
+
+	/**
+	 * @return The numbers which could not be sent to
+	 */
+	public List<String> getFails() {
+		return fails;
+	}
+}
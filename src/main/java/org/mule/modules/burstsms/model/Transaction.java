@@ -0,0 +1,42 @@
+package org.mule.modules.burstsms.model;
+
+import java.io.Serializable;
+
+/**
+ * An account transaction, as returned by get-transactions
+ */
+public class Transaction implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	long id;
+	String date;
+	String type;
+	String description;
+	double amount;
+	double balance;
+
+	public long getId() {
+		return id;
+	}
+
+	public String getDate() {
+		return date;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public double getAmount() {
+		return amount;
+	}
+
+	public double getBalance() {
+		return balance;
+	}
+}